@@ -0,0 +1,88 @@
+package com.abernathy.patienthistory.benchmark;
+
+import com.abernathy.patienthistory.domain.PatientNote;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.bson.types.ObjectId;
+
+import java.lang.reflect.Field;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Test data shared by benchmarks
+ */
+public class BenchmarkData {
+
+    private static final String[] WORDS = {"Patient", "states", "that", "they", "feel", "fine", "Hemoglobin", "A1C",
+            "Microalbumin", "Smoker", "reports", "weight", "recently", "cholesterol", "dizziness", "normal",
+            "levels", "above", "reaction", "antibodies", "height", "abnormal", "relapse", "since", "last", "visit"};
+
+    /**
+     * Builds notes spread over 10 patients with text of roughly noteLength characters
+     *
+     * @param count number of notes
+     * @param noteLength approximate length of each note
+     * @return List of PatientNote
+     */
+    public static List<PatientNote> notes(int count, int noteLength) {
+        Random random = new Random(42);
+        List<PatientNote> notes = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            PatientNote note = new PatientNote();
+            note.setPatientNoteId(new ObjectId().toHexString());
+            note.setPatId(i % 10);
+            note.setNote(text(random, noteLength));
+            note.setCreatedAt(Instant.now());
+            notes.add(note);
+        }
+        return notes;
+    }
+
+    /**
+     * Builds text of roughly length characters from clinical sounding words
+     *
+     * @param random source of randomness
+     * @param length approximate length
+     * @return text
+     */
+    public static String text(Random random, int length) {
+        StringBuilder text = new StringBuilder(length + 16);
+        while (text.length() < length) {
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        }
+        return text.toString().trim();
+    }
+
+    /**
+     * Builds an ObjectMapper with the configuration Spring Boot applies
+     *
+     * @return ObjectMapper
+     */
+    public static ObjectMapper objectMapper() {
+        return new ObjectMapper()
+                .registerModule(new JavaTimeModule())
+                .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS);
+    }
+
+    /**
+     * Sets a private field, standing in for Spring injection outside an application context
+     *
+     * @param target object to set field on
+     * @param name field name, declared by the target's class
+     * @param value value to set
+     */
+    public static void inject(Object target, String name, Object value) {
+        try {
+            Field field = target.getClass().getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(target, value);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot set " + name + " on " + target.getClass().getSimpleName(), e);
+        }
+    }
+
+}
@@ -0,0 +1,234 @@
+package com.abernathy.patienthistory.benchmark;
+
+import com.abernathy.patienthistory.domain.PatientNote;
+import com.abernathy.patienthistory.domain.PatientTermProfile;
+import com.abernathy.patienthistory.repository.NoteCompression;
+import com.abernathy.patienthistory.repository.PatientNoteRepository;
+import com.abernathy.patienthistory.repository.PatientTermProfileRepository;
+import com.abernathy.patienthistory.service.TriggerTermCallback;
+import com.abernathy.patienthistory.service.TriggerTermMatcher;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Map backed stand-ins for the Mongo repositories, so service code can be measured without a database
+ * Only the methods used on the benchmarked paths are implemented, any other call fails with UnsupportedOperationException
+ */
+public class InMemoryRepositories {
+
+    // Returned by a handler for methods it does not implement
+    private static final Object UNSUPPORTED = new Object();
+
+    private InMemoryRepositories() {
+    }
+
+    /**
+     * Builds a PatientNoteRepository holding the provided notes
+     * Saving a note with an existing ID replaces it, and deleteById removes a note again
+     * Saves apply TriggerTermCallback and NoteCompressionCallback as MongoTemplate would,
+     * and notes read back with their text are decompressed, so both callbacks are part of what is measured
+     *
+     * @param notes       initial notes
+     * @param matcher     TriggerTermMatcher used to count trigger terms on save
+     * @param compression NoteCompression used to store long note text
+     * @return PatientNoteRepository
+     */
+    public static PatientNoteRepository patientNotes(Collection<PatientNote> notes, TriggerTermMatcher matcher,
+                                                     NoteCompression compression) {
+        Map<String, PatientNote> byId = new ConcurrentHashMap<>();
+        // Stored form of notes whose text is compressed
+        Map<String, Document> compressed = new ConcurrentHashMap<>();
+        for (PatientNote note : notes) {
+            byId.put(note.getPatientNoteId(), note);
+        }
+        return proxy(PatientNoteRepository.class, (method, args) -> {
+            switch (method.getName()) {
+                case "findAllByPatId":
+                    return read(byPatId(byId.values(), (Integer) args[0]), compressed, compression);
+                case "findVersionsByPatId":
+                case "findTriggerTermsByPatId":
+                    return byPatId(byId.values(), (Integer) args[0]);
+                case "findById":
+                    PatientNote byIdNote = byId.get((String) args[0]);
+                    return Optional.ofNullable(byIdNote == null ? null : read(List.of(byIdNote), compressed, compression).get(0));
+                case "findAllById":
+                    List<PatientNote> found = new ArrayList<>();
+                    for (Object id : (Iterable<?>) args[0]) {
+                        PatientNote note = byId.get((String) id);
+                        if (note != null) {
+                            found.add(note);
+                        }
+                    }
+                    return read(found, compressed, compression);
+                case "save":
+                    PatientNote note = (PatientNote) args[0];
+                    TriggerTermCallback.apply(matcher, note);
+                    if (note.getPatientNoteId() == null) {
+                        note.setPatientNoteId(new ObjectId().toHexString());
+                    }
+                    if (note.getCreatedAt() == null) {
+                        note.setCreatedAt(Instant.now());
+                    }
+                    note.setLastModified(Instant.now());
+                    Document document = new Document(NoteCompression.NOTE_FIELD, note.getNote());
+                    compression.compress(document);
+                    if (document.containsKey(NoteCompression.COMPRESSED_FIELD)) {
+                        compressed.put(note.getPatientNoteId(), document);
+                    } else {
+                        compressed.remove(note.getPatientNoteId());
+                    }
+                    byId.put(note.getPatientNoteId(), note);
+                    return note;
+                case "updateTriggerTerms":
+                    return true;
+                case "deleteById":
+                    byId.remove((String) args[0]);
+                    compressed.remove((String) args[0]);
+                    return null;
+                default:
+                    return UNSUPPORTED;
+            }
+        });
+    }
+
+    /**
+     * Builds an empty PatientTermProfileRepository
+     * Profiles are started and rebuilt from notes, and single note writes recorded, as PatientTermProfileRepositoryCustomImpl does
+     *
+     * @return PatientTermProfileRepository
+     */
+    @SuppressWarnings("unchecked")
+    public static PatientTermProfileRepository termProfiles() {
+        Map<Integer, PatientTermProfile> byPatId = new ConcurrentHashMap<>();
+        return proxy(PatientTermProfileRepository.class, (method, args) -> {
+            switch (method.getName()) {
+                case "findTotalsByPatId":
+                case "findById":
+                    return Optional.ofNullable(byPatId.get((Integer) args[0]));
+                case "save":
+                    PatientTermProfile profile = (PatientTermProfile) args[0];
+                    byPatId.put(profile.getPatId(), profile);
+                    return profile;
+                case "deleteAll":
+                    byPatId.clear();
+                    return null;
+                case "startProfile":
+                    return startProfile(byPatId, (Integer) args[0], (String) args[1]);
+                case "addNoteIfAbsent":
+                    return swapContribution(byPatId, (Integer) args[0], (String) args[1], (Map<String, Integer>) args[2], (String) args[3], true);
+                case "recordNote":
+                    return swapContribution(byPatId, (Integer) args[0], (String) args[1], (Map<String, Integer>) args[2], (String) args[3], false);
+                case "removeNote":
+                    return swapContribution(byPatId, (Integer) args[0], (String) args[1], null, (String) args[2], false);
+                default:
+                    return UNSUPPORTED;
+            }
+        });
+    }
+
+    private static List<PatientNote> read(List<PatientNote> notes, Map<String, Document> compressed, NoteCompression compression) {
+        for (PatientNote note : notes) {
+            Document document = compressed.get(note.getPatientNoteId());
+            if (document != null) {
+                compression.decompress(note, document);
+            }
+        }
+        return notes;
+    }
+
+    private static boolean startProfile(Map<Integer, PatientTermProfile> byPatId, Integer patId, String version) {
+        boolean[] started = new boolean[1];
+        byPatId.compute(patId, (id, current) -> {
+            if (current != null && version.equals(current.getVersion())) {
+                return current;
+            }
+            PatientTermProfile profile = new PatientTermProfile();
+            profile.setPatId(id);
+            profile.setTerms(new HashMap<>());
+            profile.setNotes(new HashMap<>());
+            profile.setVersion(version);
+            started[0] = true;
+            return profile;
+        });
+        return started[0];
+    }
+
+    // Replaces a note's contribution, null counts removes it
+    private static boolean swapContribution(Map<Integer, PatientTermProfile> byPatId, Integer patId, String noteId,
+                                            Map<String, Integer> counts, String version, boolean onlyIfAbsent) {
+        boolean[] swapped = new boolean[1];
+        byPatId.computeIfPresent(patId, (id, profile) -> {
+            if (!version.equals(profile.getVersion())) {
+                return profile;
+            }
+            Map<String, Integer> previous = profile.getNotes().get(noteId);
+            if ((previous == null && counts == null) || (previous != null && onlyIfAbsent)) {
+                return profile;
+            }
+            if (previous != null) {
+                previous.forEach((term, count) -> profile.getTerms().merge(term, -count, Integer::sum));
+            }
+            if (counts != null) {
+                counts.forEach((term, count) -> profile.getTerms().merge(term, count, Integer::sum));
+                profile.getNotes().put(noteId, counts);
+            } else {
+                profile.getNotes().remove(noteId);
+            }
+            profile.setNoteCount(profile.getNoteCount() + (previous == null ? 1 : 0) - (counts == null ? 1 : 0));
+            swapped[0] = true;
+            return profile;
+        });
+        return swapped[0];
+    }
+
+    private static List<PatientNote> byPatId(Collection<PatientNote> notes, Integer patId) {
+        List<PatientNote> found = new ArrayList<>();
+        for (PatientNote note : notes) {
+            if (patId.equals(note.getPatId())) {
+                found.add(note);
+            }
+        }
+        found.sort(Comparator.comparing(PatientNote::getCreatedAt));
+        return found;
+    }
+
+    private interface Handler {
+        Object invoke(Method method, Object[] args);
+    }
+
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        InvocationHandler invocationHandler = (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                switch (method.getName()) {
+                    case "equals":
+                        return proxy == args[0];
+                    case "hashCode":
+                        return System.identityHashCode(proxy);
+                    default:
+                        return type.getSimpleName() + " in memory";
+                }
+            }
+            Object[] arguments = args == null ? new Object[0] : args;
+            Object result = handler.invoke(method, arguments);
+            if (result == UNSUPPORTED) {
+                throw new UnsupportedOperationException(type.getSimpleName() + "." + method.getName());
+            }
+            return result;
+        };
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, invocationHandler));
+    }
+
+}
@@ -0,0 +1,144 @@
+package com.abernathy.patienthistory.benchmark;
+
+import com.abernathy.patienthistory.domain.PatientNote;
+import com.abernathy.patienthistory.repository.NoteCompression;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * CPU cost of compressed note storage and gzipped responses, for one patient's notes of different lengths
+ * Storage and response sizes for each distribution are printed once at setup
+ *
+ * short: 100 notes of 200 characters, all under the compression threshold
+ * mixed: 100 notes, 80 of 200 characters, 15 of 2000 and 5 of 20000
+ * long:  100 notes of 5000 characters
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NoteCompressionBenchmark {
+
+    private static final int NOTES = 100;
+
+    @Param({"short", "mixed", "long"})
+    public String distribution;
+
+    private NoteCompression noteCompression;
+
+    private ObjectMapper mapper;
+
+    private List<PatientNote> notes;
+
+    private List<Document> stored;
+
+    @Setup
+    public void setup() throws IOException {
+        noteCompression = new NoteCompression();
+        BenchmarkData.inject(noteCompression, "enabled", true);
+        BenchmarkData.inject(noteCompression, "thresholdBytes", 2048);
+        mapper = BenchmarkData.objectMapper();
+
+        Random random = new Random(42);
+        notes = BenchmarkData.notes(NOTES, 0);
+        for (int i = 0; i < NOTES; i++) {
+            notes.get(i).setNote(BenchmarkData.text(random, noteLength(i)));
+        }
+        stored = new ArrayList<>(NOTES);
+        long plainBytes = 0;
+        long storedBytes = 0;
+        for (PatientNote note : notes) {
+            plainBytes += bsonBytes(document(note));
+            Document compressed = document(note);
+            noteCompression.compress(compressed);
+            storedBytes += bsonBytes(compressed);
+            stored.add(compressed);
+        }
+        byte[] json = mapper.writeValueAsBytes(notes);
+        System.out.printf("%n%s: stored %d bytes, %d compressed; response %d bytes, %d gzipped%n",
+                distribution, plainBytes, storedBytes, json.length, gzip(json).length);
+    }
+
+    @Benchmark
+    public void compressOnWrite(Blackhole blackhole) {
+        for (PatientNote note : notes) {
+            Document document = document(note);
+            noteCompression.compress(document);
+            blackhole.consume(document);
+        }
+    }
+
+    @Benchmark
+    public void decompressOnRead(Blackhole blackhole) {
+        for (Document document : stored) {
+            blackhole.consume(noteCompression.decompress(new PatientNote(), document));
+        }
+    }
+
+    @Benchmark
+    public byte[] jsonResponse() throws IOException {
+        return mapper.writeValueAsBytes(notes);
+    }
+
+    @Benchmark
+    public byte[] gzippedJsonResponse() throws IOException {
+        return gzip(mapper.writeValueAsBytes(notes));
+    }
+
+    private int noteLength(int i) {
+        switch (distribution) {
+            case "short":
+                return 200;
+            case "long":
+                return 5000;
+            default:
+                return i % 20 == 0 ? 20000 : i % 20 < 4 ? 2000 : 200;
+        }
+    }
+
+    private static Document document(PatientNote note) {
+        return new Document("_id", note.getPatientNoteId())
+                .append("patId", note.getPatId())
+                .append("note", note.getNote())
+                .append("createdAt", Date.from(note.getCreatedAt()));
+    }
+
+    private static int bsonBytes(Document document) {
+        return new RawBsonDocument(document, new DocumentCodec()).getByteBuffer().remaining();
+    }
+
+    private static byte[] gzip(byte[] bytes) throws IOException {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 4 + 32);
+        try (OutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(bytes);
+        }
+        return compressed.toByteArray();
+    }
+
+}
@@ -0,0 +1,94 @@
+package com.abernathy.patienthistory.benchmark;
+
+import com.abernathy.patienthistory.domain.PatientNote;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading PatientNotes the way request bodies and Retrofit responses are read
+ * JSON and CBOR lists as returned by /patient/note/api/retro/getbypatient,
+ * and newline delimited JSON read one note at a time as /patient/note/api/bulk does
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NoteDeserializationBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int notes;
+
+    private ObjectReader listReader;
+
+    private ObjectReader cborListReader;
+
+    private ObjectReader noteReader;
+
+    private byte[] json;
+
+    private byte[] cbor;
+
+    private byte[] ndjson;
+
+    @Setup
+    public void setup() throws IOException {
+        List<PatientNote> patientNotes = BenchmarkData.notes(notes, 200);
+        TypeReference<List<PatientNote>> listType = new TypeReference<List<PatientNote>>() {};
+        ObjectMapper mapper = BenchmarkData.objectMapper();
+        CBORMapper cborMapper = CBORMapper.builder().addModule(new JavaTimeModule()).build();
+
+        listReader = mapper.readerFor(listType);
+        cborListReader = cborMapper.readerFor(listType);
+        noteReader = mapper.readerFor(PatientNote.class);
+        json = mapper.writeValueAsBytes(patientNotes);
+        cbor = cborMapper.writeValueAsBytes(patientNotes);
+        StringBuilder lines = new StringBuilder();
+        for (PatientNote note : patientNotes) {
+            lines.append(mapper.writeValueAsString(note)).append('\n');
+        }
+        ndjson = lines.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public List<PatientNote> jsonList() throws IOException {
+        return listReader.readValue(json);
+    }
+
+    @Benchmark
+    public List<PatientNote> cborList() throws IOException {
+        return cborListReader.readValue(cbor);
+    }
+
+    @Benchmark
+    public void ndjsonStream(Blackhole blackhole) throws IOException {
+        try (MappingIterator<PatientNote> iterator = noteReader.readValues(ndjson)) {
+            while (iterator.hasNextValue()) {
+                blackhole.consume(iterator.nextValue());
+            }
+        }
+    }
+
+}
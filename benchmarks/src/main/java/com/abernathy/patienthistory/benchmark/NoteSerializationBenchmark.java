@@ -0,0 +1,115 @@
+package com.abernathy.patienthistory.benchmark;
+
+import com.abernathy.patienthistory.domain.PatientNote;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the old toString() built JSON for API responses with Jackson writing to the output stream
+ * Run with -prof gc to compare allocation per operation
+ *
+ * The toString() path does no escaping, which makes it cheaper per character but produces invalid JSON
+ * for any note containing a quote, backslash or newline
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NoteSerializationBenchmark {
+
+    @Param({"1", "100", "10000"})
+    public int notes;
+
+    private List<PatientNote> patientNotes;
+
+    private ObjectWriter objectWriter;
+
+    private OutputStream responseStream;
+
+    @Setup
+    public void setup(Blackhole blackhole) {
+        patientNotes = BenchmarkData.notes(notes, 200);
+        // Same configuration Spring Boot applies, and typed like the message converter writes List<PatientNote>
+        objectWriter = BenchmarkData.objectMapper()
+                .writerFor(new TypeReference<List<PatientNote>>() {});
+        responseStream = new BlackholeOutputStream(blackhole);
+    }
+
+    /**
+     * Previous response path: List.toString() over PatientNote.toString(), then encoded to bytes
+     */
+    @Benchmark
+    public void toStringJson() throws IOException {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < patientNotes.size(); i++) {
+            if (i > 0) {
+                json.append(", ");
+            }
+            json.append(legacyToString(patientNotes.get(i)));
+        }
+        json.append("]");
+        responseStream.write(json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Current response path: Jackson generator writing straight to the response stream
+     */
+    @Benchmark
+    public void jacksonStreaming() throws IOException {
+        objectWriter.writeValue(responseStream, patientNotes);
+    }
+
+    private static String legacyToString(PatientNote note) {
+        return "{\"patientNote\":{\"patientNoteId\": \"" + note.getPatientNoteId() +
+                "\", \"patId\": \"" + note.getPatId() +
+                "\", \"note\": \"" + note.getNote() +"\"}}";
+    }
+
+    /**
+     * Stands in for the servlet output stream, consuming bytes without keeping them
+     */
+    static class BlackholeOutputStream extends OutputStream {
+
+        private final Blackhole blackhole;
+
+        BlackholeOutputStream(Blackhole blackhole) {
+            this.blackhole = blackhole;
+        }
+
+        @Override
+        public void write(int b) {
+            blackhole.consume(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            blackhole.consume(b);
+        }
+
+        @Override
+        public void close() {
+            // Jackson closes the target stream after writing, keep using it
+        }
+    }
+
+}
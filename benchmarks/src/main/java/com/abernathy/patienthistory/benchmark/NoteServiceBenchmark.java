@@ -0,0 +1,180 @@
+package com.abernathy.patienthistory.benchmark;
+
+import com.abernathy.patienthistory.domain.PatientNote;
+import com.abernathy.patienthistory.domain.TriggerTermCounts;
+import com.abernathy.patienthistory.repository.NoteCompression;
+import com.abernathy.patienthistory.repository.PatientNoteRepository;
+import com.abernathy.patienthistory.repository.PatientTermProfileRepository;
+import com.abernathy.patienthistory.service.PatientNoteCache;
+import com.abernathy.patienthistory.service.PatientNoteService;
+import com.abernathy.patienthistory.service.TriggerTermMatcher;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.ResponseEntity;
+import org.springframework.validation.BeanPropertyBindingResult;
+import org.springframework.web.context.request.WebRequest;
+
+import javax.validation.Validation;
+import javax.validation.ValidatorFactory;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * PatientNoteService API paths against in-memory repositories
+ * Measures the service's own cost, caching, validation and trigger term counting, without Mongo round trips
+ * Saves run the trigger term and compression callbacks and update the patient's term profile, as they do against Mongo,
+ * long notes are only compressed when run with -p compression=true
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class NoteServiceBenchmark {
+
+    private static final int PATIENTS = 100;
+
+    private static final List<String> TRIGGER_TERMS = Arrays.asList("Hemoglobin A1C", "Microalbumin", "Body Height",
+            "Body Weight", "Smoker", "Abnormal", "Cholesterol", "Dizziness", "Relapse", "Reaction", "Antibodies");
+
+    @Param({"10", "100"})
+    public int notesPerPatient;
+
+    @Param({"false"})
+    public boolean compression;
+
+    private ValidatorFactory validatorFactory;
+
+    private PatientNoteService service;
+
+    private PatientNoteRepository repository;
+
+    private PatientNoteCache patientNoteCache;
+
+    private PatientTermProfileRepository termProfileRepository;
+
+    private TriggerTermMatcher triggerTermMatcher;
+
+    private WebRequest webRequest;
+
+    private String noteText;
+
+    private int next;
+
+    @Setup
+    public void setup() {
+        triggerTermMatcher = new TriggerTermMatcher();
+        BenchmarkData.inject(triggerTermMatcher, "terms", TRIGGER_TERMS);
+        triggerTermMatcher.init();
+
+        List<PatientNote> notes = BenchmarkData.notes(PATIENTS * notesPerPatient, 200);
+        NoteCompression noteCompression = new NoteCompression();
+        BenchmarkData.inject(noteCompression, "enabled", compression);
+        repository = InMemoryRepositories.patientNotes(Collections.emptyList(), triggerTermMatcher, noteCompression);
+        for (int i = 0; i < notes.size(); i++) {
+            PatientNote note = notes.get(i);
+            note.setPatId(i % PATIENTS);
+            note.setNote(note.getNote() + " " + TRIGGER_TERMS.get(i % TRIGGER_TERMS.size()));
+            repository.save(note);
+        }
+        termProfileRepository = InMemoryRepositories.termProfiles();
+
+        patientNoteCache = new PatientNoteCache();
+        BenchmarkData.inject(patientNoteCache, "repository", repository);
+        BenchmarkData.inject(patientNoteCache, "meterRegistry", new SimpleMeterRegistry());
+        BenchmarkData.inject(patientNoteCache, "maxSize", 10000L);
+        BenchmarkData.inject(patientNoteCache, "ttlSeconds", 300L);
+        patientNoteCache.init();
+
+        validatorFactory = Validation.buildDefaultValidatorFactory();
+        service = new PatientNoteService();
+        BenchmarkData.inject(service, "repository", repository);
+        BenchmarkData.inject(service, "patientNoteCache", patientNoteCache);
+        BenchmarkData.inject(service, "termProfileRepository", termProfileRepository);
+        BenchmarkData.inject(service, "triggerTermMatcher", triggerTermMatcher);
+        BenchmarkData.inject(service, "objectMapper", BenchmarkData.objectMapper());
+        BenchmarkData.inject(service, "validator", validatorFactory.getValidator());
+        BenchmarkData.inject(service, "maxPageSize", 100);
+        BenchmarkData.inject(service, "bulkChunkSize", 500);
+        BenchmarkData.inject(service, "maxBatchPatients", 100);
+
+        // Unconditional request, no If-None-Match or If-Modified-Since
+        webRequest = (WebRequest) Proxy.newProxyInstance(WebRequest.class.getClassLoader(),
+                new Class<?>[]{WebRequest.class}, (proxy, method, args) -> null);
+
+        noteText = BenchmarkData.text(new Random(7), 200) + " Smoker Abnormal";
+
+        // Every patient starts with a term profile, so adding a note updates it
+        for (int patId = 0; patId < PATIENTS; patId++) {
+            service.getTriggerTermCountsRetro(patId);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        validatorFactory.close();
+    }
+
+    @Benchmark
+    public ResponseEntity<Object> getByPatientCached() {
+        return service.getFromApiByPatientId(nextPatient(), webRequest);
+    }
+
+    @Benchmark
+    public ResponseEntity<Object> getByPatientUncached() {
+        int patId = nextPatient();
+        patientNoteCache.invalidate(patId);
+        return service.getFromApiByPatientId(patId, webRequest);
+    }
+
+    @Benchmark
+    public ResponseEntity<Object> addNote() {
+        PatientNote note = new PatientNote();
+        note.setPatId(nextPatient());
+        note.setNote(noteText);
+        BeanPropertyBindingResult result = new BeanPropertyBindingResult(note, "patientNote");
+        ResponseEntity<Object> response = service.addFromApi(note, result);
+        // Added notes are removed again, so the in-memory stores do not grow during measurement
+        repository.deleteById(note.getPatientNoteId());
+        termProfileRepository.removeNote(note.getPatId(), note.getPatientNoteId(), triggerTermMatcher.getVersion());
+        return response;
+    }
+
+    @Benchmark
+    public TriggerTermCounts triggerTermsFromProfile() {
+        return service.getTriggerTermCountsRetro(nextPatient());
+    }
+
+    @Benchmark
+    public TriggerTermCounts triggerTermsRebuilt() {
+        termProfileRepository.deleteAll();
+        return service.getTriggerTermCountsRetro(nextPatient());
+    }
+
+    @Benchmark
+    public Map<String, Integer> countTriggerTerms() {
+        return triggerTermMatcher.count(noteText);
+    }
+
+    private int nextPatient() {
+        return next++ % PATIENTS;
+    }
+
+}
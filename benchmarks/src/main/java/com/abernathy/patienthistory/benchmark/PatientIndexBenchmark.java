@@ -0,0 +1,133 @@
+package com.abernathy.patienthistory.benchmark;
+
+import com.abernathy.patienthistory.remote.PatientRemote;
+import com.abernathy.patienthistory.remote.PatientRequestLookups;
+import com.abernathy.patienthistory.remote.interfaces.PatientRetro;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import retrofit2.Call;
+import retrofit2.Response;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Patient index lookups made while rendering the front end
+ * A fresh cached index, a reload on every call, contended reads of the cached index,
+ * and repeated lookups within one request through PatientRequestLookups
+ * The patient service is replaced by a Retrofit Call answering immediately, so only local cost is measured
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PatientIndexBenchmark {
+
+    private static final int PATIENTS = 1000;
+
+    // Lookups made by a single page render, e.g. one per note listed
+    private static final int LOOKUPS_PER_REQUEST = 20;
+
+    private PatientRemote cached;
+
+    private PatientRemote expired;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private Field lookupsRemote;
+
+    private Field lookupsRegistry;
+
+    @Setup
+    public void setup() throws NoSuchFieldException {
+        Map<Integer, String> index = new HashMap<>();
+        for (int i = 0; i < PATIENTS; i++) {
+            index.put(i, "Patient " + i);
+        }
+        PatientRetro patientRetro = () -> immediateCall(index);
+        meterRegistry = new SimpleMeterRegistry();
+
+        cached = new PatientRemote();
+        BenchmarkData.inject(cached, "patientRetro", patientRetro);
+        BenchmarkData.inject(cached, "meterRegistry", meterRegistry);
+        BenchmarkData.inject(cached, "patientCircuitBreaker", CircuitBreaker.ofDefaults("patient"));
+        BenchmarkData.inject(cached, "patientBulkhead", Bulkhead.ofDefaults("patient"));
+        BenchmarkData.inject(cached, "indexTtlMs", TimeUnit.HOURS.toMillis(1));
+        cached.refreshPatientIndex();
+
+        expired = new PatientRemote();
+        BenchmarkData.inject(expired, "patientRetro", patientRetro);
+        BenchmarkData.inject(expired, "meterRegistry", meterRegistry);
+        BenchmarkData.inject(expired, "patientCircuitBreaker", CircuitBreaker.ofDefaults("patient"));
+        BenchmarkData.inject(expired, "patientBulkhead", Bulkhead.ofDefaults("patient"));
+        BenchmarkData.inject(expired, "indexTtlMs", 0L);
+        expired.refreshPatientIndex();
+
+        // Resolved once, so each simulated request pays for field writes rather than lookups
+        lookupsRemote = PatientRequestLookups.class.getDeclaredField("patientRemote");
+        lookupsRemote.setAccessible(true);
+        lookupsRegistry = PatientRequestLookups.class.getDeclaredField("meterRegistry");
+        lookupsRegistry.setAccessible(true);
+    }
+
+    @Benchmark
+    public Map<Integer, String> cachedIndex() {
+        return cached.getPatientIndex();
+    }
+
+    @Benchmark
+    @Threads(8)
+    public Map<Integer, String> cachedIndexContended() {
+        return cached.getPatientIndex();
+    }
+
+    @Benchmark
+    public Map<Integer, String> expiredIndex() {
+        return expired.getPatientIndex();
+    }
+
+    @Benchmark
+    public void requestLookups(Blackhole blackhole) throws IllegalAccessException {
+        PatientRequestLookups lookups = new PatientRequestLookups();
+        lookupsRemote.set(lookups, cached);
+        lookupsRegistry.set(lookups, meterRegistry);
+        for (int i = 0; i < LOOKUPS_PER_REQUEST; i++) {
+            blackhole.consume(lookups.getPatientIndex().get(i));
+        }
+        lookups.recordRemoteCalls();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Call<Map<Integer, String>> immediateCall(Map<Integer, String> index) {
+        return (Call<Map<Integer, String>>) Proxy.newProxyInstance(Call.class.getClassLoader(),
+                new Class<?>[]{Call.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "execute":
+                            return Response.success(index);
+                        case "clone":
+                            return proxy;
+                        default:
+                            throw new UnsupportedOperationException("Call." + method.getName());
+                    }
+                });
+    }
+
+}
@@ -2,9 +2,11 @@ package com.abernathy.patienthistory;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 
 @SpringBootApplication
+@EnableScheduling
 public class PatienthistoryApplication {
 
 	public static void main(String[] args) {
@@ -0,0 +1,207 @@
+package com.abernathy.patienthistory.config;
+
+import com.mongodb.ClientSessionOptions;
+import com.mongodb.MongoClientException;
+import com.mongodb.ReadPreference;
+import com.mongodb.client.ClientSession;
+import com.mongodb.client.MongoClient;
+import org.bson.BsonTimestamp;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpMethod;
+import org.springframework.stereotype.Component;
+import org.springframework.web.filter.OncePerRequestFilter;
+import org.springframework.web.util.UrlPathHelper;
+import org.springframework.web.util.WebUtils;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+import java.io.PrintWriter;
+
+/**
+ * Keeps read-your-writes for clients while patient.note.read-preference sends reads to secondaries
+ *
+ * Each request runs in a causally consistent session, so reads after a write in the same request wait for
+ * a secondary to have that write. Responses to writes, such as /patient/note/validate and /patient/note/api/add,
+ * carry the operation time of the write in a cookie, and later requests sending the cookie start their session
+ * from that time, so the note list page after a redirect or a GET after an API add also see the write
+ *
+ * Does nothing while reads go to the primary, and only covers the note pages and API,
+ * leaving static assets, actuator endpoints and the change feed's long lived stream without a session
+ */
+@Component
+public class CausalConsistencyFilter extends OncePerRequestFilter {
+
+    static final String OPERATION_TIME_COOKIE = "noteOpTime";
+
+    private static final String NOTE_PATHS = "/patient/note/";
+
+    private static final String CHANGE_FEED_PATH = "/patient/note/api/changes";
+
+    private static final UrlPathHelper URL_PATH_HELPER = new UrlPathHelper();
+
+    private static final ClientSessionOptions CAUSALLY_CONSISTENT = ClientSessionOptions.builder()
+            .causallyConsistent(true)
+            .build();
+
+    @Autowired
+    private MongoClient mongoClient;
+
+    @Autowired
+    private CausalSessions causalSessions;
+
+    @Value("${patient.note.read-preference:primary}")
+    private String readPreference;
+
+    @Value("${patient.note.read-your-writes.max-age-seconds:300}")
+    private int maxAgeSeconds;
+
+    @Override
+    protected boolean shouldNotFilter(HttpServletRequest request) {
+        if (ReadPreference.primary().equals(ReadPreference.valueOf(readPreference))) {
+            return true;
+        }
+        String path = URL_PATH_HELPER.getPathWithinApplication(request);
+        return !path.startsWith(NOTE_PATHS) || path.startsWith(CHANGE_FEED_PATH);
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
+                                    FilterChain filterChain) throws ServletException, IOException {
+        ClientSession session = startSession();
+        if (session == null) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        try {
+            BsonTimestamp clientTime = operationTime(request);
+            if (clientTime != null) {
+                session.advanceOperationTime(clientTime);
+            }
+            boolean write = !HttpMethod.GET.matches(request.getMethod()) && !HttpMethod.HEAD.matches(request.getMethod());
+            OperationTimeResponse operationTimeResponse = new OperationTimeResponse(response, session, write);
+            causalSessions.bind(session);
+            try {
+                filterChain.doFilter(request, operationTimeResponse);
+                operationTimeResponse.addOperationTimeCookie();
+            } finally {
+                causalSessions.unbind();
+            }
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * Method to start a causally consistent session for a request
+     * Servers which do not support sessions, such as in-memory test servers, are read without one
+     *
+     * @return ClientSession, or null if sessions are not supported
+     */
+    private ClientSession startSession() {
+        try {
+            return mongoClient.startSession(CAUSALLY_CONSISTENT);
+        } catch (MongoClientException e) {
+            logger.debug("Serving request without a causally consistent session: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Method to read the operation time sent back by the client, ignoring a malformed cookie
+     * Times after now are clamped to now, so a client cannot hold its reads waiting on a secondary
+     * for a cluster time which has not happened yet
+     *
+     * @param request HttpServletRequest
+     * @return BsonTimestamp, or null if the client has not written recently
+     */
+    private BsonTimestamp operationTime(HttpServletRequest request) {
+        Cookie cookie = WebUtils.getCookie(request, OPERATION_TIME_COOKIE);
+        if (cookie == null) {
+            return null;
+        }
+        BsonTimestamp clientTime;
+        try {
+            clientTime = new BsonTimestamp(Long.parseLong(cookie.getValue()));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        int now = (int) (System.currentTimeMillis() / 1000);
+        return Integer.compareUnsigned(clientTime.getTime(), now) > 0 ? new BsonTimestamp(now, 0) : clientTime;
+    }
+
+    /**
+     * Response which sets the operation time cookie on responses to writes, before the status and headers are sent
+     */
+    private class OperationTimeResponse extends HttpServletResponseWrapper {
+
+        private final ClientSession session;
+
+        private boolean pending;
+
+        OperationTimeResponse(HttpServletResponse response, ClientSession session, boolean write) {
+            super(response);
+            this.session = session;
+            this.pending = write;
+        }
+
+        void addOperationTimeCookie() {
+            if (!pending || isCommitted()) {
+                return;
+            }
+            pending = false;
+            BsonTimestamp operationTime = session.getOperationTime();
+            if (operationTime != null) {
+                Cookie cookie = new Cookie(OPERATION_TIME_COOKIE, Long.toString(operationTime.getValue()));
+                cookie.setPath("/");
+                cookie.setHttpOnly(true);
+                cookie.setMaxAge(maxAgeSeconds);
+                addCookie(cookie);
+            }
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() throws IOException {
+            addOperationTimeCookie();
+            return super.getOutputStream();
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            addOperationTimeCookie();
+            return super.getWriter();
+        }
+
+        @Override
+        public void sendRedirect(String location) throws IOException {
+            addOperationTimeCookie();
+            super.sendRedirect(location);
+        }
+
+        @Override
+        public void sendError(int sc) throws IOException {
+            addOperationTimeCookie();
+            super.sendError(sc);
+        }
+
+        @Override
+        public void sendError(int sc, String msg) throws IOException {
+            addOperationTimeCookie();
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            addOperationTimeCookie();
+            super.flushBuffer();
+        }
+
+    }
+
+}
@@ -0,0 +1,64 @@
+package com.abernathy.patienthistory.config;
+
+import com.mongodb.ClientSessionOptions;
+import com.mongodb.client.ClientSession;
+import com.mongodb.client.MongoDatabase;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.springframework.dao.support.PersistenceExceptionTranslator;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+
+/**
+ * MongoDatabaseFactory which runs operations in the causally consistent session bound to the current request, if any
+ *
+ * CausalConsistencyFilter binds a session in CausalSessions for each request while reads go to secondaries,
+ * so MongoTemplate and the repositories read their own writes without being passed the session
+ */
+public class CausalSessionDatabaseFactory implements MongoDatabaseFactory {
+
+    private final MongoDatabaseFactory delegate;
+
+    private final CausalSessions causalSessions;
+
+    public CausalSessionDatabaseFactory(MongoDatabaseFactory delegate, CausalSessions causalSessions) {
+        this.delegate = delegate;
+        this.causalSessions = causalSessions;
+    }
+
+    @Override
+    public MongoDatabase getMongoDatabase() {
+        ClientSession session = causalSessions.current();
+        return session == null ? delegate.getMongoDatabase() : delegate.withSession(session).getMongoDatabase();
+    }
+
+    @Override
+    public MongoDatabase getMongoDatabase(String dbName) {
+        ClientSession session = causalSessions.current();
+        return session == null ? delegate.getMongoDatabase(dbName) : delegate.withSession(session).getMongoDatabase(dbName);
+    }
+
+    @Override
+    public PersistenceExceptionTranslator getExceptionTranslator() {
+        return delegate.getExceptionTranslator();
+    }
+
+    @Override
+    public CodecRegistry getCodecRegistry() {
+        return delegate.getCodecRegistry();
+    }
+
+    @Override
+    public ClientSession getSession(ClientSessionOptions options) {
+        return delegate.getSession(options);
+    }
+
+    @Override
+    public MongoDatabaseFactory withSession(ClientSession session) {
+        return delegate.withSession(session);
+    }
+
+    @Override
+    public boolean isTransactionActive() {
+        return delegate.isTransactionActive();
+    }
+
+}
@@ -0,0 +1,40 @@
+package com.abernathy.patienthistory.config;
+
+import com.mongodb.client.ClientSession;
+import org.springframework.stereotype.Component;
+
+/**
+ * Holds the causally consistent session each request runs in, bound by CausalConsistencyFilter
+ * and used by CausalSessionDatabaseFactory for every MongoTemplate operation on the same thread
+ */
+@Component
+public class CausalSessions {
+
+    private final ThreadLocal<ClientSession> sessions = new ThreadLocal<>();
+
+    /**
+     * Method to run operations on this thread in the provided session, until unbind is called
+     *
+     * @param session causally consistent ClientSession
+     */
+    public void bind(ClientSession session) {
+        sessions.set(session);
+    }
+
+    /**
+     * Method to stop running operations on this thread in the bound session
+     */
+    public void unbind() {
+        sessions.remove();
+    }
+
+    /**
+     * Method to get the session bound to this thread
+     *
+     * @return ClientSession, or null if none is bound
+     */
+    public ClientSession current() {
+        return sessions.get();
+    }
+
+}
@@ -0,0 +1,38 @@
+package com.abernathy.patienthistory.config;
+
+import com.mongodb.ReadPreference;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.data.mongodb.MongoDatabaseFactory;
+import org.springframework.data.mongodb.config.EnableMongoAuditing;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MongoConverter;
+
+@Configuration
+@EnableMongoAuditing
+public class MongoConfig {
+
+    @Value("${patient.note.read-preference:primary}")
+    private String readPreference;
+
+    /**
+     * MongoTemplate used by the repositories, reading with patient.note.read-preference
+     * e.g. secondaryPreferred sends reads to secondaries, writes always go to the primary
+     * Operations run in the causally consistent session bound by CausalConsistencyFilter, if any
+     *
+     * @param mongoDatabaseFactory MongoDatabaseFactory
+     * @param mongoConverter MongoConverter
+     * @param causalSessions CausalSessions
+     * @return MongoTemplate
+     */
+    @Bean
+    public MongoTemplate mongoTemplate(MongoDatabaseFactory mongoDatabaseFactory, MongoConverter mongoConverter,
+                                       CausalSessions causalSessions) {
+        MongoTemplate mongoTemplate = new MongoTemplate(
+                new CausalSessionDatabaseFactory(mongoDatabaseFactory, causalSessions), mongoConverter);
+        mongoTemplate.setReadPreference(ReadPreference.valueOf(readPreference));
+        return mongoTemplate;
+    }
+
+}
@@ -0,0 +1,175 @@
+package com.abernathy.patienthistory.config;
+
+import com.abernathy.patienthistory.domain.PatientNote;
+import com.abernathy.patienthistory.repository.NoteCompression;
+import com.abernathy.patienthistory.service.TriggerTermCallback;
+import com.abernathy.patienthistory.service.TriggerTermMatcher;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import io.netty.channel.ChannelOption;
+import org.reactivestreams.Publisher;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.web.embedded.netty.NettyReactiveWebServerFactory;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.data.mongodb.core.mapping.event.ReactiveAfterConvertCallback;
+import org.springframework.data.mongodb.core.mapping.event.ReactiveBeforeConvertCallback;
+import org.springframework.data.mongodb.core.mapping.event.ReactiveBeforeSaveCallback;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.http.codec.ServerCodecConfigurer;
+import org.springframework.http.codec.cbor.Jackson2CborDecoder;
+import org.springframework.http.codec.cbor.Jackson2CborEncoder;
+import org.springframework.http.codec.json.Jackson2JsonDecoder;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.util.MimeType;
+import org.springframework.web.reactive.config.WebFluxConfigurer;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.time.Duration;
+import java.util.Map;
+
+/**
+ * Configuration for the reactive profile, which serves the note endpoints from WebFlux on Netty
+ */
+@Configuration
+@Profile("reactive")
+public class ReactiveConfig implements WebFluxConfigurer {
+
+    @Autowired
+    private Jackson2ObjectMapperBuilder jackson2ObjectMapperBuilder;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${docker.patient.ip}")
+    private String ip;
+
+    @Value("${docker.patient.port}")
+    private String port;
+
+    @Value("${patient.remote.connect-timeout-ms:2000}")
+    private int connectTimeoutMs;
+
+    @Value("${patient.remote.read-timeout-ms:5000}")
+    private long readTimeoutMs;
+
+    @Value("${patient.remote.keep-alive-ms:300000}")
+    private long keepAliveMs;
+
+    /**
+     * Netty server, chosen explicitly as Tomcat is also on the classpath for the servlet profile
+     *
+     * @return NettyReactiveWebServerFactory
+     */
+    @Bean
+    public NettyReactiveWebServerFactory nettyReactiveWebServerFactory() {
+        return new NettyReactiveWebServerFactory();
+    }
+
+    /**
+     * WebClient pointing at the patient service, with the same timeouts as the Retrofit client
+     *
+     * @param builder WebClient.Builder
+     * @return WebClient
+     */
+    @Bean
+    public WebClient patientWebClient(WebClient.Builder builder) {
+        HttpClient httpClient = HttpClient.create(ConnectionProvider.builder("patient")
+                        .maxIdleTime(Duration.ofMillis(keepAliveMs))
+                        .build())
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, connectTimeoutMs)
+                .responseTimeout(Duration.ofMillis(readTimeoutMs));
+        return builder
+                .baseUrl("http://" + ip + ":" + port)
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .build();
+    }
+
+    /**
+     * Stores trigger term counts on notes written through reactive repositories, as TriggerTermCallback does for MongoTemplate
+     *
+     * @param triggerTermMatcher TriggerTermMatcher
+     * @return ReactiveBeforeConvertCallback
+     */
+    @Bean
+    public ReactiveBeforeConvertCallback<PatientNote> reactiveTriggerTermCallback(TriggerTermMatcher triggerTermMatcher) {
+        return (note, collection) -> Mono.just(TriggerTermCallback.apply(triggerTermMatcher, note));
+    }
+
+    /**
+     * Compresses long note text written through reactive repositories, as NoteCompressionCallback does for MongoTemplate
+     *
+     * @param noteCompression NoteCompression
+     * @return ReactiveBeforeSaveCallback
+     */
+    @Bean
+    public ReactiveBeforeSaveCallback<PatientNote> reactiveNoteCompressCallback(NoteCompression noteCompression) {
+        return (note, document, collection) -> {
+            noteCompression.compress(document);
+            return Mono.just(note);
+        };
+    }
+
+    /**
+     * Restores compressed note text read through reactive repositories, as NoteCompressionCallback does for MongoTemplate
+     *
+     * @param noteCompression NoteCompression
+     * @return ReactiveAfterConvertCallback
+     */
+    @Bean
+    public ReactiveAfterConvertCallback<PatientNote> reactiveNoteDecompressCallback(NoteCompression noteCompression) {
+        return (note, document, collection) -> Mono.just(noteCompression.decompress(note, document));
+    }
+
+    /**
+     * Adds CBOR codecs, offered alongside JSON to callers that send Accept: application/cbor
+     * Uses the same Jackson configuration as the JSON codecs
+     * Custom codecs are ordered before the defaults, so JSON is registered again ahead of CBOR
+     * to keep JSON for callers accepting any type
+     *
+     * @param configurer ServerCodecConfigurer
+     */
+    @Override
+    public void configureHttpMessageCodecs(ServerCodecConfigurer configurer) {
+        configurer.customCodecs().register(new Jackson2JsonEncoder(objectMapper));
+        configurer.customCodecs().register(new Jackson2JsonDecoder(objectMapper));
+        ObjectMapper cborMapper = jackson2ObjectMapperBuilder.factory(new CBORFactory()).build();
+        configurer.customCodecs().register(new SingleValueCborEncoder(cborMapper));
+        configurer.customCodecs().register(new Jackson2CborDecoder(cborMapper, MediaType.APPLICATION_CBOR));
+    }
+
+    /**
+     * Jackson2CborEncoder in this Spring version rejects all publishers, including a single Mono value
+     * Encodes Mono bodies as one CBOR value, which covers every endpoint offering CBOR
+     */
+    static class SingleValueCborEncoder extends Jackson2CborEncoder {
+
+        SingleValueCborEncoder(ObjectMapper mapper) {
+            super(mapper, MediaType.APPLICATION_CBOR);
+        }
+
+        @Override
+        public Flux<DataBuffer> encode(Publisher<?> inputStream, DataBufferFactory bufferFactory,
+                                       ResolvableType elementType, MimeType mimeType, Map<String, Object> hints) {
+            if (!(inputStream instanceof Mono)) {
+                return super.encode(inputStream, bufferFactory, elementType, mimeType, hints);
+            }
+            return ((Mono<?>) inputStream)
+                    .map(value -> encodeValue(value, bufferFactory, elementType, mimeType, hints))
+                    .flux();
+        }
+
+    }
+
+}
@@ -0,0 +1,150 @@
+package com.abernathy.patienthistory.config;
+
+import com.abernathy.patienthistory.remote.interfaces.PatientRetro;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadConfig;
+import io.github.resilience4j.bulkhead.BulkheadRegistry;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerConfig;
+import io.github.resilience4j.circuitbreaker.CircuitBreakerRegistry;
+import io.github.resilience4j.micrometer.tagged.TaggedBulkheadMetrics;
+import io.github.resilience4j.micrometer.tagged.TaggedCircuitBreakerMetrics;
+import io.micrometer.core.instrument.MeterRegistry;
+import okhttp3.ConnectionPool;
+import okhttp3.OkHttpClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import retrofit2.Retrofit;
+import retrofit2.converter.jackson.JacksonConverterFactory;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+@Configuration
+public class RetrofitConfig {
+
+    @Value("${docker.patient.ip}")
+    private String ip;
+
+    @Value("${docker.patient.port}")
+    private String port;
+
+    @Value("${patient.remote.connect-timeout-ms:2000}")
+    private long connectTimeoutMs;
+
+    @Value("${patient.remote.read-timeout-ms:5000}")
+    private long readTimeoutMs;
+
+    @Value("${patient.remote.call-timeout-ms:6000}")
+    private long callTimeoutMs;
+
+    @Value("${patient.remote.circuit-breaker.failure-rate-threshold:50}")
+    private float failureRateThreshold;
+
+    @Value("${patient.remote.circuit-breaker.slow-call-ms:2000}")
+    private long slowCallMs;
+
+    @Value("${patient.remote.circuit-breaker.sliding-window-size:10}")
+    private int slidingWindowSize;
+
+    @Value("${patient.remote.circuit-breaker.minimum-calls:5}")
+    private int minimumCalls;
+
+    @Value("${patient.remote.circuit-breaker.open-ms:30000}")
+    private long openMs;
+
+    @Value("${patient.remote.bulkhead.max-concurrent-calls:4}")
+    private int maxConcurrentCalls;
+
+    @Value("${patient.remote.max-idle-connections:5}")
+    private int maxIdleConnections;
+
+    @Value("${patient.remote.keep-alive-ms:300000}")
+    private long keepAliveMs;
+
+    /**
+     * Shared OkHttpClient for calls to the patient service
+     * Connections are pooled and reused between calls
+     * Each call is bounded by the call timeout, however the connect and read time is split
+     *
+     * @return OkHttpClient
+     */
+    @Bean
+    public OkHttpClient patientHttpClient() {
+        return new OkHttpClient.Builder()
+                .connectionPool(new ConnectionPool(maxIdleConnections, keepAliveMs, TimeUnit.MILLISECONDS))
+                .connectTimeout(connectTimeoutMs, TimeUnit.MILLISECONDS)
+                .readTimeout(readTimeoutMs, TimeUnit.MILLISECONDS)
+                .callTimeout(callTimeoutMs, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    /**
+     * Retrofit instance pointing at the patient service
+     *
+     * @param patientHttpClient shared OkHttpClient
+     * @param objectMapper application ObjectMapper
+     * @return Retrofit
+     */
+    @Bean
+    public Retrofit patientRetrofit(OkHttpClient patientHttpClient, ObjectMapper objectMapper) {
+        return new Retrofit.Builder()
+                .baseUrl("http://" + ip + ":" + port + "/")
+                .addConverterFactory(JacksonConverterFactory.create(objectMapper))
+                .client(patientHttpClient)
+                .build();
+    }
+
+    /**
+     * PatientRetro proxy, created once and shared
+     *
+     * @param patientRetrofit Retrofit instance for the patient service
+     * @return PatientRetro
+     */
+    @Bean
+    public PatientRetro patientRetro(Retrofit patientRetrofit) {
+        return patientRetrofit.create(PatientRetro.class);
+    }
+
+    /**
+     * Circuit breaker for calls to the patient service
+     * Opens when too many recent calls fail or are slow, so callers fail fast and are served the last index loaded
+     * State and call outcomes are published as resilience4j_circuitbreaker metrics
+     *
+     * @param meterRegistry MeterRegistry
+     * @return CircuitBreaker
+     */
+    @Bean
+    public CircuitBreaker patientCircuitBreaker(MeterRegistry meterRegistry) {
+        CircuitBreakerRegistry registry = CircuitBreakerRegistry.of(CircuitBreakerConfig.custom()
+                .failureRateThreshold(failureRateThreshold)
+                .slowCallRateThreshold(failureRateThreshold)
+                .slowCallDurationThreshold(Duration.ofMillis(slowCallMs))
+                .slidingWindowSize(slidingWindowSize)
+                .minimumNumberOfCalls(minimumCalls)
+                .waitDurationInOpenState(Duration.ofMillis(openMs))
+                .build());
+        TaggedCircuitBreakerMetrics.ofCircuitBreakerRegistry(registry).bindTo(meterRegistry);
+        return registry.circuitBreaker("patient");
+    }
+
+    /**
+     * Bulkhead limiting concurrent calls to the patient service
+     * Calls over the limit are rejected at once rather than queued
+     *
+     * @param meterRegistry MeterRegistry
+     * @return Bulkhead
+     */
+    @Bean
+    public Bulkhead patientBulkhead(MeterRegistry meterRegistry) {
+        BulkheadRegistry registry = BulkheadRegistry.of(BulkheadConfig.custom()
+                .maxConcurrentCalls(maxConcurrentCalls)
+                .maxWaitDuration(Duration.ZERO)
+                .build());
+        TaggedBulkheadMetrics.ofBulkheadRegistry(registry).bindTo(meterRegistry);
+        return registry.bulkhead("patient");
+    }
+
+}
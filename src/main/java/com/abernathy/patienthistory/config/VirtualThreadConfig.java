@@ -0,0 +1,42 @@
+package com.abernathy.patienthistory.config;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.task.TaskSchedulerCustomizer;
+import org.springframework.boot.web.embedded.tomcat.TomcatProtocolHandlerCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import java.util.concurrent.Executors;
+
+/**
+ * Virtual thread execution mode, enabled with patient.execution.virtual-threads=true
+ *
+ * Tomcat hands each request to a new virtual thread instead of its fixed pool of platform threads,
+ * so PatientNoteService and PatientRemote calls blocked on Mongo or the patient service only hold
+ * a carrier thread while they are running. Scheduled tasks, such as the patient index refresh, also run on virtual threads
+ */
+@Configuration
+@ConditionalOnProperty(name = "patient.execution.virtual-threads", havingValue = "true")
+public class VirtualThreadConfig {
+
+    /**
+     * Runs Tomcat request processing on virtual threads
+     *
+     * @return TomcatProtocolHandlerCustomizer
+     */
+    @Bean
+    public TomcatProtocolHandlerCustomizer<?> virtualThreadProtocolHandlerCustomizer() {
+        return protocolHandler -> protocolHandler.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+    }
+
+    /**
+     * Runs @Scheduled tasks on virtual threads
+     *
+     * @return TaskSchedulerCustomizer
+     */
+    @Bean
+    public TaskSchedulerCustomizer virtualThreadTaskSchedulerCustomizer() {
+        return scheduler -> scheduler.setThreadFactory(Thread.ofVirtual().name("scheduling-", 1).factory());
+    }
+
+}
@@ -1,29 +1,40 @@
 package com.abernathy.patienthistory.controllers;
 
+import com.abernathy.patienthistory.domain.BulkReport;
 import com.abernathy.patienthistory.domain.PatientNote;
+import com.abernathy.patienthistory.domain.TriggerTermCounts;
+import com.abernathy.patienthistory.service.NoteChangeFeed;
 import com.abernathy.patienthistory.service.PatientNoteService;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.validation.BindingResult;
 import org.springframework.web.bind.annotation.*;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+import org.springframework.web.context.request.WebRequest;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
 import javax.validation.Valid;
+import java.io.IOException;
+import java.util.List;
 
 @Controller
+@Profile("!reactive")
 public class PatientNoteController {
 
     @Autowired
     PatientNoteService patientNoteService;
 
-    private static final Logger logger = LogManager.getLogger("PatientNoteController");
+    @Autowired
+    NoteChangeFeed noteChangeFeed;
 
-    private Gson gson = new GsonBuilder().create();
+    private static final Logger logger = LogManager.getLogger("PatientNoteController");
 
     //Endpoints for serving front end
 
@@ -32,14 +43,17 @@ public class PatientNoteController {
      *
      * Serves list notes page for Mediscreen app
      *
+     * @param after ID of last note on previous page, omitted for first page
+     * @param size number of notes per page
      * @param model Model
      * @return list notes homepage
      */
     @RequestMapping("/patient/note/list")
-    public String home(Model model)
+    public String home(@RequestParam(value = "after", required = false) String after,
+                       @RequestParam(value = "size", defaultValue = "20") int size, Model model)
     {
         logger.info("User connected to /patient/note/list endpoint");
-        return patientNoteService.home(model);
+        return patientNoteService.home(after, size, model);
     }
 
     /**
@@ -137,23 +151,43 @@ public class PatientNoteController {
     }
 
     //Endpoints for serving REST API
+    //Response bodies are typed and written by Jackson directly to the response output stream
     /**
      * Mapping for POST
      *
      * Returns:
      * HttpStatus.BAD_REQUEST if note cannot be added (eg invalid data)
-     * Json string & HttpStatus.CREATED if successful
+     * Json & HttpStatus.CREATED if successful
      *
      * @param patientNote note object to be added
      * @param result BindingResult for validation
-     * @return Json string & HttpStatus.CREATED if successful
+     * @return Json & HttpStatus.CREATED if successful
      */
     @PostMapping("/patient/note/api/add")
-    public ResponseEntity<String> addPatientNoteApi(@Valid @RequestBody PatientNote patientNote, BindingResult result) {
+    public ResponseEntity<Object> addPatientNoteApi(@Valid @RequestBody PatientNote patientNote, BindingResult result) {
         logger.info("User connected to /patient/note/api/add endpoint");
         return patientNoteService.addFromApi(patientNote, result);
     }
 
+    /**
+     * Mapping for POST
+     *
+     * Adds many PatientNotes in one request
+     * Body is a JSON array of notes, or newline delimited JSON with one note per line
+     *
+     * Returns:
+     * Json report with the outcome of each note & HttpStatus.OK
+     *
+     * @param request HttpServletRequest with notes in body
+     * @return Json report & HttpStatus.OK
+     * @throws IOException if request body cannot be read
+     */
+    @PostMapping(value = "/patient/note/api/bulk", consumes = {MediaType.APPLICATION_JSON_VALUE, PatientNoteService.NDJSON})
+    public ResponseEntity<BulkReport> addPatientNotesBulkApi(HttpServletRequest request) throws IOException {
+        logger.info("User connected to /patient/note/api/bulk endpoint");
+        return patientNoteService.addBulkFromApi(request.getInputStream());
+    }
+
     /**
      * Mapping for GET
      *
@@ -161,13 +195,14 @@ public class PatientNoteController {
      *
      * Returns:
      * HttpStatus.NOT_FOUND if note cannot be found with provided ID
-     * Json string & HttpStatus.OK if successful
+     * HttpStatus.NOT_MODIFIED if If-None-Match / If-Modified-Since show the client copy is current
+     * Json & HttpStatus.OK if successful
      *
      * @param id
-     * @return Json string & HttpStatus.CREATED if successful
+     * @return Json & HttpStatus.CREATED if successful
      */
     @GetMapping("/patient/note/api/get/{id}")
-    public ResponseEntity<String> getPatientNoteApi(@PathVariable("id") String id) {
+    public ResponseEntity<Object> getPatientNoteApi(@PathVariable("id") String id) {
         logger.info("User connected to /patient/note/get endpoint with id " + id);
         return patientNoteService.getFromApi(id);
     }
@@ -179,15 +214,42 @@ public class PatientNoteController {
      *
      * Returns:
      * HttpStatus.NOT_FOUND if patient has no notes
-     * Json string & HttpStatus.OK if successful
+     * HttpStatus.NOT_MODIFIED if If-None-Match / If-Modified-Since show the client copy is current
+     * Json & HttpStatus.OK if successful
      *
      * @param patId Patient ID
-     * @return Json string & HttpStatus.OK if successful
+     * @param request WebRequest for conditional headers
+     * @return Json & HttpStatus.OK if successful
      */
     @GetMapping("/patient/note/api/getbypatient/{patId}")
-    public ResponseEntity<String> getAllOnePatientNotesApi(@PathVariable("patId") int patId) {
+    public ResponseEntity<Object> getAllOnePatientNotesApi(@PathVariable("patId") int patId, WebRequest request) {
         logger.info("User connected to /patient/note/api/getbypatient endpoint with id " + patId);
-        return patientNoteService.getFromApiByPatientId(patId);
+        return patientNoteService.getFromApiByPatientId(patId, request);
+    }
+
+    /**
+     * Mapping for GET
+     *
+     * Searches the text of all PatientNotes, or one Patient's notes when patId is given
+     * Quoted text is matched as a phrase, eg q="Hemoglobin A1C" Smoker
+     *
+     * Returns:
+     * HttpStatus.BAD_REQUEST if query has no term or phrase
+     * Json & HttpStatus.OK with hits ranked by relevance if successful
+     *
+     * @param query search text
+     * @param patId Patient ID, optional
+     * @param page zero based page number
+     * @param size number of hits per page
+     * @return Json & HttpStatus.OK if successful
+     */
+    @GetMapping("/patient/note/api/search")
+    public ResponseEntity<Object> searchPatientNotesApi(@RequestParam("q") String query,
+                                                        @RequestParam(value = "patId", required = false) Integer patId,
+                                                        @RequestParam(value = "page", defaultValue = "0") int page,
+                                                        @RequestParam(value = "size", defaultValue = "20") int size) {
+        logger.info("User connected to /patient/note/api/search endpoint");
+        return patientNoteService.searchFromApi(query, patId, page, size);
     }
 
     /**
@@ -195,34 +257,128 @@ public class PatientNoteController {
      *
      * Returns:
      * HttpStatus.NOT_FOUND if note does not exist with this ID
+     * HttpStatus.CONFLICT if note was changed since the version sent
      * HttpStatus.BAD_REQUEST if note has errors
-     * Json string & HttpStatus.OK if successful
+     * Json & HttpStatus.OK if successful
      *
      * @param patientNote PatientNote with updated fields
-     * @return Json string & HttpStatus.OK if successful
+     * @return Json & HttpStatus.OK if successful
      */
     @PutMapping("/patient/note/api/update")
-    public ResponseEntity<String> updatePatientApi(@Valid @RequestBody PatientNote patientNote, BindingResult result) {
+    public ResponseEntity<PatientNote> updatePatientApi(@Valid @RequestBody PatientNote patientNote, BindingResult result) {
         logger.info("User connected to /patient/add endpoint");
         return patientNoteService.updateFromApi(patientNote, result);
     }
 
+    /**
+     * Mapping for PATCH
+     *
+     * Returns:
+     * HttpStatus.NOT_FOUND if note does not exist with this ID
+     * HttpStatus.CONFLICT if note was changed since the version sent
+     * HttpStatus.BAD_REQUEST if patch changes nothing or sets invalid note text
+     * Json & HttpStatus.OK if successful
+     *
+     * @param id PatientNote ID
+     * @param patientNote PatientNote with only the fields to change set
+     * @return Json & HttpStatus.OK if successful
+     */
+    @PatchMapping("/patient/note/api/update/{id}")
+    public ResponseEntity<PatientNote> patchPatientNoteApi(@PathVariable("id") String id, @RequestBody PatientNote patientNote) {
+        logger.info("User connected to /patient/note/api/update/ PATCH endpoint for note with id " + id);
+        return patientNoteService.patchFromApi(id, patientNote);
+    }
+
+    /**
+     * Mapping for GET
+     *
+     * Exports all PatientNotes as newline delimited JSON, one note per line
+     * Notes are streamed from the database as the response is written
+     *
+     * @param response HttpServletResponse
+     * @throws IOException if response cannot be written
+     */
+    @GetMapping(value = "/patient/note/api/export", produces = PatientNoteService.NDJSON)
+    public void exportPatientNotesApi(HttpServletResponse response) throws IOException {
+        logger.info("User connected to /patient/note/api/export endpoint");
+        patientNoteService.exportFromApi(response);
+    }
+
+    /**
+     * Mapping for GET
+     *
+     * Server-Sent Events feed of PatientNote inserts, updates and deletes, optionally for one Patient
+     * Event ids are resume tokens, reconnecting with the Last-Event-ID header (or resumeAfter) continues after that event
+     * Requires Mongo to run as a replica set
+     *
+     * @param patId Patient ID, optional
+     * @param lastEventId id of last event received, sent by EventSource on reconnect
+     * @param resumeAfter id of last event received, for clients that cannot set headers
+     * @return SseEmitter sending NoteChange events
+     */
+    @GetMapping(value = "/patient/note/api/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public SseEmitter patientNoteChangesApi(@RequestParam(value = "patId", required = false) Integer patId,
+                                            @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+                                            @RequestParam(value = "resumeAfter", required = false) String resumeAfter) {
+        logger.info("User connected to /patient/note/api/changes endpoint");
+        return noteChangeFeed.subscribe(patId, lastEventId != null ? lastEventId : resumeAfter);
+    }
+
     //Endpoints for serving Retrofit calls
     /**
      * Mapping for GET
      *
-     * Intended to be called by other services, returns JSON string only
+     * Intended to be called by other services
      * Takes a Patient ID, returns all PatientNotes for that Patient
-     *
+     * Returns JSON by default, or CBOR for callers that send Accept: application/cbor
      *
      * @param id Patient ID
-     * @return Json string
+     * @return List of PatientNotes, written by the negotiated message converter
      */
-    @GetMapping("/patient/note/api/retro/getbypatient/{id}")
+    @GetMapping(value = "/patient/note/api/retro/getbypatient/{id}",
+            produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE})
     @ResponseBody
-    public String getAllOnePatientNotesRetro(@PathVariable("id") int id) {
+    public List<PatientNote> getAllOnePatientNotesRetro(@PathVariable("id") int id) {
         logger.info("User connected to patient/note/api/retro/getbypatient/ endpoint with id " + id);
-        return gson.toJson(patientNoteService.getFromApiByPatientIdRetro(id));
+        return patientNoteService.getFromApiByPatientIdRetro(id);
+    }
+
+    /**
+     * Mapping for POST
+     *
+     * Intended to be called by population level jobs
+     * Takes a JSON array of Patient IDs, returns all PatientNotes for those Patients from a single query
+     * Written as newline delimited JSON, one {"patId", "notes"} line per Patient, streamed as notes are read
+     *
+     * Returns:
+     * HttpStatus.BAD_REQUEST if no Patient IDs are given, or more than patient.note.batch.max-patients
+     *
+     * @param patIds Patient IDs
+     * @param response HttpServletResponse
+     * @throws IOException if response cannot be written
+     */
+    @PostMapping(value = "/patient/note/api/retro/getbypatients", produces = PatientNoteService.NDJSON)
+    public void getManyPatientsNotesRetro(@RequestBody List<Integer> patIds, HttpServletResponse response) throws IOException {
+        logger.info("User connected to patient/note/api/retro/getbypatients endpoint for " + patIds.size() + " ids");
+        patientNoteService.getFromApiByPatientIdsRetro(patIds, response);
+    }
+
+    /**
+     * Mapping for GET
+     *
+     * Intended to be called by the assessment service
+     * Takes a Patient ID, returns how often each trigger term appears across that Patient's notes, without the notes
+     * Returns JSON by default, or CBOR for callers that send Accept: application/cbor
+     *
+     * @param id Patient ID
+     * @return TriggerTermCounts, written by the negotiated message converter
+     */
+    @GetMapping(value = "/patient/note/api/retro/triggers/{id}",
+            produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE})
+    @ResponseBody
+    public TriggerTermCounts getTriggerTermCountsRetro(@PathVariable("id") int id) {
+        logger.info("User connected to patient/note/api/retro/triggers/ endpoint with id " + id);
+        return patientNoteService.getTriggerTermCountsRetro(id);
     }
 
 }
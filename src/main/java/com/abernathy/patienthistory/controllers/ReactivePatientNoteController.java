@@ -0,0 +1,386 @@
+package com.abernathy.patienthistory.controllers;
+
+import com.abernathy.patienthistory.domain.BulkReport;
+import com.abernathy.patienthistory.domain.NoteChange;
+import com.abernathy.patienthistory.domain.PatientNote;
+import com.abernathy.patienthistory.domain.PatientNoteGroup;
+import com.abernathy.patienthistory.domain.TriggerTermCounts;
+import com.abernathy.patienthistory.service.PatientNoteService;
+import com.abernathy.patienthistory.service.ReactivePatientNoteService;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.stereotype.Controller;
+import org.springframework.ui.Model;
+import org.springframework.validation.BindingResult;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.validation.Valid;
+import java.util.List;
+
+/**
+ * WebFlux controller for the reactive profile
+ * Serves the same endpoints as PatientNoteController without blocking a request thread on Mongo or the patient service
+ */
+@Controller
+@Profile("reactive")
+public class ReactivePatientNoteController {
+
+    @Autowired
+    ReactivePatientNoteService patientNoteService;
+
+    private static final Logger logger = LogManager.getLogger("ReactivePatientNoteController");
+
+    //Endpoints for serving front end
+
+    /**
+     * Mapping for GET
+     *
+     * Serves list notes page for Mediscreen app
+     *
+     * @param after ID of last note on previous page, omitted for first page
+     * @param size number of notes per page
+     * @param model Model
+     * @return list notes homepage
+     */
+    @RequestMapping("/patient/note/list")
+    public Mono<String> home(@RequestParam(value = "after", required = false) String after,
+                             @RequestParam(value = "size", defaultValue = "20") int size, Model model)
+    {
+        logger.info("User connected to /patient/note/list endpoint");
+        return patientNoteService.home(after, size, model);
+    }
+
+    /**
+     * Mapping for GET
+     *
+     * Serves add note page for Mediscreen app
+     *
+     * @param patientNote patient note object
+     * @param model Model
+     * @return add note page
+     */
+    @GetMapping("/patient/note/add")
+    public Mono<String> addPatientNote(PatientNote patientNote, Model model) {
+        logger.info("User connected to /patient/note/add endpoint");
+        return patientNoteService.addForm(patientNote, model);
+    }
+
+    /**
+     * Mapping for POST
+     *
+     * Validates and adds a note submitted from the add note page
+     *
+     * @param patientNote patient note object
+     * @param result BindingResult for validation
+     * @param model Model
+     * @return redirect to list page if valid, add note page if not
+     */
+    @PostMapping("/patient/note/validate")
+    public Mono<String> validate(@Valid PatientNote patientNote, BindingResult result, Model model) {
+        logger.info("User connected to /patient/note/validate endpoint");
+        return patientNoteService.validate(patientNote, result, model);
+    }
+
+    /**
+     * Mapping for GET
+     *
+     * Serves view note page for Mediscreen app
+     *
+     * @param id PatientNote ID
+     * @param model Model
+     * @return view note page
+     */
+    @GetMapping("/patient/note/view/{id}")
+    public Mono<String> viewPatientNote(@PathVariable("id") String id, Model model) {
+        logger.info("User connected to /patient/note/view endpoint with id " + id);
+        return patientNoteService.view(id, model);
+    }
+
+    /**
+     * Mapping for GET
+     *
+     * Serves view all notes page for one patient
+     *
+     * @param id Patient ID
+     * @param model Model
+     * @return view all notes page
+     */
+    @GetMapping("/patient/note/viewall/{id}")
+    public Mono<String> viewAllOnePatientNotes(@PathVariable("id") int id, Model model) {
+        logger.info("User connected to /patient/note/viewall endpoint with id " + id);
+        return patientNoteService.viewByPatientId(id, model);
+    }
+
+    /**
+     * Mapping for GET
+     *
+     * Serves update note page for Mediscreen app
+     *
+     * @param id PatientNote ID
+     * @param model Model
+     * @return update note page
+     */
+    @GetMapping("/patient/note/update/{id}")
+    public Mono<String> showUpdateForm(@PathVariable("id") String id, Model model) {
+        logger.info("User connected to /patient/note/update/ GET endpoint for patient with id " + id);
+        return patientNoteService.showUpdateForm(id, model);
+    }
+
+    /**
+     * Mapping for POST
+     *
+     * Validates and updates a note submitted from the update note page
+     *
+     * @param id PatientNote ID
+     * @param patientNote PatientNote with updated fields
+     * @param result BindingResult for validation
+     * @param model Model
+     * @return redirect to list page if valid, update note page if not
+     */
+    @PostMapping("/patient/note/update/{id}")
+    public Mono<String> updateNote(@PathVariable("id") String id, @Valid PatientNote patientNote,
+                                   BindingResult result, Model model) {
+        logger.info("User connected to /patient/note/update/ POST endpoint for patient with id " + id);
+        return patientNoteService.update(id, patientNote, result, model);
+    }
+
+    //Endpoints for serving REST API
+
+    /**
+     * Mapping for POST
+     *
+     * Returns:
+     * HttpStatus.BAD_REQUEST if note cannot be added (eg invalid data)
+     * Json & HttpStatus.CREATED if successful
+     *
+     * @param patientNote note object to be added
+     * @return Json & HttpStatus.CREATED if successful
+     */
+    @PostMapping("/patient/note/api/add")
+    public Mono<ResponseEntity<Object>> addPatientNoteApi(@Valid @RequestBody Mono<PatientNote> patientNote) {
+        logger.info("User connected to /patient/note/api/add endpoint");
+        return patientNoteService.addFromApi(patientNote);
+    }
+
+    /**
+     * Mapping for POST
+     *
+     * Adds many PatientNotes in one request
+     * Body is a JSON array of notes, or newline delimited JSON with one note per line
+     *
+     * Returns:
+     * Json report with the outcome of each note & HttpStatus.OK
+     *
+     * @param request ServerHttpRequest with notes in body
+     * @return Json report & HttpStatus.OK
+     */
+    @PostMapping(value = "/patient/note/api/bulk", consumes = {MediaType.APPLICATION_JSON_VALUE, PatientNoteService.NDJSON})
+    public Mono<ResponseEntity<BulkReport>> addPatientNotesBulkApi(ServerHttpRequest request) {
+        logger.info("User connected to /patient/note/api/bulk endpoint");
+        return patientNoteService.addBulkFromApi(request.getBody());
+    }
+
+    /**
+     * Mapping for GET
+     *
+     * Takes a PatientNote's ID, returns that PatientNote object
+     *
+     * Returns:
+     * HttpStatus.NOT_FOUND if note cannot be found with provided ID
+     * HttpStatus.NOT_MODIFIED if If-None-Match / If-Modified-Since show the client copy is current
+     * Json & HttpStatus.OK if successful
+     *
+     * @param id PatientNote ID
+     * @return Json & HttpStatus.OK if successful
+     */
+    @GetMapping("/patient/note/api/get/{id}")
+    public Mono<ResponseEntity<Object>> getPatientNoteApi(@PathVariable("id") String id) {
+        logger.info("User connected to /patient/note/get endpoint with id " + id);
+        return patientNoteService.getFromApi(id);
+    }
+
+    /**
+     * Mapping for GET
+     *
+     * Takes a Patient ID, returns all PatientNotes for that Patient
+     *
+     * Returns:
+     * HttpStatus.NOT_FOUND if patient has no notes
+     * HttpStatus.NOT_MODIFIED if If-None-Match / If-Modified-Since show the client copy is current
+     * Json & HttpStatus.OK if successful
+     *
+     * @param patId Patient ID
+     * @param exchange ServerWebExchange for conditional headers
+     * @return Json & HttpStatus.OK if successful
+     */
+    @GetMapping("/patient/note/api/getbypatient/{patId}")
+    public Mono<ResponseEntity<Object>> getAllOnePatientNotesApi(@PathVariable("patId") int patId, ServerWebExchange exchange) {
+        logger.info("User connected to /patient/note/api/getbypatient endpoint with id " + patId);
+        return patientNoteService.getFromApiByPatientId(patId, exchange);
+    }
+
+    /**
+     * Mapping for GET
+     *
+     * Searches the text of all PatientNotes, or one Patient's notes when patId is given
+     * Quoted text is matched as a phrase, eg q="Hemoglobin A1C" Smoker
+     *
+     * Returns:
+     * HttpStatus.BAD_REQUEST if query has no term or phrase
+     * Json & HttpStatus.OK with hits ranked by relevance if successful
+     *
+     * @param query search text
+     * @param patId Patient ID, optional
+     * @param page zero based page number
+     * @param size number of hits per page
+     * @return Json & HttpStatus.OK if successful
+     */
+    @GetMapping("/patient/note/api/search")
+    public Mono<ResponseEntity<Object>> searchPatientNotesApi(@RequestParam("q") String query,
+                                                              @RequestParam(value = "patId", required = false) Integer patId,
+                                                              @RequestParam(value = "page", defaultValue = "0") int page,
+                                                              @RequestParam(value = "size", defaultValue = "20") int size) {
+        logger.info("User connected to /patient/note/api/search endpoint");
+        return patientNoteService.searchFromApi(query, patId, page, size);
+    }
+
+    /**
+     * Mapping for PUT
+     *
+     * Returns:
+     * HttpStatus.NOT_FOUND if note does not exist with this ID
+     * HttpStatus.CONFLICT if note was changed since the version sent
+     * HttpStatus.BAD_REQUEST if note has errors
+     * Json & HttpStatus.OK if successful
+     *
+     * @param patientNote PatientNote with updated fields
+     * @return Json & HttpStatus.OK if successful
+     */
+    @PutMapping("/patient/note/api/update")
+    public Mono<ResponseEntity<PatientNote>> updatePatientApi(@Valid @RequestBody Mono<PatientNote> patientNote) {
+        logger.info("User connected to /patient/add endpoint");
+        return patientNoteService.updateFromApi(patientNote);
+    }
+
+    /**
+     * Mapping for PATCH
+     *
+     * Returns:
+     * HttpStatus.NOT_FOUND if note does not exist with this ID
+     * HttpStatus.CONFLICT if note was changed since the version sent
+     * HttpStatus.BAD_REQUEST if patch changes nothing or sets invalid note text
+     * Json & HttpStatus.OK if successful
+     *
+     * @param id PatientNote ID
+     * @param patientNote PatientNote with only the fields to change set
+     * @return Json & HttpStatus.OK if successful
+     */
+    @PatchMapping("/patient/note/api/update/{id}")
+    public Mono<ResponseEntity<PatientNote>> patchPatientNoteApi(@PathVariable("id") String id,
+                                                                 @RequestBody Mono<PatientNote> patientNote) {
+        logger.info("User connected to /patient/note/api/update/ PATCH endpoint for note with id " + id);
+        return patientNoteService.patchFromApi(id, patientNote);
+    }
+
+    /**
+     * Mapping for GET
+     *
+     * Exports all PatientNotes as newline delimited JSON, one note per line
+     * Notes are streamed from the database as the client reads them
+     *
+     * @return Flux of PatientNotes, written one per line
+     */
+    @GetMapping(value = "/patient/note/api/export", produces = PatientNoteService.NDJSON)
+    @ResponseBody
+    public Flux<PatientNote> exportPatientNotesApi() {
+        logger.info("User connected to /patient/note/api/export endpoint");
+        return patientNoteService.exportFromApi();
+    }
+
+    /**
+     * Mapping for GET
+     *
+     * Server-Sent Events feed of PatientNote inserts, updates and deletes, optionally for one Patient
+     * Event ids are resume tokens, reconnecting with the Last-Event-ID header (or resumeAfter) continues after that event
+     * Requires Mongo to run as a replica set
+     *
+     * @param patId Patient ID, optional
+     * @param lastEventId id of last event received, sent by EventSource on reconnect
+     * @param resumeAfter id of last event received, for clients that cannot set headers
+     * @return Flux of NoteChange events
+     */
+    @GetMapping(value = "/patient/note/api/changes", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    @ResponseBody
+    public Flux<ServerSentEvent<NoteChange>> patientNoteChangesApi(@RequestParam(value = "patId", required = false) Integer patId,
+                                                                   @RequestHeader(value = "Last-Event-ID", required = false) String lastEventId,
+                                                                   @RequestParam(value = "resumeAfter", required = false) String resumeAfter) {
+        logger.info("User connected to /patient/note/api/changes endpoint");
+        return patientNoteService.changesFromApi(patId, lastEventId != null ? lastEventId : resumeAfter);
+    }
+
+    //Endpoints for serving Retrofit calls
+    /**
+     * Mapping for GET
+     *
+     * Intended to be called by other services
+     * Takes a Patient ID, returns all PatientNotes for that Patient
+     * Returns JSON by default, or CBOR for callers that send Accept: application/cbor
+     *
+     * @param id Patient ID
+     * @return List of PatientNotes, written by the negotiated codec
+     */
+    @GetMapping(value = "/patient/note/api/retro/getbypatient/{id}",
+            produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE})
+    @ResponseBody
+    public Mono<List<PatientNote>> getAllOnePatientNotesRetro(@PathVariable("id") int id) {
+        logger.info("User connected to patient/note/api/retro/getbypatient/ endpoint with id " + id);
+        return patientNoteService.getFromApiByPatientIdRetro(id);
+    }
+
+    /**
+     * Mapping for POST
+     *
+     * Intended to be called by population level jobs
+     * Takes a JSON array of Patient IDs, returns all PatientNotes for those Patients from a single query
+     * Written as newline delimited JSON, one {"patId", "notes"} line per Patient, streamed as notes are read
+     *
+     * Returns:
+     * HttpStatus.BAD_REQUEST if no Patient IDs are given, or more than patient.note.batch.max-patients
+     *
+     * @param patIds Patient IDs
+     * @return Flux of PatientNoteGroup, written one per line
+     */
+    @PostMapping(value = "/patient/note/api/retro/getbypatients", produces = PatientNoteService.NDJSON)
+    public ResponseEntity<Flux<PatientNoteGroup>> getManyPatientsNotesRetro(@RequestBody List<Integer> patIds) {
+        logger.info("User connected to patient/note/api/retro/getbypatients endpoint for " + patIds.size() + " ids");
+        return patientNoteService.getFromApiByPatientIdsRetro(patIds);
+    }
+
+    /**
+     * Mapping for GET
+     *
+     * Intended to be called by the assessment service
+     * Takes a Patient ID, returns how often each trigger term appears across that Patient's notes, without the notes
+     * Returns JSON by default, or CBOR for callers that send Accept: application/cbor
+     *
+     * @param id Patient ID
+     * @return TriggerTermCounts, written by the negotiated codec
+     */
+    @GetMapping(value = "/patient/note/api/retro/triggers/{id}",
+            produces = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_CBOR_VALUE})
+    @ResponseBody
+    public Mono<TriggerTermCounts> getTriggerTermCountsRetro(@PathVariable("id") int id) {
+        logger.info("User connected to patient/note/api/retro/triggers/ endpoint with id " + id);
+        return patientNoteService.getTriggerTermCountsRetro(id);
+    }
+
+}
@@ -0,0 +1,50 @@
+package com.abernathy.patienthistory.domain;
+
+import java.util.List;
+
+/**
+ * Outcome of one note in a bulk add request
+ */
+public class BulkItemResult {
+
+    public static final String CREATED = "CREATED";
+    public static final String INVALID = "INVALID";
+    public static final String FAILED = "FAILED";
+
+    private int index;
+    private String status;
+    private String patientNoteId;
+    private List<String> errors;
+
+    public BulkItemResult(int index) {
+        this.index = index;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public String getStatus() {
+        return status;
+    }
+
+    public void setStatus(String status) {
+        this.status = status;
+    }
+
+    public String getPatientNoteId() {
+        return patientNoteId;
+    }
+
+    public void setPatientNoteId(String patientNoteId) {
+        this.patientNoteId = patientNoteId;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    public void setErrors(List<String> errors) {
+        this.errors = errors;
+    }
+}
@@ -0,0 +1,64 @@
+package com.abernathy.patienthistory.domain;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Result of a bulk add request, with one BulkItemResult per note received
+ */
+public class BulkReport {
+
+    private int received;
+    private int created;
+    private int invalid;
+    private int failed;
+    private List<BulkItemResult> items = new ArrayList<>();
+
+    /**
+     * Adds item to report in the order it was received
+     *
+     * @param item result for received note
+     */
+    public void receive(BulkItemResult item) {
+        items.add(item);
+        received++;
+    }
+
+    /**
+     * Counts item once its status is final
+     *
+     * @param item result for received note
+     */
+    public void complete(BulkItemResult item) {
+        switch (item.getStatus()) {
+            case BulkItemResult.CREATED:
+                created++;
+                break;
+            case BulkItemResult.INVALID:
+                invalid++;
+                break;
+            default:
+                failed++;
+        }
+    }
+
+    public int getReceived() {
+        return received;
+    }
+
+    public int getCreated() {
+        return created;
+    }
+
+    public int getInvalid() {
+        return invalid;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+
+    public List<BulkItemResult> getItems() {
+        return items;
+    }
+}
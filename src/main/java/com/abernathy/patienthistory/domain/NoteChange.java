@@ -0,0 +1,39 @@
+package com.abernathy.patienthistory.domain;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+/**
+ * One insert, update, replace or delete of a PatientNote, as sent on the change feed
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class NoteChange {
+
+    private String operation;
+    private String patientNoteId;
+    private Integer patId;
+    // Note as written, null for deletes
+    private PatientNote note;
+
+    public NoteChange(String operation, String patientNoteId, PatientNote note) {
+        this.operation = operation;
+        this.patientNoteId = patientNoteId;
+        this.note = note;
+        this.patId = note == null ? null : note.getPatId();
+    }
+
+    public String getOperation() {
+        return operation;
+    }
+
+    public String getPatientNoteId() {
+        return patientNoteId;
+    }
+
+    public Integer getPatId() {
+        return patId;
+    }
+
+    public PatientNote getNote() {
+        return note;
+    }
+}
@@ -0,0 +1,49 @@
+package com.abernathy.patienthistory.domain;
+
+import java.util.List;
+
+/**
+ * One page of full-text search hits, ordered by relevance
+ */
+public class NoteSearchResult {
+
+    private String query;
+    private Integer patId;
+    private int page;
+    private int size;
+    private long total;
+    private List<PatientNote> hits;
+
+    public NoteSearchResult(String query, Integer patId, int page, int size, long total, List<PatientNote> hits) {
+        this.query = query;
+        this.patId = patId;
+        this.page = page;
+        this.size = size;
+        this.total = total;
+        this.hits = hits;
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public Integer getPatId() {
+        return patId;
+    }
+
+    public int getPage() {
+        return page;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public long getTotal() {
+        return total;
+    }
+
+    public List<PatientNote> getHits() {
+        return hits;
+    }
+}
@@ -1,24 +1,48 @@
 package com.abernathy.patienthistory.domain;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import org.springframework.data.annotation.CreatedDate;
 import org.springframework.data.annotation.Id;
-import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.annotation.LastModifiedDate;
+import org.springframework.data.annotation.Version;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.TextIndexed;
 import org.springframework.data.mongodb.core.mapping.Document;
+import org.springframework.data.mongodb.core.mapping.TextScore;
 
 import javax.validation.constraints.NotEmpty;
 import javax.validation.constraints.NotNull;
-import javax.validation.constraints.Pattern;
+import java.time.Instant;
+import java.util.Map;
 
 @Document
+@CompoundIndex(name = "patId_createdAt", def = "{'patId': 1, 'createdAt': 1}")
 public class PatientNote implements DomainElement {
     @Id
     private String patientNoteId;
-    @Indexed
-    @NotNull
-    @Pattern(regexp = "^\\d+$",
-    message="Patient ID must be an Integer value")
-    private String patId;
+    @NotNull(message="Patient ID is mandatory")
+    private Integer patId;
     @NotEmpty(message="Note is mandatory")
+    @TextIndexed
     private String note;
+    @CreatedDate
+    private Instant createdAt;
+    @LastModifiedDate
+    private Instant lastModified;
+    // Incremented on every update, clients send back the version they read to detect concurrent changes
+    @Version
+    private Long version;
+    // Trigger term counts for the current note text, set on every write by TriggerTermCallback
+    @JsonIgnore
+    private Map<String, Integer> triggerTerms;
+    // TriggerTermMatcher version the counts were made with
+    @JsonIgnore
+    private String triggerTermsVersion;
+    // Relevance of a full-text search hit, only set on search results and never stored
+    @TextScore
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    private Float score;
 
     public String getPatientNoteId() {
         return patientNoteId;
@@ -28,19 +52,21 @@ public class PatientNote implements DomainElement {
         this.patientNoteId = patientNoteId;
     }
 
+    @JsonIgnore
     public String getId() {
         return patientNoteId;
     }
 
+    @JsonIgnore
     public void setId(String patientNoteId) {
         this.patientNoteId = patientNoteId;
     }
 
-    public String getPatId() {
+    public Integer getPatId() {
         return patId;
     }
 
-    public void setPatId(String patId) {
+    public void setPatId(Integer patId) {
         this.patId = patId;
     }
 
@@ -52,11 +78,59 @@ public class PatientNote implements DomainElement {
         this.note = note;
     }
 
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public void setCreatedAt(Instant createdAt) {
+        this.createdAt = createdAt;
+    }
+
+    public Instant getLastModified() {
+        return lastModified;
+    }
+
+    public void setLastModified(Instant lastModified) {
+        this.lastModified = lastModified;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
+
+    public Map<String, Integer> getTriggerTerms() {
+        return triggerTerms;
+    }
+
+    public void setTriggerTerms(Map<String, Integer> triggerTerms) {
+        this.triggerTerms = triggerTerms;
+    }
+
+    public String getTriggerTermsVersion() {
+        return triggerTermsVersion;
+    }
+
+    public void setTriggerTermsVersion(String triggerTermsVersion) {
+        this.triggerTermsVersion = triggerTermsVersion;
+    }
+
+    public Float getScore() {
+        return score;
+    }
+
+    public void setScore(Float score) {
+        this.score = score;
+    }
+
     @Override
     public String toString() {
-        return "{\"patientNote\":{\"patientNoteId\": \"" + patientNoteId +
-                "\", \"patId\": \"" + patId +
-                "\", \"note\": \"" + note +"\"}}";
+        return "PatientNote{patientNoteId=" + patientNoteId +
+                ", patId=" + patId +
+                ", createdAt=" + createdAt +
+                ", lastModified=" + lastModified + "}";
     }
 }
-
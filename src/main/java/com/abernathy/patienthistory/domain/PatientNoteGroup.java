@@ -0,0 +1,25 @@
+package com.abernathy.patienthistory.domain;
+
+import java.util.List;
+
+/**
+ * All notes for one patient, as returned by the batch fetch
+ */
+public class PatientNoteGroup {
+
+    private int patId;
+    private List<PatientNote> notes;
+
+    public PatientNoteGroup(int patId, List<PatientNote> notes) {
+        this.patId = patId;
+        this.notes = notes;
+    }
+
+    public int getPatId() {
+        return patId;
+    }
+
+    public List<PatientNote> getNotes() {
+        return notes;
+    }
+}
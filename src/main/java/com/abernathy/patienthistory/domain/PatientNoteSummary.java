@@ -0,0 +1,85 @@
+package com.abernathy.patienthistory.domain;
+
+import org.springframework.data.annotation.Id;
+
+/**
+ * Table row for a PatientNote on the list and view all pages
+ * Holds a preview of the note text instead of the whole note, which is only loaded when a single note is viewed
+ */
+public class PatientNoteSummary {
+
+    @Id
+    private String patientNoteId;
+    private Integer patId;
+    private String preview;
+    private boolean truncated;
+
+    public PatientNoteSummary() {
+    }
+
+    public PatientNoteSummary(String patientNoteId, Integer patId, String preview, boolean truncated) {
+        this.patientNoteId = patientNoteId;
+        this.patId = patId;
+        this.preview = preview;
+        this.truncated = truncated;
+    }
+
+    /**
+     * Method to summarise a note already loaded in full, such as one held in PatientNoteCache
+     *
+     * @param note          PatientNote
+     * @param previewLength maximum characters of note text to keep
+     * @return PatientNoteSummary
+     */
+    public static PatientNoteSummary of(PatientNote note, int previewLength) {
+        PatientNoteSummary summary = new PatientNoteSummary(note.getPatientNoteId(), note.getPatId(), note.getNote(), false);
+        return summary.truncate(previewLength);
+    }
+
+    /**
+     * Method to cut the preview to a number of characters, counted in code points as $substrCP does
+     * Marks the summary as truncated if any text was removed
+     *
+     * @param previewLength maximum characters of note text to keep
+     * @return this summary
+     */
+    public PatientNoteSummary truncate(int previewLength) {
+        if (preview != null && preview.codePointCount(0, preview.length()) > previewLength) {
+            preview = preview.substring(0, preview.offsetByCodePoints(0, previewLength));
+            truncated = true;
+        }
+        return this;
+    }
+
+    public String getPatientNoteId() {
+        return patientNoteId;
+    }
+
+    public void setPatientNoteId(String patientNoteId) {
+        this.patientNoteId = patientNoteId;
+    }
+
+    public Integer getPatId() {
+        return patId;
+    }
+
+    public void setPatId(Integer patId) {
+        this.patId = patId;
+    }
+
+    public String getPreview() {
+        return preview;
+    }
+
+    public void setPreview(String preview) {
+        this.preview = preview;
+    }
+
+    public boolean isTruncated() {
+        return truncated;
+    }
+
+    public void setTruncated(boolean truncated) {
+        this.truncated = truncated;
+    }
+}
@@ -0,0 +1,70 @@
+package com.abernathy.patienthistory.domain;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Map;
+
+/**
+ * Per patient trigger term totals, kept up to date as notes are written
+ * Stores each note's contribution so it can be subtracted when the note changes
+ */
+@Document
+public class PatientTermProfile {
+    @Id
+    private Integer patId;
+    // Term to occurrences across all notes
+    private Map<String, Integer> terms;
+    // Note ID to that note's term counts
+    private Map<String, Map<String, Integer>> notes;
+    private int noteCount;
+    // TriggerTermMatcher version the counts were made with
+    private String version;
+
+    public Integer getPatId() {
+        return patId;
+    }
+
+    public void setPatId(Integer patId) {
+        this.patId = patId;
+    }
+
+    public Map<String, Integer> getTerms() {
+        return terms;
+    }
+
+    public void setTerms(Map<String, Integer> terms) {
+        this.terms = terms;
+    }
+
+    public Map<String, Map<String, Integer>> getNotes() {
+        return notes;
+    }
+
+    public void setNotes(Map<String, Map<String, Integer>> notes) {
+        this.notes = notes;
+    }
+
+    public int getNoteCount() {
+        return noteCount;
+    }
+
+    public void setNoteCount(int noteCount) {
+        this.noteCount = noteCount;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public void setVersion(String version) {
+        this.version = version;
+    }
+
+    @Override
+    public String toString() {
+        return "PatientTermProfile{patId=" + patId +
+                ", noteCount=" + noteCount +
+                ", terms=" + terms + "}";
+    }
+}
@@ -0,0 +1,43 @@
+package com.abernathy.patienthistory.domain;
+
+import java.util.Map;
+
+/**
+ * Trigger term counts across all of one patient's notes
+ */
+public class TriggerTermCounts {
+
+    private int patId;
+    private int notes;
+    private int distinctTerms;
+    private Map<String, Integer> terms;
+
+    public TriggerTermCounts(int patId, int notes, Map<String, Integer> terms) {
+        this.patId = patId;
+        this.notes = notes;
+        this.terms = terms;
+        this.distinctTerms = (int) terms.values().stream().filter(count -> count > 0).count();
+    }
+
+    public int getPatId() {
+        return patId;
+    }
+
+    public int getNotes() {
+        return notes;
+    }
+
+    /**
+     * @return number of terms found at least once
+     */
+    public int getDistinctTerms() {
+        return distinctTerms;
+    }
+
+    /**
+     * @return occurrences of every configured term, in configured order
+     */
+    public Map<String, Integer> getTerms() {
+        return terms;
+    }
+}
@@ -0,0 +1,120 @@
+package com.abernathy.patienthistory.migration;
+
+import com.abernathy.patienthistory.domain.PatientNote;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.util.CloseableIterator;
+import org.springframework.stereotype.Component;
+
+/**
+ * Startup migration for PatientNote documents written before patId was stored as a number
+ *
+ * Converts string patIds to integers, backfills createdAt and lastModified from the ObjectId timestamp,
+ * starts notes without a version at version 0, and drops the old single field patId index now covered by the (patId, createdAt) index
+ * Documents already migrated are not touched, so running this on every startup is cheap
+ */
+@Component
+@ConditionalOnProperty(value = "patient.note.migration.enabled", havingValue = "true")
+public class PatientNoteMigration implements ApplicationRunner {
+
+    private static final Logger logger = LogManager.getLogger("PatientNoteMigration");
+
+    private static final int BSON_TYPE_STRING = 2;
+
+    private static final int BATCH_SIZE = 500;
+
+    private static final String LEGACY_PAT_ID_INDEX = "patId";
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Override
+    public void run(ApplicationArguments args) {
+        try {
+            String collection = mongoTemplate.getCollectionName(PatientNote.class);
+            dropLegacyIndex(collection);
+            int migrated = migrateDocuments(collection);
+            if (migrated > 0) {
+                logger.info("Migrated " + migrated + " PatientNote documents");
+            }
+        } catch (Exception e) {
+            logger.error("PatientNote migration failed: " + e);
+        }
+    }
+
+    private void dropLegacyIndex(String collection) {
+        for (IndexInfo index : mongoTemplate.indexOps(collection).getIndexInfo()) {
+            if (LEGACY_PAT_ID_INDEX.equals(index.getName())) {
+                mongoTemplate.indexOps(collection).dropIndex(LEGACY_PAT_ID_INDEX);
+                logger.info("Dropped legacy patId index");
+            }
+        }
+    }
+
+    private int migrateDocuments(String collection) {
+        Query legacy = new Query(new Criteria().orOperator(
+                Criteria.where("patId").type(BSON_TYPE_STRING),
+                Criteria.where("createdAt").exists(false),
+                Criteria.where("lastModified").exists(false),
+                Criteria.where("version").exists(false)));
+        legacy.fields().include("_id").include("patId").include("createdAt").include("lastModified").include("version");
+
+        int migrated = 0;
+        int pending = 0;
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, collection);
+        try (CloseableIterator<Document> documents = mongoTemplate.stream(legacy, Document.class, collection)) {
+            while (documents.hasNext()) {
+                Document document = documents.next();
+                Update update = new Update();
+                Object patId = document.get("patId");
+                if (patId instanceof String) {
+                    try {
+                        update.set("patId", Integer.parseInt(((String) patId).trim()));
+                    } catch (NumberFormatException e) {
+                        logger.error("PatientNote " + document.get("_id") + " has non numeric patId: " + patId);
+                    }
+                }
+                Object id = document.get("_id");
+                if (document.get("createdAt") == null && id instanceof ObjectId) {
+                    update.set("createdAt", ((ObjectId) id).getDate());
+                }
+                if (document.get("lastModified") == null && id instanceof ObjectId) {
+                    Object createdAt = document.get("createdAt");
+                    update.set("lastModified", createdAt != null ? createdAt : ((ObjectId) id).getDate());
+                }
+                if (!document.containsKey("version")) {
+                    // Unversioned notes would be inserted rather than updated by a repository save
+                    update.set("version", 0L);
+                }
+                if (update.getUpdateObject().isEmpty()) {
+                    continue;
+                }
+                bulk.updateOne(new Query(Criteria.where("_id").is(id)), update);
+                pending++;
+                migrated++;
+                if (pending == BATCH_SIZE) {
+                    bulk.execute();
+                    bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, collection);
+                    pending = 0;
+                }
+            }
+        }
+        if (pending > 0) {
+            bulk.execute();
+        }
+        return migrated;
+    }
+
+}
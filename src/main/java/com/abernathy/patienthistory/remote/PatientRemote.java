@@ -1,66 +1,186 @@
 package com.abernathy.patienthistory.remote;
 
 import com.abernathy.patienthistory.remote.interfaces.PatientRetro;
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
-import okhttp3.OkHttpClient;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.bulkhead.BulkheadFullException;
+import io.github.resilience4j.circuitbreaker.CallNotPermittedException;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.http.Outcome;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 import retrofit2.Call;
 import retrofit2.Response;
-import retrofit2.Retrofit;
-import retrofit2.converter.gson.GsonConverterFactory;
 
+import java.io.IOException;
+import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 
 @Service
 public class PatientRemote {
 
-    @Value("${docker.patient.ip}")
-    private String ip = "127.0.0.1";
+    @Autowired
+    private PatientRetro patientRetro;
 
-    @Value("${docker.patient.port}")
-    private String port = "8080";
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private CircuitBreaker patientCircuitBreaker;
+
+    @Autowired
+    private Bulkhead patientBulkhead;
+
+    @Value("${patient.remote.index.ttl-ms:60000}")
+    private long indexTtlMs = 60000;
 
     private Logger logger = LoggerFactory.getLogger(PatientRemote.class);
 
-    private Gson gson = new GsonBuilder().setLenient().create();
+    private volatile Map<Integer, String> patientIndex;
+
+    private volatile long patientIndexLoadedAt;
+
+    // A lock rather than synchronized, so a virtual thread waiting on the patient service does not pin its carrier
+    private final ReentrantLock loadLock = new ReentrantLock();
+
+    // Load in flight while no index has been loaded yet, joined by every caller arriving meanwhile
+    private final AtomicReference<CompletableFuture<Map<Integer, String>>> firstLoad = new AtomicReference<>();
 
     /**
      * Method to get index of patients from patient database via api call
      * For use in add patient note front end ui
      *
+     * Served from cache while the cached index is within its TTL
+     * The cache is kept fresh by a background refresh, so callers only block
+     * on the patient service when no index has been loaded yet, and then all wait on a single call
+     * Once an index has been loaded, an expired one is reloaded by a single caller while others are served the last index loaded
+     * If the patient service cannot be reached, or its circuit breaker is open, the last index loaded is served,
+     * or an empty index if there is none
+     *
      * @return Map of Patient ID to Patient Names
      */
     public Map<Integer, String> getPatientIndex() {
-        logger.info("getPatientIndex called");
+        Map<Integer, String> index = patientIndex;
+        if (index != null && System.currentTimeMillis() - patientIndexLoadedAt < indexTtlMs) {
+            return index;
+        }
+        return loadPatientIndex(index);
+    }
 
-        OkHttpClient.Builder httpClient = new OkHttpClient.Builder();
-        Retrofit retrofit = new Retrofit.Builder()
-                .baseUrl("http://" + ip + ":" + port + "/")
-                .addConverterFactory(GsonConverterFactory.create(gson))
-                .client(httpClient.build())
-                .build();
+    /**
+     * Scheduled refresh of cached patient index
+     * Runs in the background so requests are served from cache
+     */
+    @Scheduled(initialDelayString = "${patient.remote.index.initial-delay-ms:0}",
+            fixedDelayString = "${patient.remote.index.refresh-ms:30000}")
+    public void refreshPatientIndex() {
+        fetchPatientIndex();
+    }
 
-        PatientRetro patientService = retrofit.create(PatientRetro.class);
+    private Map<Integer, String> loadPatientIndex(Map<Integer, String> seen) {
+        if (seen == null) {
+            return loadFirstPatientIndex();
+        }
+        if (!loadLock.tryLock()) {
+            // Another caller is already reloading, do not queue behind a slow patient service
+            return seen;
+        }
+        try {
+            if (patientIndex != seen) {
+                // Another caller refreshed the index meanwhile
+                return patientIndex;
+            }
+            Map<Integer, String> fetched = fetchPatientIndex();
+            if (fetched != null) {
+                return fetched;
+            }
+            logger.warn("getPatientIndex serving stale patient index");
+            return seen;
+        } finally {
+            loadLock.unlock();
+        }
+    }
 
-        Call<Map<Integer, String>> callSync = patientService.getPatientIndex();
+    private Map<Integer, String> loadFirstPatientIndex() {
+        CompletableFuture<Map<Integer, String>> loading = new CompletableFuture<>();
+        CompletableFuture<Map<Integer, String>> inFlight = firstLoad.compareAndExchange(null, loading);
+        if (inFlight != null) {
+            // Share the call already made, so a failed call is not repeated by each waiting caller in turn
+            return inFlight.join();
+        }
+        Map<Integer, String> index = null;
+        try {
+            // The background refresh may have loaded an index since this caller found none
+            index = patientIndex != null ? patientIndex : fetchPatientIndex();
+        } finally {
+            firstLoad.set(null);
+            loading.complete(index == null ? Collections.emptyMap() : index);
+        }
+        return loading.join();
+    }
 
+    private Map<Integer, String> fetchPatientIndex() {
+        logger.info("getPatientIndex called");
+
+        Timer.Sample sample = Timer.start(meterRegistry);
         try {
-            Response<Map<Integer, String>> response = callSync.execute();
-            Map<Integer, String> value = response.body();
-            System.out.println("getPatientIndex external call completed");
-            System.out.println(response);
-            System.out.println(response.body());
-            logger.debug("getPatientIndex external call completed");
+            Map<Integer, String> value = patientCircuitBreaker.executeCheckedSupplier(
+                    () -> patientBulkhead.executeCheckedSupplier(() -> executeIndexCall(sample)));
+            patientIndex = value;
+            patientIndexLoadedAt = System.currentTimeMillis();
             return value;
-        } catch (Exception e) {
-            System.out.println("getPatientIndex external call failed: " + e);
+        } catch (CallNotPermittedException | BulkheadFullException e) {
+            sample.stop(requestTimer(meterRegistry, "index", "REJECTED"));
+            logger.warn("getPatientIndex external call not permitted: " + e.getMessage());
+            return null;
+        } catch (Throwable e) {
             logger.error("getPatientIndex external call failed: " + e);
             return null;
         }
     }
 
+    private Map<Integer, String> executeIndexCall(Timer.Sample sample) throws IOException {
+        Call<Map<Integer, String>> callSync = patientRetro.getPatientIndex();
+        Response<Map<Integer, String>> response;
+        try {
+            response = callSync.execute();
+        } catch (IOException | RuntimeException e) {
+            sample.stop(requestTimer(meterRegistry, "index", Outcome.UNKNOWN.name()));
+            throw e;
+        }
+        sample.stop(requestTimer(meterRegistry, "index", Outcome.forStatus(response.code()).name()));
+        logger.debug("getPatientIndex external call completed: " + response);
+        if (!response.isSuccessful() || response.body() == null) {
+            // Counted as a failure by the circuit breaker
+            throw new IOException("patient service returned " + response.code());
+        }
+        return response.body();
+    }
+
+    /**
+     * Method to get the timer for calls to the patient service
+     * Outcome is SUCCESS, CLIENT_ERROR or SERVER_ERROR from the response status, UNKNOWN if no response was received,
+     * or REJECTED if the call was refused by the circuit breaker or bulkhead
+     *
+     * @param meterRegistry MeterRegistry
+     * @param call          patient service call
+     * @param outcome       outcome of the call
+     * @return Timer
+     */
+    static Timer requestTimer(MeterRegistry meterRegistry, String call, String outcome) {
+        return Timer.builder("patient.remote.requests")
+                .description("Calls made to the patient service")
+                .tag("call", call)
+                .tag("outcome", outcome)
+                .register(meterRegistry);
+    }
+
 }
@@ -0,0 +1,57 @@
+package com.abernathy.patienthistory.remote;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+import org.springframework.web.context.annotation.RequestScope;
+
+import javax.annotation.PreDestroy;
+import java.util.Map;
+
+/**
+ * Request scoped memoization of remote lookups used by the front end
+ * Each lookup reaches PatientRemote at most once per request, however many times it is used while rendering
+ */
+@Component
+@RequestScope
+public class PatientRequestLookups {
+
+    @Autowired
+    private PatientRemote patientRemote;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private Map<Integer, String> patientIndex;
+
+    private boolean patientIndexLoaded;
+
+    private int remoteCalls;
+
+    /**
+     * Method to get index of patients, loaded from PatientRemote on first use in this request
+     *
+     * @return Map of Patient ID to Patient Names
+     */
+    public Map<Integer, String> getPatientIndex() {
+        if (!patientIndexLoaded) {
+            remoteCalls++;
+            patientIndex = patientRemote.getPatientIndex();
+            patientIndexLoaded = true;
+        }
+        return patientIndex;
+    }
+
+    /**
+     * Records number of remote calls made during this request when the request completes
+     */
+    @PreDestroy
+    public void recordRemoteCalls() {
+        DistributionSummary.builder("patient.remote.calls.per.request")
+                .description("Remote lookups made to the patient service per request")
+                .register(meterRegistry)
+                .record(remoteCalls);
+    }
+
+}
@@ -0,0 +1,95 @@
+package com.abernathy.patienthistory.remote;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.http.Outcome;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Non-blocking client for the patient service, used by the reactive profile in place of PatientRemote
+ */
+@Service
+@Profile("reactive")
+public class ReactivePatientRemote {
+
+    @Autowired
+    private WebClient patientWebClient;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${patient.remote.index.ttl-ms:60000}")
+    private long indexTtlMs = 60000;
+
+    private Logger logger = LoggerFactory.getLogger(ReactivePatientRemote.class);
+
+    private volatile Map<Integer, String> lastPatientIndex;
+
+    private Mono<Map<Integer, String>> patientIndex;
+
+    @PostConstruct
+    public void init() {
+        // Concurrent subscribers share one in-flight call, failures are not cached
+        patientIndex = fetchPatientIndex().cache(
+                index -> Duration.ofMillis(indexTtlMs),
+                error -> Duration.ZERO,
+                () -> Duration.ZERO);
+    }
+
+    /**
+     * Method to get index of patients from patient database via api call
+     * For use in add patient note front end ui
+     *
+     * Served from cache while the cached index is within its TTL
+     * If the patient service cannot be reached the last index loaded is served, or an empty index if there is none
+     *
+     * @return Mono of Map of Patient ID to Patient Names
+     */
+    public Mono<Map<Integer, String>> getPatientIndex() {
+        return patientIndex.onErrorResume(e -> {
+            Map<Integer, String> stale = lastPatientIndex;
+            if (stale != null) {
+                logger.warn("getPatientIndex serving stale patient index");
+                return Mono.just(stale);
+            }
+            return Mono.just(Collections.emptyMap());
+        });
+    }
+
+    private Mono<Map<Integer, String>> fetchPatientIndex() {
+        return Mono.defer(() -> {
+            logger.info("getPatientIndex called");
+            Timer.Sample sample = Timer.start(meterRegistry);
+            return patientWebClient.get()
+                    .uri("/patient/api/retro/get/index")
+                    .retrieve()
+                    .bodyToMono(new ParameterizedTypeReference<Map<Integer, String>>() {})
+                    .doOnSuccess(index -> sample.stop(PatientRemote.requestTimer(meterRegistry, "index", Outcome.SUCCESS.name())))
+                    .doOnError(e -> sample.stop(PatientRemote.requestTimer(meterRegistry, "index", outcome(e))));
+        })
+                .doOnNext(index -> lastPatientIndex = index)
+                .doOnError(e -> logger.error("getPatientIndex external call failed: " + e));
+    }
+
+    private static String outcome(Throwable e) {
+        if (e instanceof WebClientResponseException) {
+            return Outcome.forStatus(((WebClientResponseException) e).getRawStatusCode()).name();
+        }
+        return Outcome.UNKNOWN.name();
+    }
+
+}
@@ -0,0 +1,144 @@
+package com.abernathy.patienthistory.repository;
+
+import com.abernathy.patienthistory.domain.PatientNote;
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Storage format for long note text
+ * Notes above the size threshold are stored gzipped in noteGz, with the first PREVIEW_CHARS characters kept in notePreview
+ * for the list and view all pages, and no note field
+ * Compressed notes are not covered by the note text index, so are not found by full-text search
+ * Notes are decompressed on read whatever the current settings, so compression can be turned off at any time
+ */
+@Component
+public class NoteCompression {
+
+    public static final String NOTE_FIELD = "note";
+
+    public static final String COMPRESSED_FIELD = "noteGz";
+
+    public static final String PREVIEW_FIELD = "notePreview";
+
+    // Longer than any list preview, so previews of compressed notes are still cut and marked as truncated
+    public static final int PREVIEW_CHARS = 256;
+
+    @Value("${patient.note.compression.enabled:false}")
+    private boolean enabled;
+
+    @Value("${patient.note.compression.threshold-bytes:2048}")
+    private int thresholdBytes = 2048;
+
+    /**
+     * Method to check if a note's text is stored compressed
+     *
+     * @param note note text
+     * @return true if compression is enabled and the UTF-8 text is at least the threshold size
+     */
+    public boolean shouldCompress(String note) {
+        // UTF-8 takes at most 3 bytes per char, so short notes are ruled out without encoding them
+        return enabled && note != null && note.length() * 3L >= thresholdBytes
+                && note.getBytes(StandardCharsets.UTF_8).length >= thresholdBytes;
+    }
+
+    /**
+     * Method to compress the note field of a document about to be written, if it is over the threshold
+     *
+     * @param document PatientNote document
+     */
+    public void compress(Document document) {
+        Object note = document.get(NOTE_FIELD);
+        if (note instanceof String && shouldCompress((String) note)) {
+            document.put(COMPRESSED_FIELD, new Binary(gzip((String) note)));
+            document.put(PREVIEW_FIELD, preview((String) note));
+            document.remove(NOTE_FIELD);
+        }
+    }
+
+    /**
+     * Method to restore the text of a note read from a document holding compressed text
+     *
+     * @param note     PatientNote converted from document
+     * @param document PatientNote document as read
+     * @return the same PatientNote
+     */
+    public PatientNote decompress(PatientNote note, Document document) {
+        Object compressed = document.get(COMPRESSED_FIELD);
+        if (compressed instanceof Binary) {
+            note.setNote(gunzip(((Binary) compressed).getData()));
+        } else if (compressed instanceof byte[]) {
+            note.setNote(gunzip((byte[]) compressed));
+        }
+        return note;
+    }
+
+    /**
+     * Method to add new note text to an update, in whichever form it is stored
+     * The form it replaces is removed, so a note is never held both ways
+     *
+     * @param update Update to add to
+     * @param note   new note text
+     * @return the same Update
+     */
+    public Update setNote(Update update, String note) {
+        if (shouldCompress(note)) {
+            return update.set(COMPRESSED_FIELD, new Binary(gzip(note)))
+                    .set(PREVIEW_FIELD, preview(note))
+                    .unset(NOTE_FIELD);
+        }
+        return update.set(NOTE_FIELD, note)
+                .unset(COMPRESSED_FIELD)
+                .unset(PREVIEW_FIELD);
+    }
+
+    /**
+     * Method to gzip note text
+     *
+     * @param note note text
+     * @return gzipped UTF-8 bytes
+     */
+    public static byte[] gzip(String note) {
+        byte[] bytes = note.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(bytes.length / 3 + 32);
+        try (OutputStream out = new GZIPOutputStream(compressed)) {
+            out.write(bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return compressed.toByteArray();
+    }
+
+    /**
+     * Method to restore note text from gzipped bytes
+     *
+     * @param compressed gzipped UTF-8 bytes
+     * @return note text
+     */
+    public static String gunzip(byte[] compressed) {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static String preview(String note) {
+        return note.codePointCount(0, note.length()) > PREVIEW_CHARS
+                ? note.substring(0, note.offsetByCodePoints(0, PREVIEW_CHARS))
+                : note;
+    }
+
+}
@@ -0,0 +1,31 @@
+package com.abernathy.patienthistory.repository;
+
+import com.abernathy.patienthistory.domain.PatientNote;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.mapping.event.AfterConvertCallback;
+import org.springframework.data.mongodb.core.mapping.event.BeforeSaveCallback;
+import org.springframework.stereotype.Component;
+
+/**
+ * Compresses long note text as PatientNotes are written through MongoTemplate, and restores it as they are read
+ * Runs for repository saves, bulk inserts, queries and findAndModify alike
+ */
+@Component
+public class NoteCompressionCallback implements BeforeSaveCallback<PatientNote>, AfterConvertCallback<PatientNote> {
+
+    @Autowired
+    private NoteCompression noteCompression;
+
+    @Override
+    public PatientNote onBeforeSave(PatientNote note, Document document, String collection) {
+        noteCompression.compress(document);
+        return note;
+    }
+
+    @Override
+    public PatientNote onAfterConvert(PatientNote note, Document document, String collection) {
+        return noteCompression.decompress(note, document);
+    }
+
+}
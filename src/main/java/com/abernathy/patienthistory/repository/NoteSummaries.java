@@ -0,0 +1,65 @@
+package com.abernathy.patienthistory.repository;
+
+import com.abernathy.patienthistory.domain.PatientNote;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
+import org.springframework.data.mongodb.core.aggregation.ProjectionOperation;
+import org.springframework.data.mongodb.core.aggregation.StringOperators;
+import org.springframework.data.mongodb.core.aggregation.TypedAggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+
+/**
+ * Aggregations for PatientNoteSummary rows, shared by the blocking and reactive repositories
+ * Only the note ID, patient ID and a $substrCP preview of the note text leave Mongo
+ * Compressed notes are previewed from the start of the note kept uncompressed by NoteCompression
+ * One character more than the preview length is read, so a summary can tell it was truncated
+ */
+final class NoteSummaries {
+
+    private NoteSummaries() {
+    }
+
+    /**
+     * Method to build one keyset page of summaries in note ID order
+     *
+     * @param after         ID of last note on previous page, null for first page
+     * @param limit         maximum number of summaries
+     * @param previewLength maximum characters of note text
+     * @return TypedAggregation
+     */
+    static TypedAggregation<PatientNote> page(String after, int limit, int previewLength) {
+        Criteria criteria = new Criteria();
+        if (after != null && !after.isEmpty()) {
+            // Not converted inside aggregations as it is for repository queries
+            criteria = Criteria.where("patientNoteId").gt(ObjectId.isValid(after) ? new ObjectId(after) : after);
+        }
+        return Aggregation.newAggregation(PatientNote.class,
+                Aggregation.match(criteria),
+                Aggregation.sort(Sort.Direction.ASC, "patientNoteId"),
+                Aggregation.limit(limit),
+                preview(previewLength));
+    }
+
+    /**
+     * Method to build summaries of all notes for a patient, oldest first, served by the (patId, createdAt) index
+     *
+     * @param patId         Patient ID
+     * @param previewLength maximum characters of note text
+     * @return TypedAggregation
+     */
+    static TypedAggregation<PatientNote> byPatId(int patId, int previewLength) {
+        return Aggregation.newAggregation(PatientNote.class,
+                Aggregation.match(Criteria.where("patId").is(patId)),
+                Aggregation.sort(Sort.Direction.ASC, "createdAt"),
+                preview(previewLength));
+    }
+
+    private static ProjectionOperation preview(int previewLength) {
+        return Aggregation.project("patId")
+                .and(StringOperators.valueOf(ConditionalOperators.ifNull(NoteCompression.NOTE_FIELD).thenValueOf(NoteCompression.PREVIEW_FIELD))
+                        .substringCP(0, previewLength + 1)).as("preview");
+    }
+
+}
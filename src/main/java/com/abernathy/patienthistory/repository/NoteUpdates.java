@@ -0,0 +1,52 @@
+package com.abernathy.patienthistory.repository;
+
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.Map;
+
+/**
+ * Query and update for version checked PatientNote updates, shared by the blocking and reactive repositories
+ */
+final class NoteUpdates {
+
+    private NoteUpdates() {
+    }
+
+    /**
+     * Method to match a note by ID, and by version when one is provided
+     *
+     * @param id      note ID
+     * @param version expected version, null to match any
+     * @return Query
+     */
+    static Query byIdAndVersion(String id, Long version) {
+        Criteria criteria = Criteria.where("_id").is(id);
+        if (version != null) {
+            criteria.and("version").is(version);
+        }
+        return new Query(criteria);
+    }
+
+    /**
+     * Method to $set the provided fields and $inc the version
+     * Note text is set in the form NoteCompression stores it
+     *
+     * @param fields          field name to new value
+     * @param noteCompression NoteCompression
+     * @return Update
+     */
+    static Update setFields(Map<String, Object> fields, NoteCompression noteCompression) {
+        Update update = new Update();
+        fields.forEach((field, value) -> {
+            if (NoteCompression.NOTE_FIELD.equals(field) && value instanceof String) {
+                noteCompression.setNote(update, (String) value);
+            } else {
+                update.set(field, value);
+            }
+        });
+        return update.inc("version", 1);
+    }
+
+}
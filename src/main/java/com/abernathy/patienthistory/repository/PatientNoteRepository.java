@@ -1,15 +1,42 @@
 package com.abernathy.patienthistory.repository;
 
 import com.abernathy.patienthistory.domain.PatientNote;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.core.query.TextCriteria;
 import org.springframework.data.mongodb.repository.MongoRepository;
 import org.springframework.data.mongodb.repository.Query;
 import org.springframework.data.repository.PagingAndSortingRepository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
 
-public interface PatientNoteRepository extends MongoRepository<PatientNote, String> {
-    @Query("{ 'patId' : '?0' }")
+public interface PatientNoteRepository extends MongoRepository<PatientNote, String>, PatientNoteRepositoryCustom {
+    // Served by the (patId, createdAt) index, oldest note first
+    @Query(value = "{ 'patId' : ?0 }", sort = "{ 'createdAt' : 1 }")
     List<PatientNote> findAllByPatId(int patId);
 
+    // IDs, versions and modification times only, without note bodies, for conditional GET
+    @Query(value = "{ 'patId' : ?0 }", fields = "{ '_id' : 1, 'version' : 1, 'lastModified' : 1 }")
+    List<PatientNote> findVersionsByPatId(int patId);
+
+    // Single $in query over the (patId, createdAt) index, grouped by patient, backed by a Mongo cursor that must be closed after use
+    @Query(value = "{ 'patId' : { '$in' : ?0 } }", sort = "{ 'patId' : 1, 'createdAt' : 1 }")
+    Stream<PatientNote> streamAllByPatIdIn(Collection<Integer> patIds);
+
+    // Stored trigger term counts only, without note bodies
+    @Query(value = "{ 'patId' : ?0 }", fields = "{ '_id' : 1, 'lastModified' : 1, 'triggerTerms' : 1, 'triggerTermsVersion' : 1 }")
+    List<PatientNote> findTriggerTermsByPatId(int patId);
+
+    // Full-text search on the note text index, ranked when the pageable sorts on score
+    Page<PatientNote> findAllBy(TextCriteria criteria, Pageable pageable);
+
+    // Full-text search limited to one patient
+    Page<PatientNote> findByPatId(Integer patId, TextCriteria criteria, Pageable pageable);
+
+    // Backed by a Mongo cursor, must be closed after use
+    Stream<PatientNote> streamAllByOrderByPatientNoteIdAsc();
+
 }
@@ -0,0 +1,60 @@
+package com.abernathy.patienthistory.repository;
+
+import com.abernathy.patienthistory.domain.PatientNote;
+import com.abernathy.patienthistory.domain.PatientNoteSummary;
+
+import java.util.List;
+import java.util.Map;
+
+public interface PatientNoteRepositoryCustom {
+
+    /**
+     * Inserts notes with a single unordered bulk write
+     * A failed note does not stop the others from being written
+     * Notes without an ID are assigned one before the write
+     *
+     * @param notes notes to insert
+     * @return Map of position in notes list to error message, for each note that failed
+     */
+    Map<Integer, String> insertUnordered(List<PatientNote> notes);
+
+    /**
+     * Stores trigger term counts on a note without touching its text or modification time
+     * Nothing is written if the note was modified after it was read
+     *
+     * @param note note with counts set, and lastModified as read
+     * @return true if the counts were stored
+     */
+    boolean updateTriggerTerms(PatientNote note);
+
+    /**
+     * Sets fields on a note and increments its version in a single findAndModify
+     * Nothing is written if no note has this ID, or the stored version differs from the one provided
+     *
+     * @param id      note ID
+     * @param version version the caller read, null to update whichever version is stored
+     * @param fields  field name to new value
+     * @return the note as it was before the update, null if nothing was written
+     */
+    PatientNote updateFields(String id, Long version, Map<String, Object> fields);
+
+    /**
+     * Gets one keyset page of note summaries in note ID order, without note bodies
+     *
+     * @param after         ID of last note on previous page, null for first page
+     * @param limit         maximum number of summaries
+     * @param previewLength maximum characters of note text in each preview
+     * @return List of PatientNoteSummary
+     */
+    List<PatientNoteSummary> findSummaries(String after, int limit, int previewLength);
+
+    /**
+     * Gets summaries of all notes for a patient, oldest first, without note bodies
+     *
+     * @param patId         Patient ID
+     * @param previewLength maximum characters of note text in each preview
+     * @return List of PatientNoteSummary
+     */
+    List<PatientNoteSummary> findSummariesByPatId(int patId, int previewLength);
+
+}
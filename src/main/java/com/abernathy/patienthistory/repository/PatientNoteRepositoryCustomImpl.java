@@ -0,0 +1,94 @@
+package com.abernathy.patienthistory.repository;
+
+import com.abernathy.patienthistory.domain.PatientNote;
+import com.abernathy.patienthistory.domain.PatientNoteSummary;
+import com.mongodb.bulk.BulkWriteError;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class PatientNoteRepositoryCustomImpl implements PatientNoteRepositoryCustom {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private NoteCompression noteCompression;
+
+    @Override
+    public Map<Integer, String> insertUnordered(List<PatientNote> notes) {
+        if (notes.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        Instant now = Instant.now();
+        for (PatientNote note : notes) {
+            // Assign IDs up front so they can be reported back, auditing does not see these as new
+            if (note.getPatientNoteId() == null) {
+                note.setPatientNoteId(new ObjectId().toHexString());
+            }
+            if (note.getCreatedAt() == null) {
+                note.setCreatedAt(now);
+            }
+            if (note.getVersion() == null) {
+                note.setVersion(0L);
+            }
+            note.setLastModified(now);
+        }
+
+        try {
+            mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, PatientNote.class)
+                    .insert(notes)
+                    .execute();
+            return Collections.emptyMap();
+        } catch (BulkOperationException e) {
+            Map<Integer, String> failures = new HashMap<>();
+            for (BulkWriteError error : e.getErrors()) {
+                failures.put(error.getIndex(), error.getMessage());
+            }
+            return failures;
+        }
+    }
+
+    @Override
+    public boolean updateTriggerTerms(PatientNote note) {
+        Query unchanged = new Query(Criteria.where("_id").is(note.getPatientNoteId())
+                .and("lastModified").is(note.getLastModified()));
+        Update counts = new Update()
+                .set("triggerTerms", note.getTriggerTerms())
+                .set("triggerTermsVersion", note.getTriggerTermsVersion());
+        return mongoTemplate.updateFirst(unchanged, counts, PatientNote.class).getModifiedCount() > 0;
+    }
+
+    @Override
+    public PatientNote updateFields(String id, Long version, Map<String, Object> fields) {
+        return mongoTemplate.findAndModify(NoteUpdates.byIdAndVersion(id, version), NoteUpdates.setFields(fields, noteCompression), PatientNote.class);
+    }
+
+    @Override
+    public List<PatientNoteSummary> findSummaries(String after, int limit, int previewLength) {
+        List<PatientNoteSummary> summaries = mongoTemplate.aggregate(
+                NoteSummaries.page(after, limit, previewLength), PatientNoteSummary.class).getMappedResults();
+        summaries.forEach(summary -> summary.truncate(previewLength));
+        return summaries;
+    }
+
+    @Override
+    public List<PatientNoteSummary> findSummariesByPatId(int patId, int previewLength) {
+        List<PatientNoteSummary> summaries = mongoTemplate.aggregate(
+                NoteSummaries.byPatId(patId, previewLength), PatientNoteSummary.class).getMappedResults();
+        summaries.forEach(summary -> summary.truncate(previewLength));
+        return summaries;
+    }
+
+}
@@ -0,0 +1,14 @@
+package com.abernathy.patienthistory.repository;
+
+import com.abernathy.patienthistory.domain.PatientTermProfile;
+import org.springframework.data.mongodb.repository.MongoRepository;
+import org.springframework.data.mongodb.repository.Query;
+
+import java.util.Optional;
+
+public interface PatientTermProfileRepository extends MongoRepository<PatientTermProfile, Integer>, PatientTermProfileRepositoryCustom {
+    // Totals only, without per note contributions, read by _id
+    @Query(value = "{ '_id' : ?0 }", fields = "{ 'notes' : 0 }")
+    Optional<PatientTermProfile> findTotalsByPatId(int patId);
+
+}
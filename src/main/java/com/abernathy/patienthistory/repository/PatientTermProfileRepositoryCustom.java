@@ -0,0 +1,53 @@
+package com.abernathy.patienthistory.repository;
+
+import java.util.Map;
+
+public interface PatientTermProfileRepositoryCustom {
+
+    /**
+     * Replaces one note's contribution to a patient's profile and adjusts the totals by the difference
+     * The contribution and totals are changed in one atomic update, so concurrent writes of the same note still add up
+     * Nothing is written if the patient has no profile, or one made with a different term list,
+     * as that profile is rebuilt from the notes when next read
+     *
+     * @param patId   Patient ID
+     * @param noteId  PatientNote ID
+     * @param counts  note's current term counts
+     * @param version TriggerTermMatcher version the counts were made with
+     * @return true if the profile was updated
+     */
+    boolean recordNote(int patId, String noteId, Map<String, Integer> counts, String version);
+
+    /**
+     * Adds one note's contribution to a patient's profile, unless the note is already part of it
+     * Used while building a profile from the notes, so counts recorded by a newer write of the note are kept
+     *
+     * @param patId   Patient ID
+     * @param noteId  PatientNote ID
+     * @param counts  note's term counts as read for the build
+     * @param version TriggerTermMatcher version the counts were made with
+     * @return true if the note was added
+     */
+    boolean addNoteIfAbsent(int patId, String noteId, Map<String, Integer> counts, String version);
+
+    /**
+     * Removes one note's contribution from a patient's profile, eg when the note moves to another patient
+     *
+     * @param patId   Patient ID
+     * @param noteId  PatientNote ID
+     * @param version TriggerTermMatcher version of the profile
+     * @return true if the note had contributed to the profile
+     */
+    boolean removeNote(int patId, String noteId, String version);
+
+    /**
+     * Creates an empty profile for a patient, or empties one made with a different term list
+     * A profile already made with this term list is left as it is, along with any notes recorded on it
+     *
+     * @param patId   Patient ID
+     * @param version TriggerTermMatcher version the profile will be counted with
+     * @return true if an empty profile was started, false if a current one already existed
+     */
+    boolean startProfile(int patId, String version);
+
+}
@@ -0,0 +1,109 @@
+package com.abernathy.patienthistory.repository;
+
+import com.abernathy.patienthistory.domain.PatientTermProfile;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+public class PatientTermProfileRepositoryCustomImpl implements PatientTermProfileRepositoryCustom {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Override
+    public boolean recordNote(int patId, String noteId, Map<String, Integer> counts, String version) {
+        return swapContribution(patId, noteId, counts, version, false);
+    }
+
+    @Override
+    public boolean addNoteIfAbsent(int patId, String noteId, Map<String, Integer> counts, String version) {
+        return swapContribution(patId, noteId, counts, version, true);
+    }
+
+    @Override
+    public boolean removeNote(int patId, String noteId, String version) {
+        return swapContribution(patId, noteId, null, version, false);
+    }
+
+    @Override
+    public boolean startProfile(int patId, String version) {
+        // Only matches a profile made with another term list, a current one makes the upsert a duplicate insert
+        Query outdated = new Query(Criteria.where("_id").is(patId).and("version").ne(version));
+        Update empty = new Update()
+                .set("terms", new HashMap<>())
+                .set("notes", new HashMap<>())
+                .set("noteCount", 0)
+                .set("version", version);
+        try {
+            mongoTemplate.upsert(outdated, empty, PatientTermProfile.class);
+            return true;
+        } catch (DuplicateKeyException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Replaces the note's contribution and adjusts the totals by the difference in one update,
+     * made only if the contribution is still the one read, and read again if another write changed it first
+     *
+     * @param counts      note's new counts, null to remove the note
+     * @param onlyIfAbsent true to leave a note already in the profile as it is
+     * @return true if the profile was updated, false if there is no current profile or nothing to change
+     */
+    private boolean swapContribution(int patId, String noteId, Map<String, Integer> counts, String version,
+                                     boolean onlyIfAbsent) {
+        String field = "notes." + noteId;
+        while (true) {
+            Query current = new Query(Criteria.where("_id").is(patId).and("version").is(version));
+            current.fields().include(field);
+            Document before = mongoTemplate.findOne(current, Document.class,
+                    mongoTemplate.getCollectionName(PatientTermProfile.class));
+            if (before == null) {
+                return false;
+            }
+            Document notes = before.get("notes", Document.class);
+            // Read as stored, so the field order matches when compared in the update's query
+            Document previous = notes == null ? null : notes.get(noteId, Document.class);
+            if ((previous == null && counts == null) || (previous != null && onlyIfAbsent)) {
+                return false;
+            }
+
+            Criteria contribution = previous == null ? Criteria.where(field).exists(false) : Criteria.where(field).is(previous);
+            Query unchanged = new Query(Criteria.where("_id").is(patId).and("version").is(version)).addCriteria(contribution);
+            Update swap = counts == null ? new Update().unset(field) : new Update().set(field, counts);
+            addDifference(swap, previous, counts);
+            if (mongoTemplate.updateFirst(unchanged, swap, PatientTermProfile.class).getMatchedCount() > 0) {
+                return true;
+            }
+        }
+    }
+
+    private static void addDifference(Update swap, Document previous, Map<String, Integer> counts) {
+        if (previous == null) {
+            swap.inc("noteCount", 1);
+        } else if (counts == null) {
+            swap.inc("noteCount", -1);
+        }
+        Set<String> terms = new HashSet<>(counts == null ? Set.of() : counts.keySet());
+        if (previous != null) {
+            terms.addAll(previous.keySet());
+        }
+        for (String term : terms) {
+            int before = previous == null ? 0 : ((Number) previous.getOrDefault(term, 0)).intValue();
+            int difference = (counts == null ? 0 : counts.getOrDefault(term, 0)) - before;
+            if (difference != 0) {
+                swap.inc("terms." + term, difference);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,30 @@
+package com.abernathy.patienthistory.repository;
+
+import com.abernathy.patienthistory.domain.PatientNote;
+import org.springframework.data.mongodb.repository.Query;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import reactor.core.publisher.Flux;
+
+import java.util.Collection;
+
+/**
+ * Non-blocking counterpart of PatientNoteRepository, used by the reactive profile
+ * Queries match PatientNoteRepository so both profiles use the same indexes
+ */
+public interface ReactivePatientNoteRepository extends ReactiveMongoRepository<PatientNote, String>, ReactivePatientNoteRepositoryCustom {
+    // Served by the (patId, createdAt) index, oldest note first
+    @Query(value = "{ 'patId' : ?0 }", sort = "{ 'createdAt' : 1 }")
+    Flux<PatientNote> findAllByPatId(int patId);
+
+    // Single $in query over the (patId, createdAt) index, grouped by patient, read from a Mongo cursor as the subscriber requests more
+    @Query(value = "{ 'patId' : { '$in' : ?0 } }", sort = "{ 'patId' : 1, 'createdAt' : 1 }")
+    Flux<PatientNote> findAllByPatIdIn(Collection<Integer> patIds);
+
+    // IDs, versions and modification times only, without note bodies, for conditional GET
+    @Query(value = "{ 'patId' : ?0 }", fields = "{ '_id' : 1, 'version' : 1, 'lastModified' : 1 }")
+    Flux<PatientNote> findVersionsByPatId(int patId);
+
+    // Read from a Mongo cursor as the subscriber requests more
+    Flux<PatientNote> streamAllByOrderByPatientNoteIdAsc();
+
+}
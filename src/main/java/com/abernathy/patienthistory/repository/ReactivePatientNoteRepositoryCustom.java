@@ -0,0 +1,42 @@
+package com.abernathy.patienthistory.repository;
+
+import com.abernathy.patienthistory.domain.PatientNote;
+import com.abernathy.patienthistory.domain.PatientNoteSummary;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+
+public interface ReactivePatientNoteRepositoryCustom {
+
+    /**
+     * Sets fields on a note and increments its version in a single findAndModify
+     * Nothing is written if no note has this ID, or the stored version differs from the one provided
+     *
+     * @param id      note ID
+     * @param version version the caller read, null to update whichever version is stored
+     * @param fields  field name to new value
+     * @return Mono of the note as it was before the update, empty if nothing was written
+     */
+    Mono<PatientNote> updateFields(String id, Long version, Map<String, Object> fields);
+
+    /**
+     * Gets one keyset page of note summaries in note ID order, without note bodies
+     *
+     * @param after         ID of last note on previous page, null for first page
+     * @param limit         maximum number of summaries
+     * @param previewLength maximum characters of note text in each preview
+     * @return Flux of PatientNoteSummary
+     */
+    Flux<PatientNoteSummary> findSummaries(String after, int limit, int previewLength);
+
+    /**
+     * Gets summaries of all notes for a patient, oldest first, without note bodies
+     *
+     * @param patId         Patient ID
+     * @param previewLength maximum characters of note text in each preview
+     * @return Flux of PatientNoteSummary
+     */
+    Flux<PatientNoteSummary> findSummariesByPatId(int patId, int previewLength);
+
+}
@@ -0,0 +1,37 @@
+package com.abernathy.patienthistory.repository;
+
+import com.abernathy.patienthistory.domain.PatientNote;
+import com.abernathy.patienthistory.domain.PatientNoteSummary;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Map;
+
+public class ReactivePatientNoteRepositoryCustomImpl implements ReactivePatientNoteRepositoryCustom {
+
+    @Autowired
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+
+    @Autowired
+    private NoteCompression noteCompression;
+
+    @Override
+    public Mono<PatientNote> updateFields(String id, Long version, Map<String, Object> fields) {
+        return reactiveMongoTemplate.findAndModify(NoteUpdates.byIdAndVersion(id, version), NoteUpdates.setFields(fields, noteCompression), PatientNote.class);
+    }
+
+    @Override
+    public Flux<PatientNoteSummary> findSummaries(String after, int limit, int previewLength) {
+        return reactiveMongoTemplate.aggregate(NoteSummaries.page(after, limit, previewLength), PatientNoteSummary.class)
+                .map(summary -> summary.truncate(previewLength));
+    }
+
+    @Override
+    public Flux<PatientNoteSummary> findSummariesByPatId(int patId, int previewLength) {
+        return reactiveMongoTemplate.aggregate(NoteSummaries.byPatId(patId, previewLength), PatientNoteSummary.class)
+                .map(summary -> summary.truncate(previewLength));
+    }
+
+}
@@ -0,0 +1,124 @@
+package com.abernathy.patienthistory.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.core.io.buffer.DataBufferUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Splits a bulk request body into one TokenBuffer per note, as the body arrives, with Jackson's non-blocking parser
+ * Accepts a JSON array or newline delimited JSON, like PatientNoteService.addBulkFromApi
+ * Only the note being read is held in memory, up to maxNoteBytes
+ *
+ * Not thread safe, one tokenizer is used for each request body
+ */
+class BulkNoteTokenizer {
+
+    private final JsonParser parser;
+
+    private final int maxNoteBytes;
+
+    private TokenBuffer tokenBuffer;
+
+    private int objectDepth;
+
+    private int arrayDepth;
+
+    // Offset in the body where the note being read starts
+    private long noteStart;
+
+    BulkNoteTokenizer(JsonFactory jsonFactory, int maxNoteBytes) throws IOException {
+        this.parser = jsonFactory.createNonBlockingByteArrayParser();
+        this.maxNoteBytes = maxNoteBytes;
+        this.tokenBuffer = new TokenBuffer(parser);
+    }
+
+    /**
+     * Method to read the next part of the body, releasing the buffer
+     *
+     * @param buffer next part of the request body
+     * @return notes completed by this part, in body order
+     * @throws IOException if the body is not valid JSON
+     * @throws DataBufferLimitException if a note is larger than maxNoteBytes
+     */
+    List<TokenBuffer> tokenize(DataBuffer buffer) throws IOException {
+        byte[] bytes = new byte[buffer.readableByteCount()];
+        buffer.read(bytes);
+        DataBufferUtils.release(buffer);
+        ((ByteArrayFeeder) parser.getNonBlockingInputFeeder()).feedInput(bytes, 0, bytes.length);
+        List<TokenBuffer> notes = parseTokens();
+        if (parser.currentLocation().getByteOffset() - noteStart > maxNoteBytes) {
+            throw new DataBufferLimitException("Note larger than " + maxNoteBytes + " bytes");
+        }
+        return notes;
+    }
+
+    /**
+     * Method to read what is left once the whole body has arrived
+     *
+     * @return notes completed by the end of the body
+     * @throws IOException if the body ends part way through a note
+     */
+    List<TokenBuffer> endOfInput() throws IOException {
+        ((ByteArrayFeeder) parser.getNonBlockingInputFeeder()).endOfInput();
+        List<TokenBuffer> notes = parseTokens();
+        if (objectDepth != 0 || arrayDepth != 0) {
+            throw new IOException("Body ends part way through a note");
+        }
+        return notes;
+    }
+
+    private List<TokenBuffer> parseTokens() throws IOException {
+        List<TokenBuffer> notes = Collections.emptyList();
+        JsonToken token;
+        while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+            updateDepth(token);
+            // The brackets of a top level array are not part of any note
+            boolean topLevelArrayToken = (token == JsonToken.START_ARRAY && arrayDepth == 1 && objectDepth == 0)
+                    || (token == JsonToken.END_ARRAY && arrayDepth == 0 && objectDepth == 0);
+            if (topLevelArrayToken) {
+                noteStart = parser.currentLocation().getByteOffset();
+                continue;
+            }
+            tokenBuffer.copyCurrentEvent(parser);
+            if ((token.isStructEnd() || token.isScalarValue()) && objectDepth == 0 && arrayDepth <= 1) {
+                if (notes.isEmpty()) {
+                    notes = new ArrayList<>();
+                }
+                notes.add(tokenBuffer);
+                tokenBuffer = new TokenBuffer(parser);
+                noteStart = parser.currentLocation().getByteOffset();
+            }
+        }
+        return notes;
+    }
+
+    private void updateDepth(JsonToken token) {
+        switch (token) {
+            case START_OBJECT:
+                objectDepth++;
+                break;
+            case END_OBJECT:
+                objectDepth--;
+                break;
+            case START_ARRAY:
+                arrayDepth++;
+                break;
+            case END_ARRAY:
+                arrayDepth--;
+                break;
+            default:
+                break;
+        }
+    }
+
+}
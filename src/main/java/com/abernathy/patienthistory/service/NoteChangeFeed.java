@@ -0,0 +1,233 @@
+package com.abernathy.patienthistory.service;
+
+import com.abernathy.patienthistory.domain.NoteChange;
+import com.abernathy.patienthistory.domain.PatientNote;
+import com.abernathy.patienthistory.repository.NoteCompression;
+import com.mongodb.client.model.changestream.ChangeStreamDocument;
+import com.mongodb.client.model.changestream.FullDocument;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+import org.bson.BsonDocument;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.task.SimpleAsyncTaskExecutor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.messaging.ChangeStreamRequest;
+import org.springframework.data.mongodb.core.messaging.DefaultMessageListenerContainer;
+import org.springframework.data.mongodb.core.messaging.Message;
+import org.springframework.data.mongodb.core.messaging.MessageListenerContainer;
+import org.springframework.data.mongodb.core.messaging.Subscription;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Server-Sent Events feed of PatientNote changes, read from a Mongo change stream on the patientNote collection
+ * Each event's id is the change stream resume token, so a client that reconnects with Last-Event-ID
+ * continues from the change after the last one it received
+ *
+ * With a Patient ID, changes are matched on the note as it is after the change, so a note moved to another patient
+ * is only reported to the new patient's feed, and deletes, which carry no note, only to feeds for all patients
+ * Updates which only change stored trigger term counts are not reported
+ *
+ * Each feed holds a thread, so at most patient.note.changes.max-subscribers are open at once, further clients get 503
+ *
+ * Change streams require Mongo to run as a replica set
+ */
+@Service
+@Profile("!reactive")
+public class NoteChangeFeed {
+
+    private static final Logger logger = LogManager.getLogger("NoteChangeFeed");
+
+    // Anything but an update whose changed fields all start with triggerTerms
+    private static final Document NOT_TRIGGER_TERMS_ONLY = new Document("$or", Arrays.asList(
+            new Document("operationType", new Document("$ne", "update")),
+            new Document("updateDescription.removedFields.0", new Document("$exists", true)),
+            new Document("$expr", new Document("$gt", Arrays.asList(
+                    new Document("$size", new Document("$filter", new Document("input",
+                            new Document("$objectToArray", "$updateDescription.updatedFields"))
+                            .append("cond", new Document("$ne", Arrays.asList(
+                                    new Document("$indexOfCP", Arrays.asList("$$this.k", "triggerTerms")), 0))))),
+                    0)))));
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private NoteCompression noteCompression;
+
+    @Value("${patient.note.changes.timeout-ms:300000}")
+    private long timeoutMs;
+
+    @Value("${patient.note.changes.max-subscribers:100}")
+    private int maxSubscribers;
+
+    @Value("${patient.execution.virtual-threads:false}")
+    private boolean virtualThreads;
+
+    private final AtomicInteger subscribers = new AtomicInteger();
+
+    private MessageListenerContainer container;
+
+    @PostConstruct
+    public void init() {
+        // Each subscription holds a thread blocked on its change stream cursor
+        SimpleAsyncTaskExecutor executor = new SimpleAsyncTaskExecutor("note-changes-");
+        if (virtualThreads) {
+            executor.setThreadFactory(Thread.ofVirtual().name("note-changes-", 1).factory());
+        }
+        container = new DefaultMessageListenerContainer(mongoTemplate, executor);
+        container.start();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        container.stop();
+    }
+
+    /**
+     * Method to open a change feed for one client
+     * The feed ends after patient.note.changes.timeout-ms, clients reconnect with Last-Event-ID to continue
+     *
+     * @param patId       Patient ID to limit changes to, null for all patients
+     * @param resumeAfter id of the last event received, null to start from now
+     * @return SseEmitter sending one NoteChange event per change
+     * @throws ResponseStatusException 503 if patient.note.changes.max-subscribers feeds are already open
+     */
+    public SseEmitter subscribe(Integer patId, String resumeAfter) {
+        if (subscribers.incrementAndGet() > maxSubscribers) {
+            subscribers.decrementAndGet();
+            throw new ResponseStatusException(HttpStatus.SERVICE_UNAVAILABLE, "Too many change feed subscribers");
+        }
+        SseEmitter emitter = new SseEmitter(timeoutMs);
+        AtomicReference<Subscription> subscription = new AtomicReference<>();
+        AtomicBoolean open = new AtomicBoolean(true);
+        // Runs once, whichever of completion, timeout, error or a failed send comes first
+        Runnable cancel = () -> {
+            if (open.compareAndSet(true, false)) {
+                if (subscription.get() != null) {
+                    container.remove(subscription.get());
+                }
+                subscribers.decrementAndGet();
+            }
+        };
+
+        ChangeStreamRequest.ChangeStreamRequestBuilder<PatientNote> request = ChangeStreamRequest.builder(
+                        (Message<ChangeStreamDocument<Document>, PatientNote> message) -> send(emitter, cancel, message))
+                .collection(mongoTemplate.getCollectionName(PatientNote.class))
+                .filter(changeFilter(patId))
+                .fullDocumentLookup(FullDocument.UPDATE_LOOKUP)
+                // Bounds how long a cancelled subscription keeps its cursor open
+                .maxAwaitTime(Duration.ofSeconds(1));
+        if (resumeAfter != null && !resumeAfter.isEmpty()) {
+            request.resumeAfter(resumeToken(resumeAfter));
+        }
+
+        try {
+            subscription.set(container.register(request.build(), PatientNote.class, error -> {
+                logger.warn("Note change feed failed: " + error.getMessage());
+                emitter.completeWithError(error);
+            }));
+        } catch (RuntimeException e) {
+            cancel.run();
+            throw e;
+        }
+        if (!open.get()) {
+            // A send failed before the subscription was known
+            container.remove(subscription.get());
+        }
+        emitter.onCompletion(cancel);
+        emitter.onTimeout(cancel);
+        emitter.onError(error -> cancel.run());
+        return emitter;
+    }
+
+    private void send(SseEmitter emitter, Runnable cancel,
+                      Message<ChangeStreamDocument<Document>, PatientNote> message) {
+        ChangeStreamDocument<Document> raw = message.getRaw();
+        PatientNote note = message.getBody();
+        if (note != null && raw.getFullDocument() != null) {
+            // Change stream messages are converted without entity callbacks
+            noteCompression.decompress(note, raw.getFullDocument());
+        }
+        NoteChange change = new NoteChange(raw.getOperationType().getValue(),
+                noteId(raw.getDocumentKey()), note);
+        try {
+            emitter.send(SseEmitter.event()
+                    .id(tokenId(raw.getResumeToken()))
+                    .name(change.getOperation())
+                    .data(change));
+        } catch (IOException | IllegalStateException e) {
+            // Client has gone away
+            cancel.run();
+        }
+    }
+
+    /**
+     * Method to build the change stream pipeline
+     * Updates are only matched if they change a field other than the stored trigger term counts,
+     * so counts backfilled by PatientNoteService are not sent as note updates
+     *
+     * @param patId Patient ID to limit changes to, null for all patients
+     * @return Aggregation matching note writes and deletes
+     */
+    public static Aggregation changeFilter(Integer patId) {
+        Criteria criteria = Criteria.where("operationType").in("insert", "update", "replace", "delete");
+        if (patId != null) {
+            criteria = criteria.and("fullDocument.patId").is(patId);
+        }
+        return Aggregation.newAggregation(Aggregation.match(criteria), context -> new Document("$match", NOT_TRIGGER_TERMS_ONLY));
+    }
+
+    /**
+     * Method to turn an event id back into a resume token
+     *
+     * @param id event id, as sent by tokenId
+     * @return resume token
+     */
+    public static BsonDocument resumeToken(String id) {
+        return new BsonDocument("_data", new BsonString(id));
+    }
+
+    /**
+     * Method to get the event id for a resume token
+     *
+     * @param resumeToken change stream resume token
+     * @return token's _data string
+     */
+    public static String tokenId(BsonValue resumeToken) {
+        return resumeToken.asDocument().getString("_data").getValue();
+    }
+
+    /**
+     * Method to get a note's ID from a change's document key
+     *
+     * @param documentKey change stream document key, may be null
+     * @return note ID, null if not known
+     */
+    public static String noteId(BsonDocument documentKey) {
+        if (documentKey == null || !documentKey.containsKey("_id")) {
+            return null;
+        }
+        BsonValue id = documentKey.get("_id");
+        return id.isObjectId() ? id.asObjectId().getValue().toHexString() : id.asString().getValue();
+    }
+
+}
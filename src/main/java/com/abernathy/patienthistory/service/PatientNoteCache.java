@@ -0,0 +1,173 @@
+package com.abernathy.patienthistory.service;
+
+import com.abernathy.patienthistory.domain.PatientNote;
+import com.abernathy.patienthistory.repository.PatientNoteRepository;
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.mongodb.ReadPreference;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Supplier;
+
+/**
+ * Bounded in-process cache of each patient's notes, in front of PatientNoteRepository.findAllByPatId
+ * Entries are evicted by size and age, and invalidated by PatientNoteService whenever a patient's notes are written
+ * Hit, miss and eviction counts are published as cache.* metrics with cache=patientNotesByPatId
+ *
+ * Notes are loaded on the calling thread outside of any cache lock, so a virtual thread waiting on Mongo
+ * does not pin its carrier thread, and concurrent misses for one patient still share a single load
+ *
+ * Loads are only cached while patient.note.read-preference reads from the primary, as a secondary may not
+ * have the client's latest write yet, and caching its copy would hide that write for ttl-seconds
+ */
+@Component
+public class PatientNoteCache {
+
+    public static final String CACHE_NAME = "patientNotesByPatId";
+
+    @Autowired
+    private PatientNoteRepository repository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${patient.note.cache.max-size:10000}")
+    private long maxSize;
+
+    @Value("${patient.note.cache.ttl-seconds:300}")
+    private long ttlSeconds;
+
+    @Value("${patient.note.read-preference:primary}")
+    private String readPreference;
+
+    private boolean primaryReads;
+
+    private AsyncCache<Integer, List<PatientNote>> cache;
+
+    @PostConstruct
+    public void init() {
+        cache = Caffeine.newBuilder()
+                .maximumSize(maxSize)
+                .expireAfterWrite(Duration.ofSeconds(ttlSeconds))
+                .recordStats()
+                .buildAsync();
+        primaryReads = readPreference == null || ReadPreference.primary().equals(ReadPreference.valueOf(readPreference));
+        CaffeineCacheMetrics.monitor(meterRegistry, cache.synchronous(), CACHE_NAME);
+    }
+
+    /**
+     * Method to get all notes for a patient, loaded from the repository on a miss
+     * Loaded from the repository every time while reads go to secondaries
+     *
+     * @param patId Patient ID
+     * @return unmodifiable List of PatientNotes for patient
+     */
+    public List<PatientNote> findAllByPatId(int patId) {
+        if (!primaryReads) {
+            return Collections.unmodifiableList(repository.findAllByPatId(patId));
+        }
+        CompletableFuture<List<PatientNote>> notes = cache.getIfPresent(patId);
+        if (notes == null) {
+            CompletableFuture<List<PatientNote>> loading = new CompletableFuture<>();
+            notes = cache.asMap().putIfAbsent(patId, loading);
+            if (notes == null) {
+                // This caller loads, others arriving meanwhile wait on the same future
+                // A failed load is dropped from the cache by Caffeine
+                notes = loading;
+                try {
+                    loading.complete(Collections.unmodifiableList(repository.findAllByPatId(patId)));
+                } catch (RuntimeException e) {
+                    loading.completeExceptionally(e);
+                }
+            }
+        }
+        try {
+            return notes.join();
+        } catch (CompletionException e) {
+            throw e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause() : e;
+        }
+    }
+
+    /**
+     * Method to get cached notes for a patient without loading them
+     * Used by the reactive profile, which loads on a miss without blocking
+     *
+     * @param patId Patient ID
+     * @return unmodifiable List of PatientNotes for patient, null if not cached
+     */
+    public List<PatientNote> getIfPresent(int patId) {
+        CompletableFuture<List<PatientNote>> notes = cache.getIfPresent(patId);
+        return notes == null || notes.isCompletedExceptionally() ? null : notes.getNow(null);
+    }
+
+    /**
+     * Method to get all notes for a patient without blocking, loaded with the provided loader on a miss
+     * Used by the reactive profile, concurrent misses share a single load as in findAllByPatId,
+     * and a load still running when the patient is invalidated is not cached
+     *
+     * @param patId  Patient ID
+     * @param loader starts the load of the patient's notes from the repository
+     * @return copy of the cached or loading future, so a caller cancelling it does not cancel the shared load
+     */
+    public CompletableFuture<List<PatientNote>> findAllByPatIdAsync(int patId, Supplier<CompletableFuture<List<PatientNote>>> loader) {
+        CompletableFuture<List<PatientNote>> notes = cache.getIfPresent(patId);
+        if (notes == null) {
+            CompletableFuture<List<PatientNote>> loading = new CompletableFuture<>();
+            notes = cache.asMap().putIfAbsent(patId, loading);
+            if (notes == null) {
+                notes = loading;
+                try {
+                    loader.get().whenComplete((loaded, e) -> {
+                        if (e != null) {
+                            loading.completeExceptionally(e);
+                        } else {
+                            loading.complete(Collections.unmodifiableList(loaded));
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    loading.completeExceptionally(e);
+                }
+            }
+        }
+        return notes.copy();
+    }
+
+    /**
+     * Method to drop cached notes for a patient, called after any write to their notes
+     *
+     * @param patId Patient ID, ignored if null
+     */
+    public void invalidate(Integer patId) {
+        if (patId != null) {
+            cache.synchronous().invalidate(patId);
+        }
+    }
+
+    /**
+     * Method to drop all cached notes
+     */
+    public void invalidateAll() {
+        cache.synchronous().invalidateAll();
+    }
+
+    /**
+     * Method to get hit, miss and eviction statistics
+     *
+     * @return CacheStats
+     */
+    public CacheStats stats() {
+        return cache.synchronous().stats();
+    }
+
+}
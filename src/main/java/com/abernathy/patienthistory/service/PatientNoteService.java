@@ -1,21 +1,60 @@
 package com.abernathy.patienthistory.service;
 
+import com.abernathy.patienthistory.domain.BulkItemResult;
+import com.abernathy.patienthistory.domain.BulkReport;
+import com.abernathy.patienthistory.domain.NoteSearchResult;
 import com.abernathy.patienthistory.domain.PatientNote;
-import com.abernathy.patienthistory.remote.PatientRemote;
+import com.abernathy.patienthistory.domain.PatientNoteGroup;
+import com.abernathy.patienthistory.domain.PatientNoteSummary;
+import com.abernathy.patienthistory.domain.PatientTermProfile;
+import com.abernathy.patienthistory.domain.TriggerTermCounts;
+import com.abernathy.patienthistory.remote.PatientRequestLookups;
 import com.abernathy.patienthistory.repository.PatientNoteRepository;
+import com.abernathy.patienthistory.repository.PatientTermProfileRepository;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.databind.JsonMappingException;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.query.TextCriteria;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Service;
 import org.springframework.ui.Model;
+import org.springframework.util.DigestUtils;
 import org.springframework.validation.BindingResult;
+import org.springframework.web.context.request.WebRequest;
 
+import javax.servlet.http.HttpServletResponse;
+import javax.validation.ConstraintViolation;
 import javax.validation.Valid;
+import javax.validation.Validator;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
 
 @Service
 public class PatientNoteService {
@@ -24,24 +63,75 @@ public class PatientNoteService {
     private PatientNoteRepository repository;
 
     @Autowired
-    private PatientRemote patientRemote;
+    private PatientRequestLookups patientRequestLookups;
+
+    @Autowired
+    private PatientNoteCache patientNoteCache;
+
+    @Autowired
+    private PatientTermProfileRepository termProfileRepository;
+
+    @Autowired
+    private TriggerTermMatcher triggerTermMatcher;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private Validator validator;
 
     @Value("${docker.patient.url}")
     private String urlPat;
 
+    @Value("${patient.note.list.max-page-size:100}")
+    private int maxPageSize;
+
+    @Value("${patient.note.list.preview-length:80}")
+    private int previewLength;
+
+    @Value("${patient.note.bulk.chunk-size:500}")
+    private int bulkChunkSize;
+
+    @Value("${patient.note.batch.max-patients:100}")
+    private int maxBatchPatients;
+
+    public static final String NDJSON = "application/x-ndjson";
+
+    static final String STALE_NOTE_MESSAGE = "Note was changed since this form was opened, reload to see the current note";
+
+    // A quoted phrase, or a single term
+    private static final Pattern SEARCH_TOKEN = Pattern.compile("\"([^\"]*)\"|(\\S+)");
+
     //Methods to serve Front End requests
 
     /**
      * Method to populate Model for frontend
-     * Obtains all elements of this type from repository and adds to model
+     * Obtains one page of elements of this type from repository and adds to model
+     * Pages are keyed on note ID, so each page is an index range scan regardless of collection size
+     * Only note summaries are loaded, note bodies are left in Mongo
      * Then returns redirect to list url
      *
+     * @param after ID of last note on previous page, null for first page
+     * @param size  number of notes per page
      * @param model Model object to hold data loaded from repo
      * @return redirect url String
      */
-    public String home(Model model)
+    public String home(String after, int size, Model model)
     {
-        model.addAttribute("patientNotes", repository.findAll());
+        int pageSize = Math.max(1, Math.min(size, maxPageSize));
+        // Fetch one extra note to find out if there is a following page
+        List<PatientNoteSummary> notes = repository.findSummaries(after, pageSize + 1, previewLength);
+
+        String nextCursor = null;
+        if (notes.size() > pageSize) {
+            notes = notes.subList(0, pageSize);
+            nextCursor = notes.get(pageSize - 1).getPatientNoteId();
+        }
+
+        model.addAttribute("patientNotes", notes);
+        model.addAttribute("after", after);
+        model.addAttribute("nextCursor", nextCursor);
+        model.addAttribute("pageSize", pageSize);
         model.addAttribute("urlPat", urlPat);
         return "patientNote/list";
     }
@@ -63,16 +153,23 @@ public class PatientNoteService {
     }
 
     /**
-     * Method to populate View Patient Note page
-     * Obtains PatientNote with specific ID from repository and adds to model
-     * Then returns redirect to view url
+     * Method to populate View All Patient Notes page
+     * Shows a preview of each note, summarised from cached notes if the patient's notes are cached,
+     * otherwise loaded as summaries without note bodies and not cached
      *
-     * @param id    id parameter of DomainElement
+     * @param id    Patient ID
      * @param model Model object to hold data loaded from repo
      * @return url String
      */
     public String viewByPatientId(int id, Model model) {
-        model.addAttribute("thisPatientNotes", repository.findAllByPatId(id));
+        List<PatientNote> cached = patientNoteCache.getIfPresent(id);
+        List<PatientNoteSummary> notes = new ArrayList<>();
+        if (cached != null) {
+            cached.forEach(note -> notes.add(PatientNoteSummary.of(note, previewLength)));
+        } else {
+            notes.addAll(repository.findSummariesByPatId(id, previewLength));
+        }
+        model.addAttribute("thisPatientNotes", notes);
         model.addAttribute("urlPat", urlPat);
         return "patientNote/viewall";
     }
@@ -84,17 +181,13 @@ public class PatientNoteService {
      * @return url String
      */
     public String addForm(PatientNote e, Model model) {
-        Map<Integer, String> patientIndex = patientRemote.getPatientIndex();
-        List<Integer> keys = new ArrayList<>();
-        keys.addAll(patientIndex.keySet());
-        model.addAttribute("keys", keys);
-        model.addAttribute("patIdAndName", patientRemote.getPatientIndex());
+        addPatientIndex(model);
         return "patientNote/add";
     }
 
     /**
      * Method to validate provided PatientNote
-     * Adds PatientNote to repository if valid & updates model
+     * Adds PatientNote to repository if valid, as a new note whatever ID or version was posted
      * Returns to form if any errors found
      *
      * @param e      PatientNote object to be added
@@ -104,18 +197,13 @@ public class PatientNoteService {
      */
     public String validate(@Valid PatientNote e, BindingResult result, Model model) {
         if (!result.hasErrors()) {
-            System.out.println("Errors found: " + result.toString());
-            repository.save(e);
-            model.addAttribute("PatientNotes", repository.findAll());
-            model.addAttribute("urlPat", urlPat);
+            repository.save(asNewNote(e));
+            patientNoteCache.invalidate(e.getPatId());
+            recordTermProfile(null, e);
             return "redirect:/patient/note/list";
         }
 
-        Map<Integer, String> patientIndex = patientRemote.getPatientIndex();
-        List<Integer> keys = new ArrayList<>();
-        keys.addAll(patientIndex.keySet());
-        model.addAttribute("keys", keys);
-        model.addAttribute("patIdAndName", patientRemote.getPatientIndex());
+        addPatientIndex(model);
         return "patientNote/add";
     }
 
@@ -137,8 +225,8 @@ public class PatientNoteService {
 
     /**
      * Method to validate provided PatientNote
-     * Updates existing note in repo if valid & updates model
-     * Returns to update form if not valid
+     * Updates existing note in repo if valid
+     * Returns to update form if not valid, or if the note was changed since the form was opened
      *
      * @param id PatientNote's ID value
      * @param e PatientNote with updated fields
@@ -153,89 +241,492 @@ public class PatientNoteService {
         }
 
         e.setId(id);
-        repository.save(e);
-        model.addAttribute("patientNotes", repository.findAll());
-        model.addAttribute("urlPat", urlPat);
+        if (writeUpdate(id, e) == null) {
+            if (!repository.existsById(id)) {
+                throw new IllegalArgumentException("Invalid PatientNote id:" + id);
+            }
+            result.reject("version", STALE_NOTE_MESSAGE);
+            return "patientNote/update";
+        }
         return "redirect:/patient/note/list";
     }
 
+    /**
+     * Method to add patient index to model for add note form
+     * Index is looked up once per request
+     *
+     * @param model Model object
+     */
+    private void addPatientIndex(Model model) {
+        Map<Integer, String> patientIndex = patientRequestLookups.getPatientIndex();
+        List<Integer> keys = new ArrayList<>();
+        keys.addAll(patientIndex.keySet());
+        model.addAttribute("keys", keys);
+        model.addAttribute("patIdAndName", patientIndex);
+    }
+
     //Methods to serve REST API requests
 
     /**
      * Method to generate ResponseEntity for PatientNote get requests received via API
+     * ETag and Last-Modified are set so conditional requests for an unchanged note get a 304 without a body
      *
      * @param id    id parameter of PatientNote
      * @return ResponseEntity JSON of requested PatientNote and 200 if valid, 404 if invalid
      */
-    public ResponseEntity<String> getFromApi(String id) {
+    public ResponseEntity<Object> getFromApi(String id) {
         try {
             PatientNote e = repository.findById(id).orElseThrow(() -> new IllegalArgumentException("Invalid PatientNote Id:" + id));
-            return new ResponseEntity<String>(e.toString(), new HttpHeaders(), HttpStatus.OK);
+            // Spring answers 304 from these headers without writing the body
+            return new ResponseEntity<Object>(e, versionHeaders(e), HttpStatus.OK);
         } catch (IllegalArgumentException e) {
-            return new ResponseEntity<String>("Id " + id + " not found", new HttpHeaders(), HttpStatus.NOT_FOUND);
+            return new ResponseEntity<Object>("Id " + id + " not found", new HttpHeaders(), HttpStatus.NOT_FOUND);
         }
     }
 
     /**
      * Method to generate ResponseEntity for PatientNote get requests received via API
+     * Conditional requests are checked against note IDs and versions only,
+     * so a 304 is returned without loading any note bodies
+     * If-Modified-Since alone is not answered with a 304, see versionHeaders
      *
-     * @param patId Patient ID
-     * @return ResponseEntity JSON of PatientNotes for requested Patient ID and 200 if valid, 404 if no note found
+     * @param patId   Patient ID
+     * @param request WebRequest carrying any If-None-Match header
+     * @return ResponseEntity JSON of PatientNotes for requested Patient ID and 200 if valid, 304 if unchanged, 404 if no note found
      */
-    public ResponseEntity<String> getFromApiByPatientId(int patId) {
-        List<PatientNote> notes = repository.findAllByPatId(patId);
+    public ResponseEntity<Object> getFromApiByPatientId(int patId, WebRequest request) {
+        if (request.getHeader(HttpHeaders.IF_NONE_MATCH) != null) {
+            List<PatientNote> versions = repository.findVersionsByPatId(patId);
+            if (versions.isEmpty()) {
+                return new ResponseEntity<Object>("Patient " + patId + " has no notes", new HttpHeaders(), HttpStatus.NOT_FOUND);
+            }
+            if (request.checkNotModified(notesETag(versions))) {
+                // Client copy is current
+                return new ResponseEntity<Object>(versionHeaders(versions), HttpStatus.NOT_MODIFIED);
+            }
+        }
+        List<PatientNote> notes = patientNoteCache.findAllByPatId(patId);
         if (notes.size() > 0) {
             // Notes found for provided patient ID
-            return new ResponseEntity<String>(notes.toString(), new HttpHeaders(), HttpStatus.OK);
+            return new ResponseEntity<Object>(notes, versionHeaders(notes), HttpStatus.OK);
         }
         else {
             // No notes for this patient in database
-            return new ResponseEntity<String>("Patient " + patId + " has no notes", new HttpHeaders(), HttpStatus.NOT_FOUND);
+            return new ResponseEntity<Object>("Patient " + patId + " has no notes", new HttpHeaders(), HttpStatus.NOT_FOUND);
         }
     }
 
+    /**
+     * Method to generate ResponseEntity for full-text note search requests received via API
+     * Quoted text in the query is matched as a phrase, other words as terms
+     * Mongo requires every phrase to match and at least one term to match, ignoring case and diacritics
+     * Hits are ranked by text score
+     *
+     * @param query search text
+     * @param patId Patient ID to limit the search to, null to search all notes
+     * @param page  zero based page number
+     * @param size  number of hits per page
+     * @return ResponseEntity JSON of NoteSearchResult and 200 if valid, 400 if query is empty or page is negative
+     */
+    public ResponseEntity<Object> searchFromApi(String query, Integer patId, int page, int size) {
+        TextCriteria criteria = query == null ? null : textCriteria(query);
+        if (criteria == null || page < 0) {
+            return new ResponseEntity<Object>("Search query must contain a term or phrase", new HttpHeaders(), HttpStatus.BAD_REQUEST);
+        }
+        int pageSize = Math.max(1, Math.min(size, maxPageSize));
+        // Sorting on the @TextScore property sorts on { $meta : "textScore" }
+        Pageable pageable = PageRequest.of(page, pageSize, Sort.by("score"));
+        Page<PatientNote> hits = patId == null
+                ? repository.findAllBy(criteria, pageable)
+                : repository.findByPatId(patId, criteria, pageable);
+        NoteSearchResult result = new NoteSearchResult(query, patId, page, pageSize,
+                hits.getTotalElements(), hits.getContent());
+        return new ResponseEntity<Object>(result, new HttpHeaders(), HttpStatus.OK);
+    }
+
+    /**
+     * Method to build TextCriteria from search text
+     *
+     * @param query search text, with phrases in double quotes
+     * @return TextCriteria, null if query has no term or phrase
+     */
+    static TextCriteria textCriteria(String query) {
+        TextCriteria criteria = TextCriteria.forDefaultLanguage();
+        boolean empty = true;
+        Matcher matcher = SEARCH_TOKEN.matcher(query);
+        while (matcher.find()) {
+            if (matcher.group(2) != null) {
+                criteria.matching(matcher.group(2));
+                empty = false;
+            } else if (!matcher.group(1).trim().isEmpty()) {
+                criteria.matchingPhrase(matcher.group(1).trim());
+                empty = false;
+            }
+        }
+        return empty ? null : criteria;
+    }
+
+    /**
+     * Method to build ETag and Last-Modified headers for a single PatientNote
+     *
+     * @param note PatientNote, only ID, version and lastModified are read
+     * @return HttpHeaders with ETag, and Last-Modified when known
+     */
+    static HttpHeaders versionHeaders(PatientNote note) {
+        HttpHeaders headers = versionHeaders(Collections.singletonList(note));
+        if (note.getLastModified() != null) {
+            headers.setLastModified(note.getLastModified());
+        }
+        return headers;
+    }
+
+    /**
+     * Method to build the ETag header for a set of PatientNotes
+     * No Last-Modified is sent, so If-Modified-Since is never answered with a 304 for the set,
+     * as a note moved to another patient or deleted does not make the remaining notes any later
+     *
+     * @param notes PatientNotes, only ID, version and lastModified are read
+     * @return HttpHeaders with ETag
+     */
+    static HttpHeaders versionHeaders(List<PatientNote> notes) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setETag(notesETag(notes));
+        return headers;
+    }
+
+    /**
+     * Method to compute an ETag from note IDs and versions
+     * The version is incremented on every write, so two writes in the same millisecond, or from app nodes with
+     * skewed clocks, still give different tags. Notes saved before versioning fall back to their modification time
+     * Entries are sorted by ID first so the tag does not depend on query order
+     * The tag is weak, as the same notes are sent as JSON or CBOR, gzipped or not, and Tomcat does not compress
+     * responses with a strong ETag
+     *
+     * @param notes PatientNotes, only ID, version and lastModified are read
+     * @return quoted weak ETag value
+     */
+    static String notesETag(List<PatientNote> notes) {
+        List<String> versions = new ArrayList<>(notes.size());
+        for (PatientNote note : notes) {
+            if (note.getVersion() != null) {
+                versions.add(note.getPatientNoteId() + ":" + note.getVersion());
+            } else {
+                long modified = note.getLastModified() == null ? 0 : note.getLastModified().toEpochMilli();
+                versions.add(note.getPatientNoteId() + ":m" + modified);
+            }
+        }
+        Collections.sort(versions);
+        return "W/\"" + DigestUtils.md5DigestAsHex(String.join(";", versions).getBytes(StandardCharsets.UTF_8)) + "\"";
+    }
+
     /**
      * Method to validate provided PatientNote received via API post request
      * Adds PatientNote to repository if valid & updates model
+     * Any ID or version sent is ignored, changes to existing notes go through updateFromApi
      *
      * @param e      PatientNote object to be added
      * @param result BindingResult for validation
      * @return ResponseEntity JSON of added PatientNote and 201 if valid, 400 if invalid
      */
-    public ResponseEntity<String> addFromApi(PatientNote e, BindingResult result) {
+    public ResponseEntity<Object> addFromApi(PatientNote e, BindingResult result) {
         if (!result.hasErrors()) {
-            repository.save(e);
-            return new ResponseEntity<String>(e.toString(), new HttpHeaders(), HttpStatus.CREATED);
+            repository.save(asNewNote(e));
+            patientNoteCache.invalidate(e.getPatId());
+            recordTermProfile(null, e);
+            return new ResponseEntity<Object>(e, new HttpHeaders(), HttpStatus.CREATED);
         }
 
-        return new ResponseEntity<String>("Failed to add new entry", new HttpHeaders(), HttpStatus.BAD_REQUEST);
+        return new ResponseEntity<Object>("Failed to add new entry", new HttpHeaders(), HttpStatus.BAD_REQUEST);
+    }
+
+    /**
+     * Method to clear the ID and version a client may send with a note to be added
+     * Otherwise a version would make the save a replace of an existing note, skipping the checks made on update,
+     * and an ID alone would fail as a duplicate key
+     *
+     * @param e PatientNote received to be added
+     * @return the same PatientNote, without ID or version
+     */
+    static PatientNote asNewNote(PatientNote e) {
+        e.setPatientNoteId(null);
+        e.setVersion(null);
+        return e;
     }
 
     /**
      * Method to validate provided PatientNote received via put request
-     * Updates existing note in repo if valid & updates model
+     * Updates existing note in repo if valid, in a single findAndModify
+     * If the note carries a version, it is only updated if that is still the stored version
      *
      * @param e PatientNote with updated fields
      * @param result BindingResult for validation
      * @return ResponseEntity JSON of updated element and 200 if valid,
      *         ResponseEntity JSON of requested update and 400 if invalid,
      *         ResponseEntity JSON of requested update and 404 if ID not found in database,
+     *         ResponseEntity JSON of requested update and 409 if note was changed since provided version
      */
-    public ResponseEntity<String> updateFromApi(PatientNote e,
-                                                BindingResult result) {
+    public ResponseEntity<PatientNote> updateFromApi(PatientNote e,
+                                                     BindingResult result) {
         if (result.hasErrors()) {
-            return new ResponseEntity<String>(e.toString(), new HttpHeaders(), HttpStatus.BAD_REQUEST);
+            return new ResponseEntity<PatientNote>(e, new HttpHeaders(), HttpStatus.BAD_REQUEST);
+        }
+        if (e.getId() == null) {
+            return new ResponseEntity<PatientNote>(e, new HttpHeaders(), HttpStatus.NOT_FOUND);
         }
 
-        try {
-            repository.findById(e.getId()).orElseThrow(() -> new IllegalArgumentException("Invalid PatientNote Id:" + e.getId()));
+        PatientNote updated = writeUpdate(e.getId(), e);
+        if (updated == null) {
+            return notUpdated(e.getId(), e);
+        }
+        return new ResponseEntity<PatientNote>(updated, new HttpHeaders(), HttpStatus.OK);
+    }
+
+    /**
+     * Method to apply a partial update received via patch request
+     * Only the fields present in the request are written, in a single findAndModify
+     * If the request carries a version, the note is only updated if that is still the stored version
+     *
+     * @param id    PatientNote's ID value
+     * @param patch PatientNote with the fields to change set, others null
+     * @return ResponseEntity JSON of updated element and 200 if valid,
+     *         ResponseEntity JSON of requested update and 400 if it changes nothing or is invalid,
+     *         ResponseEntity JSON of requested update and 404 if ID not found in database,
+     *         ResponseEntity JSON of requested update and 409 if note was changed since provided version
+     */
+    public ResponseEntity<PatientNote> patchFromApi(String id, PatientNote patch) {
+        if (!isValidPatch(patch)) {
+            return new ResponseEntity<PatientNote>(patch, new HttpHeaders(), HttpStatus.BAD_REQUEST);
         }
-        catch (IllegalArgumentException error) {
-            return new ResponseEntity<String>(e.toString(), new HttpHeaders(), HttpStatus.NOT_FOUND);
+
+        PatientNote updated = writeUpdate(id, patch);
+        if (updated == null) {
+            return notUpdated(id, patch);
         }
+        return new ResponseEntity<PatientNote>(updated, new HttpHeaders(), HttpStatus.OK);
+    }
 
-        repository.save(e);
-        return new ResponseEntity<String>(e.toString(), new HttpHeaders(), HttpStatus.OK);
+    /**
+     * Method to write an update and keep caches and the term profile in step
+     *
+     * @param id      PatientNote's ID value
+     * @param changes PatientNote with the fields to change set
+     * @return PatientNote as stored after the update, null if nothing was written
+     */
+    private PatientNote writeUpdate(String id, PatientNote changes) {
+        Instant now = Instant.now();
+        PatientNote previous = repository.updateFields(id, changes.getVersion(), updateFields(changes, now));
+        if (previous == null) {
+            return null;
+        }
+        PatientNote updated = updatedNote(previous, changes, now);
+        // Note may have moved to another patient
+        patientNoteCache.invalidate(previous.getPatId());
+        patientNoteCache.invalidate(updated.getPatId());
+        recordTermProfile(previous.getPatId(), updated);
+        return updated;
+    }
+
+    private ResponseEntity<PatientNote> notUpdated(String id, PatientNote e) {
+        // Only looked up when nothing was written, to tell a changed note from a missing one
+        HttpStatus status = repository.existsById(id) ? HttpStatus.CONFLICT : HttpStatus.NOT_FOUND;
+        return new ResponseEntity<PatientNote>(e, new HttpHeaders(), status);
+    }
+
+    /**
+     * Method to check a partial update sets at least one field, and that any note text it sets is valid
+     *
+     * @param patch PatientNote with the fields to change set, others null
+     * @return true if valid
+     */
+    public boolean isValidPatch(PatientNote patch) {
+        if (patch.getPatId() == null && patch.getNote() == null) {
+            return false;
+        }
+        return patch.getNote() == null || validator.validateProperty(patch, "note").isEmpty();
+    }
+
+    /**
+     * Method to list the fields an update writes
+     * Each field set on changes, trigger term counts when the note text changes, and the modification time
+     *
+     * @param changes PatientNote with the fields to change set
+     * @param now     modification time
+     * @return Map of field name to new value
+     */
+    public Map<String, Object> updateFields(PatientNote changes, Instant now) {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        if (changes.getPatId() != null) {
+            fields.put("patId", changes.getPatId());
+        }
+        if (changes.getNote() != null) {
+            // findAndModify does not run entity callbacks, so counts are set here
+            TriggerTermCallback.apply(triggerTermMatcher, changes);
+            fields.put("note", changes.getNote());
+            fields.put("triggerTerms", changes.getTriggerTerms());
+            fields.put("triggerTermsVersion", changes.getTriggerTermsVersion());
+        }
+        if (changes.getCreatedAt() != null) {
+            fields.put("createdAt", changes.getCreatedAt());
+        }
+        fields.put("lastModified", now);
+        return fields;
+    }
+
+    /**
+     * Method to build a note as stored after an update, from the note before it and the fields changed
+     *
+     * @param previous PatientNote as it was before the update
+     * @param changes  PatientNote with the fields changed set, as passed to updateFields
+     * @param now      modification time
+     * @return PatientNote after the update
+     */
+    static PatientNote updatedNote(PatientNote previous, PatientNote changes, Instant now) {
+        PatientNote updated = new PatientNote();
+        updated.setPatientNoteId(previous.getPatientNoteId());
+        updated.setPatId(changes.getPatId() != null ? changes.getPatId() : previous.getPatId());
+        PatientNote text = changes.getNote() != null ? changes : previous;
+        updated.setNote(text.getNote());
+        updated.setTriggerTerms(text.getTriggerTerms());
+        updated.setTriggerTermsVersion(text.getTriggerTermsVersion());
+        updated.setCreatedAt(changes.getCreatedAt() != null ? changes.getCreatedAt() : previous.getCreatedAt());
+        updated.setLastModified(now);
+        updated.setVersion(previous.getVersion() == null ? 1 : previous.getVersion() + 1);
+        return updated;
+    }
+
+    /**
+     * Method to export all PatientNotes as newline delimited JSON
+     * Notes are written to the response as they are read from the Mongo cursor,
+     * so memory use does not grow with the size of the collection
+     *
+     * @param response HttpServletResponse to write notes to
+     * @throws IOException if response cannot be written
+     */
+    public void exportFromApi(HttpServletResponse response) throws IOException {
+        response.setContentType(NDJSON);
+        ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        try (Stream<PatientNote> notes = repository.streamAllByOrderByPatientNoteIdAsc();
+             JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+            Iterator<PatientNote> iterator = notes.iterator();
+            while (iterator.hasNext()) {
+                writer.writeValue(generator, iterator.next());
+                generator.writeRaw('\n');
+            }
+        }
+    }
+
+    /**
+     * Method to add PatientNotes received in bulk via API post request
+     * Accepts a JSON array or newline delimited JSON, read one note at a time
+     * Each note is validated, valid notes are written with unordered bulk inserts of up to bulkChunkSize notes
+     *
+     * @param input request body
+     * @return ResponseEntity JSON report with a result for each note received and 200
+     * @throws IOException if request body cannot be read
+     */
+    public ResponseEntity<BulkReport> addBulkFromApi(InputStream input) throws IOException {
+        BulkReport report = new BulkReport();
+        List<PatientNote> chunk = new ArrayList<>();
+        List<BulkItemResult> chunkResults = new ArrayList<>();
+
+        try (MappingIterator<PatientNote> notes = objectMapper.readerFor(PatientNote.class).readValues(input)) {
+            int index = 0;
+            while (true) {
+                BulkItemResult item = new BulkItemResult(index++);
+                PatientNote note;
+                try {
+                    if (!notes.hasNextValue()) {
+                        break;
+                    }
+                    note = notes.nextValue();
+                } catch (JsonParseException e) {
+                    // Cannot find the start of the next note, stop reading
+                    rejectBulkItem(report, item, "Malformed JSON: " + e.getOriginalMessage());
+                    break;
+                } catch (JsonMappingException e) {
+                    rejectBulkItem(report, item, "Invalid note: " + e.getOriginalMessage());
+                    continue;
+                }
+
+                if (!acceptBulkNote(report, item, note)) {
+                    continue;
+                }
+                chunk.add(note);
+                chunkResults.add(item);
+                if (chunk.size() >= bulkChunkSize) {
+                    writeBulkChunk(report, chunk, chunkResults);
+                    chunk = new ArrayList<>();
+                    chunkResults = new ArrayList<>();
+                }
+            }
+        }
+        writeBulkChunk(report, chunk, chunkResults);
+
+        return new ResponseEntity<BulkReport>(report, new HttpHeaders(), HttpStatus.OK);
+    }
+
+    /**
+     * Method to validate one note received in bulk, reporting it as received
+     * Invalid notes are also reported as complete, with their constraint violations
+     *
+     * @param report BulkReport for the request
+     * @param item   BulkItemResult for this note
+     * @param note   PatientNote read from the request
+     * @return true if the note is valid and should be written
+     */
+    boolean acceptBulkNote(BulkReport report, BulkItemResult item, PatientNote note) {
+        asNewNote(note);
+        Set<ConstraintViolation<PatientNote>> violations = validator.validate(note);
+        if (!violations.isEmpty()) {
+            List<String> errors = new ArrayList<>();
+            for (ConstraintViolation<PatientNote> violation : violations) {
+                errors.add(violation.getPropertyPath() + ": " + violation.getMessage());
+            }
+            item.setStatus(BulkItemResult.INVALID);
+            item.setErrors(errors);
+            report.receive(item);
+            report.complete(item);
+            return false;
+        }
+        report.receive(item);
+        return true;
+    }
+
+    void rejectBulkItem(BulkReport report, BulkItemResult item, String error) {
+        item.setStatus(BulkItemResult.INVALID);
+        item.setErrors(Collections.singletonList(error));
+        report.receive(item);
+        report.complete(item);
+    }
+
+    /**
+     * Method to write one chunk of valid bulk notes with an unordered bulk insert, then report each as created or failed
+     *
+     * @param report       BulkReport for the request
+     * @param chunk        valid PatientNotes
+     * @param chunkResults BulkItemResult for each note, in the same order
+     */
+    void writeBulkChunk(BulkReport report, List<PatientNote> chunk, List<BulkItemResult> chunkResults) {
+        if (chunk.isEmpty()) {
+            return;
+        }
+        Map<Integer, String> failures = repository.insertUnordered(chunk);
+        for (PatientNote note : chunk) {
+            patientNoteCache.invalidate(note.getPatId());
+        }
+        for (int i = 0; i < chunk.size(); i++) {
+            BulkItemResult item = chunkResults.get(i);
+            if (failures.containsKey(i)) {
+                item.setStatus(BulkItemResult.FAILED);
+                item.setErrors(Collections.singletonList(failures.get(i)));
+            }
+            else {
+                item.setStatus(BulkItemResult.CREATED);
+                item.setPatientNoteId(chunk.get(i).getPatientNoteId());
+                recordTermProfile(null, chunk.get(i));
+            }
+            report.complete(item);
+        }
     }
 
     //Methods to serve RETROFIT API requests
@@ -247,7 +738,167 @@ public class PatientNoteService {
      * @return List<PatientNote> of PatientNotes for requested Patient ID
      */
     public List<PatientNote> getFromApiByPatientIdRetro(int patId) {
-        return repository.findAllByPatId(patId);
+        return patientNoteCache.findAllByPatId(patId);
+    }
+
+    /**
+     * Method to write all PatientNotes for a batch of patients as newline delimited JSON
+     * Notes are read with a single $in query sorted by patient, and each PatientNoteGroup is written
+     * as soon as that patient's notes have been read. Patients with no notes follow with an empty list
+     *
+     * Returns:
+     * HttpStatus.BAD_REQUEST if no patient IDs are given, or more than patient.note.batch.max-patients
+     *
+     * @param patIds   Patient IDs
+     * @param response HttpServletResponse to write groups to
+     * @throws IOException if response cannot be written
+     */
+    public void getFromApiByPatientIdsRetro(List<Integer> patIds, HttpServletResponse response) throws IOException {
+        Set<Integer> requested = batchPatientIds(patIds, maxBatchPatients);
+        if (requested == null) {
+            response.sendError(HttpServletResponse.SC_BAD_REQUEST,
+                    "Between 1 and " + maxBatchPatients + " patient IDs must be provided");
+            return;
+        }
+
+        response.setContentType(NDJSON);
+        ObjectWriter writer = objectMapper.writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+        Set<Integer> remaining = new TreeSet<>(requested);
+        try (Stream<PatientNote> notes = repository.streamAllByPatIdIn(requested);
+             JsonGenerator generator = objectMapper.getFactory().createGenerator(response.getOutputStream())) {
+            List<PatientNote> group = new ArrayList<>();
+            Iterator<PatientNote> iterator = notes.iterator();
+            while (iterator.hasNext()) {
+                PatientNote note = iterator.next();
+                if (!group.isEmpty() && !group.get(0).getPatId().equals(note.getPatId())) {
+                    writeNoteGroup(writer, generator, group.get(0).getPatId(), group, remaining);
+                    group = new ArrayList<>();
+                }
+                group.add(note);
+            }
+            if (!group.isEmpty()) {
+                writeNoteGroup(writer, generator, group.get(0).getPatId(), group, remaining);
+            }
+            for (Integer patId : new ArrayList<>(remaining)) {
+                writeNoteGroup(writer, generator, patId, Collections.emptyList(), remaining);
+            }
+        }
+    }
+
+    private void writeNoteGroup(ObjectWriter writer, JsonGenerator generator, int patId, List<PatientNote> notes,
+                                Set<Integer> remaining) throws IOException {
+        writer.writeValue(generator, new PatientNoteGroup(patId, notes));
+        generator.writeRaw('\n');
+        remaining.remove(patId);
+    }
+
+    /**
+     * Method to check the patient IDs of a batch fetch
+     *
+     * @param patIds requested Patient IDs, may contain duplicates
+     * @param max    most distinct IDs allowed
+     * @return distinct IDs in ascending order, null if there are none or more than max
+     */
+    static Set<Integer> batchPatientIds(List<Integer> patIds, int max) {
+        if (patIds == null) {
+            return null;
+        }
+        Set<Integer> requested = new TreeSet<>();
+        patIds.stream().filter(Objects::nonNull).forEach(requested::add);
+        return requested.isEmpty() || requested.size() > max ? null : requested;
+    }
+
+    /**
+     * Method to total trigger term counts across a patient's notes
+     * Totals are read from the patient's PatientTermProfile, a single document fetch by ID
+     * A missing profile, or one counted with a different term list, is rebuilt from the notes first
+     *
+     * @param patId Patient ID
+     * @return TriggerTermCounts for requested Patient ID, with no notes if patient has none
+     */
+    public TriggerTermCounts getTriggerTermCountsRetro(int patId) {
+        PatientTermProfile profile = termProfileRepository.findTotalsByPatId(patId).orElse(null);
+        if (profile == null || !triggerTermMatcher.getVersion().equals(profile.getVersion())) {
+            profile = rebuildTermProfile(patId);
+        }
+
+        Map<String, Integer> totals = new LinkedHashMap<>();
+        for (String term : triggerTermMatcher.getTerms()) {
+            totals.put(term, 0);
+        }
+        if (profile.getTerms() != null) {
+            profile.getTerms().forEach((term, count) -> totals.computeIfPresent(term, (t, total) -> total + count));
+        }
+        return new TriggerTermCounts(patId, profile.getNoteCount(), totals);
+    }
+
+    /**
+     * Method to build a patient's PatientTermProfile from the counts stored on their notes
+     * Notes written before counting was added, or counted with a different term list, are counted again and stored
+     * An empty profile is started before the notes are read, and each note only added if not yet recorded,
+     * so writes made while the profile is built are kept rather than overwritten
+     *
+     * @param patId Patient ID
+     * @return PatientTermProfile
+     */
+    private PatientTermProfile rebuildTermProfile(int patId) {
+        String version = triggerTermMatcher.getVersion();
+        termProfileRepository.startProfile(patId, version);
+
+        List<PatientNote> notes = repository.findTriggerTermsByPatId(patId);
+        List<String> stale = new ArrayList<>();
+        List<PatientNote> counted = new ArrayList<>();
+        for (PatientNote note : notes) {
+            if (version.equals(note.getTriggerTermsVersion())) {
+                counted.add(note);
+            } else {
+                stale.add(note.getPatientNoteId());
+            }
+        }
+        if (!stale.isEmpty()) {
+            for (PatientNote note : repository.findAllById(stale)) {
+                TriggerTermCallback.apply(triggerTermMatcher, note);
+                repository.updateTriggerTerms(note);
+                counted.add(note);
+            }
+        }
+
+        Map<String, Integer> totals = new HashMap<>();
+        for (PatientNote note : counted) {
+            Map<String, Integer> counts = note.getTriggerTerms() == null ? Collections.emptyMap() : note.getTriggerTerms();
+            termProfileRepository.addNoteIfAbsent(patId, note.getPatientNoteId(), counts, version);
+            counts.forEach((term, count) -> totals.merge(term, count, Integer::sum));
+        }
+        return termProfileRepository.findTotalsByPatId(patId)
+                .filter(profile -> version.equals(profile.getVersion()))
+                .orElseGet(() -> {
+                    // Profile replaced by another term list meanwhile, answer from the notes as read
+                    PatientTermProfile profile = new PatientTermProfile();
+                    profile.setPatId(patId);
+                    profile.setTerms(totals);
+                    profile.setNoteCount(counted.size());
+                    profile.setVersion(version);
+                    return profile;
+                });
+    }
+
+    /**
+     * Method to update the patient's PatientTermProfile after a note is written
+     * The note's previous contribution is subtracted and its current counts added
+     *
+     * @param previousPatId Patient ID the note belonged to before this write, null if new or unknown
+     * @param note          PatientNote as saved, with trigger term counts set
+     */
+    public void recordTermProfile(Integer previousPatId, PatientNote note) {
+        if (note.getPatientNoteId() == null || note.getPatId() == null) {
+            return;
+        }
+        String version = triggerTermMatcher.getVersion();
+        if (previousPatId != null && !previousPatId.equals(note.getPatId())) {
+            termProfileRepository.removeNote(previousPatId, note.getPatientNoteId(), version);
+        }
+        Map<String, Integer> counts = note.getTriggerTerms() == null ? Collections.emptyMap() : note.getTriggerTerms();
+        termProfileRepository.recordNote(note.getPatId(), note.getPatientNoteId(), counts, version);
     }
 
 }
@@ -0,0 +1,587 @@
+package com.abernathy.patienthistory.service;
+
+import com.abernathy.patienthistory.domain.BulkItemResult;
+import com.abernathy.patienthistory.domain.BulkReport;
+import com.abernathy.patienthistory.domain.NoteChange;
+import com.abernathy.patienthistory.domain.PatientNote;
+import com.abernathy.patienthistory.domain.PatientNoteGroup;
+import com.abernathy.patienthistory.domain.PatientNoteSummary;
+import com.abernathy.patienthistory.domain.TriggerTermCounts;
+import com.abernathy.patienthistory.remote.ReactivePatientRemote;
+import com.abernathy.patienthistory.repository.ReactivePatientNoteRepository;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+import com.mongodb.client.model.changestream.FullDocument;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.data.mongodb.core.ChangeStreamEvent;
+import org.springframework.data.mongodb.core.ChangeStreamOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Service;
+import org.springframework.ui.Model;
+import org.springframework.validation.BindingResult;
+import org.springframework.web.bind.support.WebExchangeBindException;
+import org.springframework.web.server.ServerWebExchange;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.function.Tuple2;
+import reactor.util.function.Tuples;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * Non-blocking counterpart of PatientNoteService, used by the reactive profile
+ * Responses match PatientNoteService so both profiles serve the same contract
+ */
+@Service
+@Profile("reactive")
+public class ReactivePatientNoteService {
+
+    @Autowired
+    private ReactivePatientNoteRepository repository;
+
+    @Autowired
+    private ReactivePatientRemote patientRemote;
+
+    @Autowired
+    private PatientNoteCache patientNoteCache;
+
+    @Autowired
+    private PatientNoteService patientNoteService;
+
+    @Autowired
+    private ReactiveMongoTemplate reactiveMongoTemplate;
+
+    @Value("${docker.patient.url}")
+    private String urlPat;
+
+    @Value("${patient.note.list.max-page-size:100}")
+    private int maxPageSize;
+
+    @Value("${patient.note.list.preview-length:80}")
+    private int previewLength;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${patient.note.bulk.chunk-size:500}")
+    private int bulkChunkSize;
+
+    @Value("${patient.note.bulk.max-note-bytes:1048576}")
+    private int bulkMaxNoteBytes;
+
+    @Value("${patient.note.batch.max-patients:100}")
+    private int maxBatchPatients;
+
+    //Methods to serve Front End requests
+
+    /**
+     * Method to populate Model for frontend
+     * Obtains one page of elements of this type from repository and adds to model
+     * Pages are keyed on note ID, so each page is an index range scan regardless of collection size
+     * Only note summaries are loaded, note bodies are left in Mongo
+     *
+     * @param after ID of last note on previous page, null for first page
+     * @param size  number of notes per page
+     * @param model Model object to hold data loaded from repo
+     * @return Mono of url String
+     */
+    public Mono<String> home(String after, int size, Model model) {
+        int pageSize = Math.max(1, Math.min(size, maxPageSize));
+        // Fetch one extra note to find out if there is a following page
+        return repository.findSummaries(after, pageSize + 1, previewLength).collectList().map(notes -> {
+            String nextCursor = null;
+            if (notes.size() > pageSize) {
+                notes = notes.subList(0, pageSize);
+                nextCursor = notes.get(pageSize - 1).getPatientNoteId();
+            }
+
+            model.addAttribute("patientNotes", notes);
+            model.addAttribute("after", after);
+            model.addAttribute("nextCursor", nextCursor);
+            model.addAttribute("pageSize", pageSize);
+            model.addAttribute("urlPat", urlPat);
+            return "patientNote/list";
+        });
+    }
+
+    /**
+     * Method to populate View Patient Note page
+     *
+     * @param id    id parameter of DomainElement
+     * @param model Model object to hold data loaded from repo
+     * @return Mono of url String, error if note does not exist
+     */
+    public Mono<String> view(String id, Model model) {
+        return findById(id).map(e -> {
+            model.addAttribute("currentPatientNote", e);
+            model.addAttribute("urlPat", urlPat);
+            return "patientNote/view";
+        });
+    }
+
+    /**
+     * Method to populate View All Patient Notes page
+     * Shows a preview of each note, summarised from cached notes if the patient's notes are cached,
+     * otherwise loaded as summaries without note bodies and not cached
+     *
+     * @param id    Patient ID
+     * @param model Model object to hold data loaded from repo
+     * @return Mono of url String
+     */
+    public Mono<String> viewByPatientId(int id, Model model) {
+        Mono<List<PatientNoteSummary>> summaries = Mono.defer(() -> {
+            List<PatientNote> cached = patientNoteCache.getIfPresent(id);
+            if (cached != null) {
+                return Flux.fromIterable(cached).map(note -> PatientNoteSummary.of(note, previewLength)).collectList();
+            }
+            return repository.findSummariesByPatId(id, previewLength).collectList();
+        });
+        return summaries.map(notes -> {
+            model.addAttribute("thisPatientNotes", notes);
+            model.addAttribute("urlPat", urlPat);
+            return "patientNote/viewall";
+        });
+    }
+
+    /**
+     * Method to get redirect for form to add a new element
+     *
+     * @param e PatientNote object of type to be added
+     * @param model Model object
+     * @return Mono of url String
+     */
+    public Mono<String> addForm(PatientNote e, Model model) {
+        return addPatientIndex(model).thenReturn("patientNote/add");
+    }
+
+    /**
+     * Method to validate provided PatientNote
+     * Adds PatientNote to repository if valid
+     * Returns to form if any errors found
+     *
+     * @param e      PatientNote object to be added
+     * @param result BindingResult for validation
+     * @param model  Model object
+     * @return Mono of url String
+     */
+    public Mono<String> validate(PatientNote e, BindingResult result, Model model) {
+        if (!result.hasErrors()) {
+            return repository.save(PatientNoteService.asNewNote(e))
+                    .doOnNext(saved -> patientNoteCache.invalidate(saved.getPatId()))
+                    .flatMap(saved -> recordTermProfile(null, saved))
+                    .thenReturn("redirect:/patient/note/list");
+        }
+
+        return addPatientIndex(model).thenReturn("patientNote/add");
+    }
+
+    /**
+     * Method to get redirect for form to update existing PatientNote
+     *
+     * @param id PatientNote's ID value
+     * @param model Model object
+     * @return Mono of url string, error if note does not exist
+     */
+    public Mono<String> showUpdateForm(String id, Model model) {
+        return findById(id).map(e -> {
+            model.addAttribute("patientNote", e);
+            model.addAttribute("urlPat", urlPat);
+            return "patientNote/update";
+        });
+    }
+
+    /**
+     * Method to validate provided PatientNote
+     * Updates existing note in repo if valid
+     * Returns to update form if not valid
+     *
+     * @param id PatientNote's ID value
+     * @param e PatientNote with updated fields
+     * @param result BindingResult for validation
+     * @param model Model object
+     * @return Mono of url string
+     */
+    public Mono<String> update(String id, PatientNote e, BindingResult result, Model model) {
+        if (result.hasErrors()) {
+            return Mono.just("patientNote/update");
+        }
+
+        e.setId(id);
+        return writeUpdate(id, e)
+                .thenReturn("redirect:/patient/note/list")
+                .switchIfEmpty(Mono.defer(() -> repository.existsById(id).map(exists -> {
+                    if (!exists) {
+                        throw new IllegalArgumentException("Invalid PatientNote id:" + id);
+                    }
+                    result.reject("version", PatientNoteService.STALE_NOTE_MESSAGE);
+                    return "patientNote/update";
+                })));
+    }
+
+    /**
+     * Method to write an update in a single findAndModify and keep caches and the term profile in step
+     *
+     * @param id      PatientNote's ID value
+     * @param changes PatientNote with the fields to change set
+     * @return Mono of PatientNote as stored after the update, empty if nothing was written
+     */
+    private Mono<PatientNote> writeUpdate(String id, PatientNote changes) {
+        Instant now = Instant.now();
+        return repository.updateFields(id, changes.getVersion(), patientNoteService.updateFields(changes, now))
+                .flatMap(previous -> {
+                    PatientNote updated = PatientNoteService.updatedNote(previous, changes, now);
+                    // Note may have moved to another patient
+                    patientNoteCache.invalidate(previous.getPatId());
+                    patientNoteCache.invalidate(updated.getPatId());
+                    return recordTermProfile(previous.getPatId(), updated);
+                });
+    }
+
+    private Mono<ResponseEntity<PatientNote>> notUpdated(String id, PatientNote e) {
+        // Only looked up when nothing was written, to tell a changed note from a missing one
+        return repository.existsById(id).map(exists ->
+                new ResponseEntity<PatientNote>(e, new HttpHeaders(), exists ? HttpStatus.CONFLICT : HttpStatus.NOT_FOUND));
+    }
+
+    /**
+     * Method to update the patient's PatientTermProfile after a note is written
+     * Runs through PatientNoteService on the bounded elastic scheduler
+     *
+     * @param previousPatId Patient ID the note belonged to before this write, null if new or unknown
+     * @param saved         PatientNote as saved
+     * @return Mono of the saved PatientNote once the profile is updated
+     */
+    private Mono<PatientNote> recordTermProfile(Integer previousPatId, PatientNote saved) {
+        return Mono.fromRunnable(() -> patientNoteService.recordTermProfile(previousPatId, saved))
+                .subscribeOn(Schedulers.boundedElastic())
+                .thenReturn(saved);
+    }
+
+    private Mono<Void> addPatientIndex(Model model) {
+        return patientRemote.getPatientIndex().doOnNext(patientIndex -> {
+            List<Integer> keys = new ArrayList<>(patientIndex.keySet());
+            model.addAttribute("keys", keys);
+            model.addAttribute("patIdAndName", patientIndex);
+        }).then();
+    }
+
+    private Mono<PatientNote> findById(String id) {
+        return repository.findById(id)
+                .switchIfEmpty(Mono.error(() -> new IllegalArgumentException("Invalid PatientNote Id:" + id)));
+    }
+
+    private Mono<List<PatientNote>> findAllByPatId(int patId) {
+        // Supplied so the cache is only read, and the query only started, when subscribed
+        return Mono.fromFuture(() -> patientNoteCache.findAllByPatIdAsync(patId,
+                () -> repository.findAllByPatId(patId).collectList().toFuture()));
+    }
+
+    //Methods to serve REST API requests
+
+    /**
+     * Method to generate ResponseEntity for PatientNote get requests received via API
+     * ETag and Last-Modified are set so conditional requests for an unchanged note get a 304 without a body
+     *
+     * @param id    id parameter of PatientNote
+     * @return Mono of ResponseEntity JSON of requested PatientNote and 200 if valid, 404 if invalid
+     */
+    public Mono<ResponseEntity<Object>> getFromApi(String id) {
+        return repository.findById(id)
+                .map(e -> new ResponseEntity<Object>(e,
+                        PatientNoteService.versionHeaders(e), HttpStatus.OK))
+                .defaultIfEmpty(new ResponseEntity<Object>("Id " + id + " not found", new HttpHeaders(), HttpStatus.NOT_FOUND));
+    }
+
+    /**
+     * Method to generate ResponseEntity for PatientNote get requests received via API
+     * Conditional requests are checked against note IDs and versions only,
+     * so a 304 is returned without loading any note bodies
+     * If-Modified-Since alone is not answered with a 304, see PatientNoteService.versionHeaders
+     *
+     * @param patId    Patient ID
+     * @param exchange ServerWebExchange carrying any If-None-Match header
+     * @return Mono of ResponseEntity JSON of PatientNotes for requested Patient ID and 200 if valid, 304 if unchanged, 404 if no note found
+     */
+    public Mono<ResponseEntity<Object>> getFromApiByPatientId(int patId, ServerWebExchange exchange) {
+        Mono<ResponseEntity<Object>> notesResponse = findAllByPatId(patId).map(notes -> notes.isEmpty()
+                ? notFound(patId)
+                : new ResponseEntity<Object>(notes, PatientNoteService.versionHeaders(notes), HttpStatus.OK));
+
+        HttpHeaders requestHeaders = exchange.getRequest().getHeaders();
+        if (requestHeaders.getIfNoneMatch().isEmpty()) {
+            return notesResponse;
+        }
+        return repository.findVersionsByPatId(patId).collectList().flatMap(versions -> {
+            if (versions.isEmpty()) {
+                return Mono.just(notFound(patId));
+            }
+            if (exchange.checkNotModified(PatientNoteService.notesETag(versions))) {
+                // Client copy is current
+                return Mono.just(new ResponseEntity<Object>(PatientNoteService.versionHeaders(versions), HttpStatus.NOT_MODIFIED));
+            }
+            return notesResponse;
+        });
+    }
+
+    private ResponseEntity<Object> notFound(int patId) {
+        return new ResponseEntity<Object>("Patient " + patId + " has no notes", new HttpHeaders(), HttpStatus.NOT_FOUND);
+    }
+
+    /**
+     * Method to validate provided PatientNote received via API post request
+     * Adds PatientNote to repository if valid, ignoring any ID or version sent
+     *
+     * @param body PatientNote to be added, errors with WebExchangeBindException if invalid
+     * @return Mono of ResponseEntity JSON of added PatientNote and 201 if valid, 400 if invalid
+     */
+    public Mono<ResponseEntity<Object>> addFromApi(Mono<PatientNote> body) {
+        return body.map(PatientNoteService::asNewNote)
+                .flatMap(repository::save)
+                .doOnNext(e -> patientNoteCache.invalidate(e.getPatId()))
+                .flatMap(e -> recordTermProfile(null, e))
+                .map(e -> new ResponseEntity<Object>(e, new HttpHeaders(), HttpStatus.CREATED))
+                .onErrorResume(WebExchangeBindException.class, error -> Mono.just(
+                        new ResponseEntity<Object>("Failed to add new entry", new HttpHeaders(), HttpStatus.BAD_REQUEST)));
+    }
+
+    /**
+     * Method to validate provided PatientNote received via put request
+     * Updates existing note in repo if valid, in a single findAndModify
+     * If the note carries a version, it is only updated if that is still the stored version
+     *
+     * @param body PatientNote with updated fields, errors with WebExchangeBindException if invalid
+     * @return Mono of ResponseEntity JSON of updated element and 200 if valid,
+     *         ResponseEntity JSON of requested update and 400 if invalid,
+     *         ResponseEntity JSON of requested update and 404 if ID not found in database,
+     *         ResponseEntity JSON of requested update and 409 if note was changed since provided version
+     */
+    public Mono<ResponseEntity<PatientNote>> updateFromApi(Mono<PatientNote> body) {
+        return body.flatMap(e -> {
+            if (e.getId() == null) {
+                return Mono.just(new ResponseEntity<PatientNote>(e, new HttpHeaders(), HttpStatus.NOT_FOUND));
+            }
+            return writeUpdate(e.getId(), e)
+                    .map(updated -> new ResponseEntity<PatientNote>(updated, new HttpHeaders(), HttpStatus.OK))
+                    .switchIfEmpty(Mono.defer(() -> notUpdated(e.getId(), e)));
+        }).onErrorResume(WebExchangeBindException.class, error -> Mono.just(
+                new ResponseEntity<PatientNote>((PatientNote) error.getTarget(), new HttpHeaders(), HttpStatus.BAD_REQUEST)));
+    }
+
+    /**
+     * Method to apply a partial update received via patch request
+     * Only the fields present in the request are written, in a single findAndModify
+     *
+     * @param id   PatientNote's ID value
+     * @param body PatientNote with the fields to change set, others null
+     * @return Mono of ResponseEntity JSON of updated element and 200 if valid,
+     *         ResponseEntity JSON of requested update and 400 if it changes nothing or is invalid,
+     *         ResponseEntity JSON of requested update and 404 if ID not found in database,
+     *         ResponseEntity JSON of requested update and 409 if note was changed since provided version
+     */
+    public Mono<ResponseEntity<PatientNote>> patchFromApi(String id, Mono<PatientNote> body) {
+        return body.flatMap(patch -> {
+            if (!patientNoteService.isValidPatch(patch)) {
+                return Mono.just(new ResponseEntity<PatientNote>(patch, new HttpHeaders(), HttpStatus.BAD_REQUEST));
+            }
+            return writeUpdate(id, patch)
+                    .map(updated -> new ResponseEntity<PatientNote>(updated, new HttpHeaders(), HttpStatus.OK))
+                    .switchIfEmpty(Mono.defer(() -> notUpdated(id, patch)));
+        });
+    }
+
+    /**
+     * Method to export all PatientNotes
+     * Notes are read from the Mongo cursor as the client consumes them
+     *
+     * @return Flux of all PatientNotes in ID order
+     */
+    public Flux<PatientNote> exportFromApi() {
+        return repository.streamAllByOrderByPatientNoteIdAsc();
+    }
+
+    /**
+     * Method to follow PatientNote changes from a Mongo change stream on the patientNote collection
+     * Each event's id is the change stream resume token, so a client that reconnects with Last-Event-ID
+     * continues from the change after the last one it received
+     *
+     * @param patId       Patient ID to limit changes to, null for all patients
+     * @param resumeAfter id of the last event received, null to start from now
+     * @return Flux of ServerSentEvent of NoteChange, ending when the client disconnects
+     */
+    public Flux<ServerSentEvent<NoteChange>> changesFromApi(Integer patId, String resumeAfter) {
+        ChangeStreamOptions.ChangeStreamOptionsBuilder options = ChangeStreamOptions.builder()
+                .filter(NoteChangeFeed.changeFilter(patId))
+                .fullDocumentLookup(FullDocument.UPDATE_LOOKUP);
+        if (resumeAfter != null && !resumeAfter.isEmpty()) {
+            options.resumeAfter(NoteChangeFeed.resumeToken(resumeAfter));
+        }
+        return reactiveMongoTemplate.changeStream(reactiveMongoTemplate.getCollectionName(PatientNote.class),
+                        options.build(), PatientNote.class)
+                .map(this::noteChangeEvent);
+    }
+
+    private ServerSentEvent<NoteChange> noteChangeEvent(ChangeStreamEvent<PatientNote> event) {
+        NoteChange change = new NoteChange(event.getOperationType().getValue(),
+                NoteChangeFeed.noteId(event.getRaw().getDocumentKey()), event.getBody());
+        return ServerSentEvent.builder(change)
+                .id(NoteChangeFeed.tokenId(event.getResumeToken()))
+                .event(change.getOperation())
+                .build();
+    }
+
+    /**
+     * Method to add PatientNotes received in bulk via API post request
+     * Accepts a JSON array or newline delimited JSON, split into notes by BulkNoteTokenizer as the body arrives,
+     * so only the note being read and the current chunk are held in memory
+     * Notes are read and validated on the event loop, then each chunk of valid notes is written by PatientNoteService
+     * on the bounded elastic scheduler, so bulk inserts, term profiles and reporting match the servlet profile
+     *
+     * @param body request body
+     * @return Mono of ResponseEntity JSON report with a result for each note received and 200
+     */
+    public Mono<ResponseEntity<BulkReport>> addBulkFromApi(Flux<DataBuffer> body) {
+        return Mono.defer(() -> {
+            BulkReport report = new BulkReport();
+            AtomicInteger index = new AtomicInteger();
+            ObjectReader reader = objectMapper.readerFor(PatientNote.class);
+            BulkNoteTokenizer tokenizer;
+            try {
+                tokenizer = new BulkNoteTokenizer(objectMapper.getFactory(), bulkMaxNoteBytes);
+            } catch (IOException e) {
+                return Mono.error(e);
+            }
+
+            Flux<TokenBuffer> notes = Flux.concat(
+                            body.doOnDiscard(DataBuffer.class, DataBufferUtils::release)
+                                    .concatMap(buffer -> Mono.fromCallable(() -> tokenizer.tokenize(buffer))),
+                            Mono.fromCallable(tokenizer::endOfInput))
+                    .concatMapIterable(Function.identity())
+                    .onErrorResume(e -> {
+                        // Cannot find the start of the next note, stop reading
+                        patientNoteService.rejectBulkItem(report, new BulkItemResult(index.getAndIncrement()),
+                                e instanceof DataBufferLimitException ? e.getMessage() : "Malformed JSON: " + errorMessage(e));
+                        return Flux.empty();
+                    });
+
+            return notes
+                    .<Tuple2<PatientNote, BulkItemResult>>handle((tokens, sink) -> {
+                        BulkItemResult item = new BulkItemResult(index.getAndIncrement());
+                        PatientNote note;
+                        try {
+                            note = reader.readValue(tokens.asParser());
+                        } catch (IOException e) {
+                            patientNoteService.rejectBulkItem(report, item, "Invalid note: " + errorMessage(e));
+                            return;
+                        }
+                        if (patientNoteService.acceptBulkNote(report, item, note)) {
+                            sink.next(Tuples.of(note, item));
+                        }
+                    })
+                    .buffer(bulkChunkSize)
+                    .concatMap(chunk -> Mono.fromRunnable(() -> {
+                        List<PatientNote> chunkNotes = new ArrayList<>(chunk.size());
+                        List<BulkItemResult> chunkResults = new ArrayList<>(chunk.size());
+                        for (Tuple2<PatientNote, BulkItemResult> entry : chunk) {
+                            chunkNotes.add(entry.getT1());
+                            chunkResults.add(entry.getT2());
+                        }
+                        patientNoteService.writeBulkChunk(report, chunkNotes, chunkResults);
+                    }).subscribeOn(Schedulers.boundedElastic()))
+                    .then(Mono.fromCallable(() -> new ResponseEntity<BulkReport>(report, new HttpHeaders(), HttpStatus.OK)));
+        });
+    }
+
+    private static String errorMessage(Throwable e) {
+        return e instanceof JsonProcessingException ? ((JsonProcessingException) e).getOriginalMessage() : e.getMessage();
+    }
+
+    /**
+     * Method to search PatientNotes by text via API
+     * The search and count run through PatientNoteService on the bounded elastic scheduler,
+     * so phrase handling, ranking and paging match the servlet profile
+     *
+     * @param query search text
+     * @param patId Patient ID to limit the search to, null to search all notes
+     * @param page  zero based page number
+     * @param size  number of hits per page
+     * @return Mono of ResponseEntity JSON of NoteSearchResult and 200 if valid, 400 if query is empty or page is negative
+     */
+    public Mono<ResponseEntity<Object>> searchFromApi(String query, Integer patId, int page, int size) {
+        return Mono.fromCallable(() -> patientNoteService.searchFromApi(query, patId, page, size))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    //Methods to serve RETROFIT API requests
+
+    /**
+     * Method to get all PatientNotes for a patient
+     *
+     * @param patId Patient ID
+     * @return Mono of List of PatientNotes for requested Patient ID
+     */
+    public Mono<List<PatientNote>> getFromApiByPatientIdRetro(int patId) {
+        return findAllByPatId(patId);
+    }
+
+    /**
+     * Method to get all PatientNotes for a batch of patients
+     * Notes are read with a single $in query sorted by patient, and grouped as they arrive
+     * Patients with no notes follow with an empty list
+     *
+     * @param patIds Patient IDs
+     * @return ResponseEntity of Flux of PatientNoteGroup, one per patient, and 200 if valid,
+     *         400 if no patient IDs are given, or more than patient.note.batch.max-patients
+     */
+    public ResponseEntity<Flux<PatientNoteGroup>> getFromApiByPatientIdsRetro(List<Integer> patIds) {
+        Set<Integer> requested = PatientNoteService.batchPatientIds(patIds, maxBatchPatients);
+        if (requested == null) {
+            return new ResponseEntity<Flux<PatientNoteGroup>>(new HttpHeaders(), HttpStatus.BAD_REQUEST);
+        }
+        // Deferred so each subscription tracks its own remaining patients
+        Flux<PatientNoteGroup> groups = Flux.defer(() -> {
+            Set<Integer> remaining = new TreeSet<>(requested);
+            return repository.findAllByPatIdIn(requested)
+                    .bufferUntilChanged(PatientNote::getPatId)
+                    .map(notes -> {
+                        remaining.remove(notes.get(0).getPatId());
+                        return new PatientNoteGroup(notes.get(0).getPatId(), notes);
+                    })
+                    .concatWith(Flux.defer(() -> Flux.fromIterable(remaining)
+                            .map(patId -> new PatientNoteGroup(patId, Collections.<PatientNote>emptyList()))));
+        });
+        return new ResponseEntity<Flux<PatientNoteGroup>>(groups, new HttpHeaders(), HttpStatus.OK);
+    }
+
+    /**
+     * Method to total trigger term counts across a patient's notes
+     * Runs through PatientNoteService on the bounded elastic scheduler, so totals come from the same PatientTermProfile
+     *
+     * @param patId Patient ID
+     * @return Mono of TriggerTermCounts for requested Patient ID
+     */
+    public Mono<TriggerTermCounts> getTriggerTermCountsRetro(int patId) {
+        return Mono.fromCallable(() -> patientNoteService.getTriggerTermCountsRetro(patId))
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+}
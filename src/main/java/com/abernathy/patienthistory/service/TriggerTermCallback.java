@@ -0,0 +1,36 @@
+package com.abernathy.patienthistory.service;
+
+import com.abernathy.patienthistory.domain.PatientNote;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.mapping.event.BeforeConvertCallback;
+import org.springframework.stereotype.Component;
+
+/**
+ * Stores trigger term counts on each PatientNote as it is written, so counts are only recomputed when a note changes
+ * Runs for repository saves and bulk inserts alike
+ */
+@Component
+public class TriggerTermCallback implements BeforeConvertCallback<PatientNote> {
+
+    @Autowired
+    private TriggerTermMatcher triggerTermMatcher;
+
+    @Override
+    public PatientNote onBeforeConvert(PatientNote note, String collection) {
+        return apply(triggerTermMatcher, note);
+    }
+
+    /**
+     * Method to set a note's trigger term counts from its current text
+     *
+     * @param matcher TriggerTermMatcher
+     * @param note    PatientNote to update
+     * @return the same PatientNote
+     */
+    public static PatientNote apply(TriggerTermMatcher matcher, PatientNote note) {
+        note.setTriggerTerms(matcher.count(note.getNote()));
+        note.setTriggerTermsVersion(matcher.getVersion());
+        return note;
+    }
+
+}
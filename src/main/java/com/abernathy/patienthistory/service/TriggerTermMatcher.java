@@ -0,0 +1,154 @@
+package com.abernathy.patienthistory.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.util.DigestUtils;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.text.Normalizer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.regex.Pattern;
+
+/**
+ * Counts diabetes risk trigger terms in note text
+ * Terms from patient.note.trigger-terms are compiled once into an Aho-Corasick automaton,
+ * so a note is scanned in a single pass however many terms there are
+ * Matching ignores case, accents and repeated whitespace, and like the assessment service counts terms found inside longer words
+ */
+@Component
+public class TriggerTermMatcher {
+
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    @Value("${patient.note.trigger-terms}")
+    private List<String> terms;
+
+    private String version;
+
+    // Automaton states: transitions, failure links, and indexes of the terms ending at each state
+    private List<Map<Character, Integer>> transitions;
+    private int[] failure;
+    private int[][] matches;
+
+    @PostConstruct
+    public void init() {
+        List<Map<Character, Integer>> next = new ArrayList<>();
+        List<List<Integer>> ends = new ArrayList<>();
+        next.add(new HashMap<>());
+        ends.add(new ArrayList<>());
+        List<String> normalized = new ArrayList<>();
+        for (int t = 0; t < terms.size(); t++) {
+            String term = normalize(terms.get(t));
+            normalized.add(term);
+            int state = 0;
+            for (int i = 0; i < term.length(); i++) {
+                Integer target = next.get(state).get(term.charAt(i));
+                if (target == null) {
+                    target = next.size();
+                    next.get(state).put(term.charAt(i), target);
+                    next.add(new HashMap<>());
+                    ends.add(new ArrayList<>());
+                }
+                state = target;
+            }
+            ends.get(state).add(t);
+        }
+
+        // Breadth first, so each failure link points at a state that is already complete
+        int[] fail = new int[next.size()];
+        Queue<Integer> queue = new ArrayDeque<>(next.get(0).values());
+        while (!queue.isEmpty()) {
+            int state = queue.remove();
+            for (Map.Entry<Character, Integer> edge : next.get(state).entrySet()) {
+                int target = edge.getValue();
+                int f = fail[state];
+                while (f > 0 && !next.get(f).containsKey(edge.getKey())) {
+                    f = fail[f];
+                }
+                Integer link = next.get(f).get(edge.getKey());
+                fail[target] = link == null || link == target ? 0 : link;
+                ends.get(target).addAll(ends.get(fail[target]));
+                queue.add(target);
+            }
+        }
+
+        int[][] out = new int[ends.size()][];
+        for (int s = 0; s < ends.size(); s++) {
+            out[s] = ends.get(s).stream().mapToInt(Integer::intValue).toArray();
+        }
+        transitions = next;
+        failure = fail;
+        matches = out;
+        version = DigestUtils.md5DigestAsHex(String.join("\n", normalized).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Method to count occurrences of each trigger term in a note
+     *
+     * @param text note text, may be null
+     * @return Map of term, as configured, to occurrences, for terms found at least once
+     */
+    public Map<String, Integer> count(String text) {
+        if (text == null || text.isEmpty()) {
+            return Collections.emptyMap();
+        }
+        int[] counts = new int[terms.size()];
+        String normalized = normalize(text);
+        int state = 0;
+        for (int i = 0; i < normalized.length(); i++) {
+            char c = normalized.charAt(i);
+            Integer target = transitions.get(state).get(c);
+            while (target == null && state > 0) {
+                state = failure[state];
+                target = transitions.get(state).get(c);
+            }
+            state = target == null ? 0 : target;
+            for (int term : matches[state]) {
+                counts[term]++;
+            }
+        }
+        Map<String, Integer> found = new LinkedHashMap<>();
+        for (int t = 0; t < counts.length; t++) {
+            if (counts[t] > 0) {
+                found.put(terms.get(t), counts[t]);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Method to get the configured trigger terms, in order
+     *
+     * @return List of terms
+     */
+    public List<String> getTerms() {
+        return Collections.unmodifiableList(terms);
+    }
+
+    /**
+     * Method to get a fingerprint of the configured terms
+     * Stored alongside each note's counts, so counts made with a different term list are recomputed
+     *
+     * @return hex digest of the normalized terms
+     */
+    public String getVersion() {
+        return version;
+    }
+
+    private static String normalize(String text) {
+        String stripped = MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD)).replaceAll("");
+        return WHITESPACE.matcher(stripped.toLowerCase(Locale.ROOT)).replaceAll(" ").trim();
+    }
+
+}
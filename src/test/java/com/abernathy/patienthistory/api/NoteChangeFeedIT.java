@@ -0,0 +1,131 @@
+package com.abernathy.patienthistory.api;
+
+import com.abernathy.patienthistory.PatienthistoryApplication;
+import com.abernathy.patienthistory.domain.PatientNote;
+import com.abernathy.patienthistory.repository.PatientNoteRepository;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * Integration tests for the /patient/note/api/changes feed in both profiles
+ * Saves notes while a client is connected, then reconnects with Last-Event-ID and checks only later changes are sent,
+ * leaving out updates to stored trigger term counts
+ *
+ * Requires the test Mongo instance from application-test.properties, running as a replica set
+ */
+public class NoteChangeFeedIT {
+
+    // Patient ID used to tag test notes so they can be removed afterwards
+    private static final int TEST_PAT_ID = 434343;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    public void servletFeedResumesAfterLastEvent() throws Exception {
+        feedResumesAfterLastEvent(null);
+    }
+
+    @Test
+    public void reactiveFeedResumesAfterLastEvent() throws Exception {
+        feedResumesAfterLastEvent("reactive");
+    }
+
+    private void feedResumesAfterLastEvent(String profile) throws Exception {
+        SpringApplicationBuilder builder = new SpringApplicationBuilder(PatienthistoryApplication.class);
+        if (profile != null) {
+            builder.profiles(profile);
+        }
+        try (ConfigurableApplicationContext context = builder.run("--server.port=0",
+                "--spring.config.additional-location=classpath:application-test.properties",
+                "--patient.note.migration.enabled=false")) {
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            PatientNoteRepository repository = context.getBean(PatientNoteRepository.class);
+            HttpClient client = HttpClient.newHttpClient();
+            URI uri = URI.create("http://localhost:" + port + "/patient/note/api/changes?patId=" + TEST_PAT_ID);
+            try {
+                //First connection sees the first note
+                BlockingQueue<String> lines = new LinkedBlockingQueue<>();
+                CompletableFuture<HttpResponse<Stream<String>>> feed = connect(client, HttpRequest.newBuilder(uri), lines);
+                // Give the change stream time to open before writing
+                Thread.sleep(2000);
+                PatientNote first = repository.save(note("First change"));
+                Event event = nextEvent(lines);
+                assertEquals("insert", event.name);
+                assertEquals(first.getPatientNoteId(), event.data.get("patientNoteId").asText());
+                feed.cancel(true);
+
+                //Trigger term counts stored on the first note are not a change to report
+                first.setTriggerTerms(Collections.singletonMap("Smoker", 1));
+                first.setTriggerTermsVersion("changes-test");
+                repository.updateTriggerTerms(first);
+
+                //Second note is written while disconnected, and is the next event sent on reconnect
+                PatientNote second = repository.save(note("Second change"));
+                lines.clear();
+                connect(client, HttpRequest.newBuilder(uri).header("Last-Event-ID", event.id), lines);
+                Event resumed = nextEvent(lines);
+                assertEquals(second.getPatientNoteId(), resumed.data.get("patientNoteId").asText());
+                assertEquals("Second change", resumed.data.get("note").get("note").asText());
+            } finally {
+                repository.deleteAll(repository.findAllByPatId(TEST_PAT_ID));
+            }
+        }
+    }
+
+    private CompletableFuture<HttpResponse<Stream<String>>> connect(HttpClient client, HttpRequest.Builder request,
+                                                                    BlockingQueue<String> lines) {
+        CompletableFuture<HttpResponse<Stream<String>>> response = client.sendAsync(
+                request.header("Accept", "text/event-stream").build(), HttpResponse.BodyHandlers.ofLines());
+        response.thenAcceptAsync(r -> r.body().forEach(lines::add));
+        return response;
+    }
+
+    private Event nextEvent(BlockingQueue<String> lines) throws Exception {
+        Event event = new Event();
+        while (true) {
+            String line = lines.poll(10, TimeUnit.SECONDS);
+            assertNotNull(line, "no change event received");
+            if (line.startsWith("id:")) {
+                event.id = line.substring(3).trim();
+            } else if (line.startsWith("event:")) {
+                event.name = line.substring(6).trim();
+            } else if (line.startsWith("data:")) {
+                event.data = mapper.readTree(line.substring(5));
+            } else if (line.isEmpty() && event.data != null) {
+                return event;
+            }
+        }
+    }
+
+    private PatientNote note(String text) {
+        PatientNote patientNote = new PatientNote();
+        patientNote.setPatId(TEST_PAT_ID);
+        patientNote.setNote(text);
+        return patientNote;
+    }
+
+    private static class Event {
+        String id;
+        String name;
+        JsonNode data;
+    }
+
+}
@@ -1,30 +1,55 @@
 package com.abernathy.patienthistory.api;
 
 import com.abernathy.patienthistory.domain.PatientNote;
+import com.abernathy.patienthistory.domain.PatientTermProfile;
 import com.abernathy.patienthistory.repository.PatientNoteRepository;
+import com.abernathy.patienthistory.repository.PatientTermProfileRepository;
+import com.abernathy.patienthistory.service.NoteChangeFeed;
+import com.abernathy.patienthistory.service.PatientNoteCache;
+import com.abernathy.patienthistory.service.PatientNoteService;
+import com.abernathy.patienthistory.service.TriggerTermMatcher;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectWriter;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.actuate.metrics.AutoConfigureMetrics;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.core.query.TextCriteria;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.test.context.web.WebAppConfiguration;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.web.context.WebApplicationContext;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.when;
@@ -35,6 +60,7 @@ import static org.springframework.test.web.servlet.request.MockMvcRequestBuilder
 @SpringBootTest
 @WebAppConfiguration
 @AutoConfigureMockMvc
+@AutoConfigureMetrics
 @TestPropertySource(
         locations = "classpath:application-test.properties")
 public class PatientNoteControllerAPITests {
@@ -45,14 +71,32 @@ public class PatientNoteControllerAPITests {
     @Autowired
     private WebApplicationContext webApplicationContext;
 
+    @Autowired
+    private PatientNoteCache patientNoteCache;
+
+    @Autowired
+    private TriggerTermMatcher triggerTermMatcher;
+
     @MockBean
     private static PatientNoteRepository patientNoteRepository;
 
+    @MockBean
+    private PatientTermProfileRepository patientTermProfileRepository;
+
+    @MockBean
+    private NoteChangeFeed noteChangeFeed;
+
+    @BeforeEach
+    public void setup() {
+        //Cache outlives each test's repository mock
+        patientNoteCache.invalidateAll();
+    }
+
     @Test
     public void patientNoteControllerAPIAddsEntry() throws Exception {
 
         PatientNote patientNote = new PatientNote();
-        patientNote.setPatId("1");
+        patientNote.setPatId(1);
         patientNote.setNote("Test Note");
 
         ObjectMapper mapper = new ObjectMapper();
@@ -71,11 +115,26 @@ public class PatientNoteControllerAPITests {
         Mockito.verify(patientNoteRepository, Mockito.times(1)).save(any(PatientNote.class));
     }
 
+    @Test
+    public void patientNoteControllerAPIAddIgnoresIdAndVersion() throws Exception {
+
+        MvcResult mvcResult = mockMvc.perform(
+                post("/patient/note/api/add")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content("{\"patientNoteId\": \"EXISTINGID\", \"version\": 3, \"patId\": 1, \"note\": \"Test Note\"}")
+                        .accept(MediaType.ALL)).andReturn();
+
+        //Verify the note is inserted as a new note rather than replacing an existing one
+        assertTrue(mvcResult.getResponse().getStatus() == 201);
+        Mockito.verify(patientNoteRepository, Mockito.times(1))
+                .save(Mockito.argThat(note -> note.getPatientNoteId() == null && note.getVersion() == null));
+    }
+
     @Test
     public void patientNoteControllerAPIWillNotAddInvalidEntry() throws Exception {
 
         PatientNote patientNote = new PatientNote();
-        patientNote.setPatId("1");
+        patientNote.setPatId(1);
 
         ObjectMapper mapper = new ObjectMapper();
         mapper.configure(SerializationFeature.WRAP_ROOT_VALUE, false);
@@ -93,13 +152,65 @@ public class PatientNoteControllerAPITests {
         Mockito.verify(patientNoteRepository, Mockito.times(0)).save(any(PatientNote.class));
     }
 
+    @Test
+    public void patientNoteControllerAPIBulkAddsJsonArray() throws Exception {
+
+        //Two valid notes and one missing its note text
+        String requestJson = "[{\"patId\": 1, \"note\": \"First\"}," +
+                "{\"patId\": 1}," +
+                "{\"patId\": 2, \"note\": \"Second\"}]";
+
+        MvcResult mvcResult = mockMvc.perform(
+                post("/patient/note/api/bulk")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(requestJson)
+                        .accept(MediaType.ALL)).andReturn();
+
+        //Verify valid notes are written in one bulk insert, and report covers every note
+        assertTrue(mvcResult.getResponse().getStatus() == 200);
+        JsonNode report = new ObjectMapper().readTree(mvcResult.getResponse().getContentAsString());
+        assertEquals(3, report.get("received").asInt());
+        assertEquals(2, report.get("created").asInt());
+        assertEquals(1, report.get("invalid").asInt());
+        assertEquals("INVALID", report.get("items").get(1).get("status").asText());
+        Mockito.verify(patientNoteRepository, Mockito.times(1)).insertUnordered(Mockito.argThat(notes -> notes.size() == 2));
+        Mockito.verify(patientNoteRepository, Mockito.times(0)).save(any());
+    }
+
+    @Test
+    public void patientNoteControllerAPIBulkAddsNdjsonAndReportsFailures() throws Exception {
+
+        //Second line cannot be mapped to a note, third fails to write
+        String requestNdjson = "{\"patId\": 1, \"note\": \"First\"}\n" +
+                "{\"patId\": \"NOTANUMBER\", \"note\": \"Bad\"}\n" +
+                "{\"patId\": 2, \"note\": \"Second\"}\n";
+        Map<Integer, String> failures = new HashMap<>();
+        failures.put(1, "duplicate key");
+        when(patientNoteRepository.insertUnordered(any())).thenReturn(failures);
+
+        MvcResult mvcResult = mockMvc.perform(
+                post("/patient/note/api/bulk")
+                        .contentType(PatientNoteService.NDJSON)
+                        .content(requestNdjson)
+                        .accept(MediaType.ALL)).andReturn();
+
+        //Verify reading continues after a bad line, and write failures are reported against their note
+        assertTrue(mvcResult.getResponse().getStatus() == 200);
+        JsonNode report = new ObjectMapper().readTree(mvcResult.getResponse().getContentAsString());
+        assertEquals(3, report.get("received").asInt());
+        assertEquals(1, report.get("created").asInt());
+        assertEquals(1, report.get("invalid").asInt());
+        assertEquals(1, report.get("failed").asInt());
+        assertEquals("FAILED", report.get("items").get(2).get("status").asText());
+    }
+
     @Test
     public void patientNoteControllerAPIGetsEntry() throws Exception {
 
         //Create mock patient note
         PatientNote patientNote = new PatientNote();
         patientNote.setPatientNoteId("TESTID");
-        patientNote.setPatId("1");
+        patientNote.setPatId(1);
         patientNote.setNote("TEST NOTE");
 
         //If our service works and asks the repo for patient note with id TESTID, return our mock patient note
@@ -115,6 +226,28 @@ public class PatientNoteControllerAPITests {
 
     }
 
+    @Test
+    public void patientNoteControllerAPIGetsEntryWithQuotesAsValidJson() throws Exception {
+
+        //Create mock patient note with text that broke the old hand built JSON
+        PatientNote patientNote = new PatientNote();
+        patientNote.setPatientNoteId("TESTID");
+        patientNote.setPatId(1);
+        patientNote.setNote("Patient states \"feeling fine\"\nNo dizziness");
+
+        when(patientNoteRepository.findById("TESTID")).thenReturn(java.util.Optional.of(patientNote));
+
+        MvcResult mvcResult = mockMvc.perform(MockMvcRequestBuilders.get("/patient/note/api/get/TESTID")
+                .accept(MediaType.APPLICATION_JSON_VALUE)).andReturn();
+
+        //Verify body parses as JSON and note text round trips
+        assertTrue(mvcResult.getResponse().getStatus() == 200);
+        JsonNode body = new ObjectMapper().readTree(mvcResult.getResponse().getContentAsString());
+        assertEquals("Patient states \"feeling fine\"\nNo dizziness", body.get("note").asText());
+        assertEquals(1, body.get("patId").asInt());
+
+    }
+
     @Test
     public void patientNoteControllerAPIDoesNotGetInvalidEntry() throws Exception {
 
@@ -162,13 +295,222 @@ public class PatientNoteControllerAPITests {
 
     }
 
+    @Test
+    public void patientNoteControllerAPIReturnsNotModifiedForUnchangedEntry() throws Exception {
+
+        //Create mock patient note with a modification time
+        PatientNote patientNote = new PatientNote();
+        patientNote.setPatientNoteId("TESTID");
+        patientNote.setPatId(1);
+        patientNote.setNote("TEST NOTE");
+        patientNote.setLastModified(Instant.parse("2024-01-01T10:00:00Z"));
+        patientNote.setVersion(0L);
+
+        when(patientNoteRepository.findById("TESTID")).thenReturn(java.util.Optional.of(patientNote));
+
+        //First request returns the note with validators
+        MvcResult mvcResult = mockMvc.perform(MockMvcRequestBuilders.get("/patient/note/api/get/TESTID")
+                .accept(MediaType.APPLICATION_JSON_VALUE)).andReturn();
+        String etag = mvcResult.getResponse().getHeader(HttpHeaders.ETAG);
+        assertTrue(mvcResult.getResponse().getStatus() == 200);
+        assertTrue(etag != null);
+        assertTrue(mvcResult.getResponse().getHeader(HttpHeaders.LAST_MODIFIED) != null);
+
+        //Repeat request with If-None-Match gets 304 and no body
+        mvcResult = mockMvc.perform(MockMvcRequestBuilders.get("/patient/note/api/get/TESTID")
+                .header(HttpHeaders.IF_NONE_MATCH, etag)
+                .accept(MediaType.APPLICATION_JSON_VALUE)).andReturn();
+        assertTrue(mvcResult.getResponse().getStatus() == 304);
+        assertEquals("", mvcResult.getResponse().getContentAsString());
+
+        //Once the note changes the old tag no longer matches, even within the same millisecond
+        patientNote.setVersion(1L);
+        mvcResult = mockMvc.perform(MockMvcRequestBuilders.get("/patient/note/api/get/TESTID")
+                .header(HttpHeaders.IF_NONE_MATCH, etag)
+                .accept(MediaType.APPLICATION_JSON_VALUE)).andReturn();
+        assertTrue(mvcResult.getResponse().getStatus() == 200);
+
+    }
+
+    @Test
+    public void patientNoteControllerAPIReturnsNotModifiedForUnchangedPatientNotes() throws Exception {
+
+        //Create mock patient notes, and the ID/lastModified projection the conditional check reads
+        List<PatientNote> notes = new ArrayList<>();
+        List<PatientNote> versions = new ArrayList<>();
+        for (int i = 0; i < 2; i++) {
+            PatientNote note = new PatientNote();
+            note.setPatientNoteId("NOTE" + i);
+            note.setPatId(1);
+            note.setNote("TEST NOTE " + i);
+            note.setLastModified(Instant.parse("2024-01-01T10:00:00Z").plusSeconds(i));
+            notes.add(note);
+            PatientNote version = new PatientNote();
+            version.setPatientNoteId(note.getPatientNoteId());
+            version.setLastModified(note.getLastModified());
+            versions.add(0, version);
+        }
+        when(patientNoteRepository.findAllByPatId(1)).thenReturn(notes);
+        when(patientNoteRepository.findVersionsByPatId(1)).thenReturn(versions);
+
+        //Unconditional request loads the notes and does not run the version query
+        MvcResult mvcResult = mockMvc.perform(MockMvcRequestBuilders.get("/patient/note/api/getbypatient/1")
+                .accept(MediaType.APPLICATION_JSON_VALUE)).andReturn();
+        String etag = mvcResult.getResponse().getHeader(HttpHeaders.ETAG);
+        assertTrue(mvcResult.getResponse().getStatus() == 200);
+        assertTrue(etag != null);
+        Mockito.verify(patientNoteRepository, Mockito.times(0)).findVersionsByPatId(1);
+
+        //Conditional request is answered from the projection without loading note bodies
+        patientNoteCache.invalidateAll();
+        mvcResult = mockMvc.perform(MockMvcRequestBuilders.get("/patient/note/api/getbypatient/1")
+                .header(HttpHeaders.IF_NONE_MATCH, etag)
+                .accept(MediaType.APPLICATION_JSON_VALUE)).andReturn();
+        assertTrue(mvcResult.getResponse().getStatus() == 304);
+        assertEquals("", mvcResult.getResponse().getContentAsString());
+        Mockito.verify(patientNoteRepository, Mockito.times(1)).findVersionsByPatId(1);
+        Mockito.verify(patientNoteRepository, Mockito.times(1)).findAllByPatId(1);
+
+    }
+
+    @Test
+    public void patientNoteControllerAPIDoesNotAnswerIfModifiedSinceForPatientNotes() throws Exception {
+
+        //Create mock patient note, as left after another note was moved away from the patient
+        PatientNote note = new PatientNote();
+        note.setPatientNoteId("NOTE0");
+        note.setPatId(1);
+        note.setNote("TEST NOTE");
+        note.setVersion(0L);
+        note.setLastModified(Instant.parse("2024-01-01T10:00:00Z"));
+        when(patientNoteRepository.findAllByPatId(1)).thenReturn(List.of(note));
+        when(patientNoteRepository.findVersionsByPatId(1)).thenReturn(List.of(note));
+
+        MvcResult mvcResult = mockMvc.perform(MockMvcRequestBuilders.get("/patient/note/api/getbypatient/1")
+                .header(HttpHeaders.IF_MODIFIED_SINCE, "Tue, 02 Jan 2024 10:00:00 GMT")
+                .accept(MediaType.APPLICATION_JSON_VALUE)).andReturn();
+
+        //Verify If-Modified-Since alone gets the notes, and no version query is run
+        assertTrue(mvcResult.getResponse().getStatus() == 200);
+        Mockito.verify(patientNoteRepository, Mockito.times(0)).findVersionsByPatId(1);
+
+    }
+
+    @Test
+    public void patientNoteControllerAPIExportsNotesAsNdjson() throws Exception {
+
+        //Create mock patient notes
+        PatientNote first = new PatientNote();
+        first.setPatientNoteId("NOTEID1");
+        first.setNote("First \"quoted\" note");
+        PatientNote second = new PatientNote();
+        second.setPatientNoteId("NOTEID2");
+        second.setNote("Second note");
+
+        when(patientNoteRepository.streamAllByOrderByPatientNoteIdAsc()).thenReturn(Stream.of(first, second));
+
+        //Attempt to export notes
+        MvcResult mvcResult = mockMvc.perform(MockMvcRequestBuilders.get("/patient/note/api/export")
+                .accept(MediaType.ALL)).andReturn();
+
+        //Verify each note is written as one JSON line
+        assertTrue(mvcResult.getResponse().getStatus() == 200);
+        String[] lines = mvcResult.getResponse().getContentAsString().split("\n");
+        assertEquals(2, lines.length);
+        ObjectMapper mapper = new ObjectMapper();
+        assertEquals("First \"quoted\" note", mapper.readTree(lines[0]).get("note").asText());
+        Mockito.verify(patientNoteRepository, Mockito.times(0)).findAll();
+
+    }
+
+    @Test
+    public void patientNoteControllerRetroGetsNotesAsJsonByDefault() throws Exception {
+
+        //Create mock patient note
+        PatientNote patientNote = new PatientNote();
+        patientNote.setPatientNoteId("NOTEID");
+        patientNote.setPatId(1);
+        patientNote.setNote("Retro note");
+        when(patientNoteRepository.findAllByPatId(1)).thenReturn(List.of(patientNote));
+
+        MvcResult mvcResult = mockMvc.perform(MockMvcRequestBuilders.get("/patient/note/api/retro/getbypatient/1")
+                .accept(MediaType.ALL)).andReturn();
+
+        //Verify callers accepting anything get a JSON array of notes
+        assertTrue(mvcResult.getResponse().getStatus() == 200);
+        assertTrue(mvcResult.getResponse().getContentType().startsWith(MediaType.APPLICATION_JSON_VALUE));
+        JsonNode body = new ObjectMapper().readTree(mvcResult.getResponse().getContentAsString());
+        assertEquals("Retro note", body.get(0).get("note").asText());
+
+    }
+
+    @Test
+    public void patientNoteControllerRetroGetsNotesAsCbor() throws Exception {
+
+        //Create mock patient note
+        PatientNote patientNote = new PatientNote();
+        patientNote.setPatientNoteId("NOTEID");
+        patientNote.setPatId(1);
+        patientNote.setNote("Retro note");
+        when(patientNoteRepository.findAllByPatId(1)).thenReturn(List.of(patientNote));
+
+        MvcResult mvcResult = mockMvc.perform(MockMvcRequestBuilders.get("/patient/note/api/retro/getbypatient/1")
+                .accept(MediaType.APPLICATION_CBOR)).andReturn();
+
+        //Verify service callers can negotiate CBOR
+        assertTrue(mvcResult.getResponse().getStatus() == 200);
+        assertEquals(MediaType.APPLICATION_CBOR_VALUE, mvcResult.getResponse().getContentType());
+        JsonNode body = new CBORMapper().readTree(mvcResult.getResponse().getContentAsByteArray());
+        assertEquals("Retro note", body.get(0).get("note").asText());
+
+    }
+
+    @Test
+    public void patientNoteControllerRetroServesRepeatCallsFromCacheUntilWrite() throws Exception {
+
+        when(patientNoteRepository.findAllByPatId(1)).thenReturn(new ArrayList<>());
+
+        //Repeat calls for the same patient only reach the repository once
+        mockMvc.perform(MockMvcRequestBuilders.get("/patient/note/api/retro/getbypatient/1").accept(MediaType.ALL)).andReturn();
+        mockMvc.perform(MockMvcRequestBuilders.get("/patient/note/api/retro/getbypatient/1").accept(MediaType.ALL)).andReturn();
+        Mockito.verify(patientNoteRepository, Mockito.times(1)).findAllByPatId(1);
+
+        //Adding a note for the patient invalidates their cached notes
+        mockMvc.perform(post("/patient/note/api/add")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"patId\": 1, \"note\": \"New note\"}")
+                .accept(MediaType.ALL)).andReturn();
+        mockMvc.perform(MockMvcRequestBuilders.get("/patient/note/api/retro/getbypatient/1").accept(MediaType.ALL)).andReturn();
+        Mockito.verify(patientNoteRepository, Mockito.times(2)).findAllByPatId(1);
+        assertTrue(patientNoteCache.stats().hitCount() >= 1);
+
+    }
+
+    @Test
+    public void patientNoteControllerRetroDoesNotCacheSecondaryReads() throws Exception {
+
+        when(patientNoteRepository.findAllByPatId(1)).thenReturn(new ArrayList<>());
+        ReflectionTestUtils.setField(patientNoteCache, "primaryReads", false);
+        try {
+            mockMvc.perform(MockMvcRequestBuilders.get("/patient/note/api/retro/getbypatient/1").accept(MediaType.ALL)).andReturn();
+            mockMvc.perform(MockMvcRequestBuilders.get("/patient/note/api/retro/getbypatient/1").accept(MediaType.ALL)).andReturn();
+        } finally {
+            ReflectionTestUtils.setField(patientNoteCache, "primaryReads", true);
+        }
+
+        //Verify notes read from secondaries are loaded every time rather than cached
+        Mockito.verify(patientNoteRepository, Mockito.times(2)).findAllByPatId(1);
+        assertNull(patientNoteCache.getIfPresent(1));
+
+    }
+
     @Test
     public void patientNoteControllerAPIUpdatesEntry() throws Exception {
 
         //Create mock note with valid data
         PatientNote note = new PatientNote();
         note.setPatientNoteId("NOTEID");
-        note.setPatId("1");
+        note.setPatId(1);
         note.setNote("NOTE");
 
 
@@ -177,8 +519,8 @@ public class PatientNoteControllerAPITests {
         ObjectWriter ow = mapper.writer().withDefaultPrettyPrinter();
         String requestJson=ow.writeValueAsString(note);
 
-        //If our service accepts the PatientNote JSON and asks the repo for patient with id NOTEID, return a valid patient
-        when(patientNoteRepository.findById("NOTEID")).thenReturn(java.util.Optional.of(note));
+        //If our service sends an unversioned update for NOTEID, the repo returns the note as it was before
+        when(patientNoteRepository.updateFields(Mockito.eq("NOTEID"), Mockito.isNull(), any())).thenReturn(note);
 
         //Attempt to update note
         MvcResult mvcResult = mockMvc.perform(
@@ -187,9 +529,11 @@ public class PatientNoteControllerAPITests {
                         .content(requestJson)
                         .accept(MediaType.ALL)).andReturn();
 
-        //Verify entry is saved to DB, and we get success response (200)
+        //Verify entry is updated in a single write without reading it first, and we get success response (200)
         assertTrue(mvcResult.getResponse().getStatus() == 200);
-        Mockito.verify(patientNoteRepository, Mockito.times(1)).save(any());
+        Mockito.verify(patientNoteRepository, Mockito.times(1)).updateFields(Mockito.eq("NOTEID"), Mockito.isNull(), any());
+        Mockito.verify(patientNoteRepository, Mockito.times(0)).findById(any());
+        Mockito.verify(patientNoteRepository, Mockito.times(0)).save(any());
 
     }
 
@@ -218,6 +562,7 @@ public class PatientNoteControllerAPITests {
         //Verify entry is not saved to DB, and we get bad request response (400)
         assertTrue(mvcResult.getResponse().getStatus() == 400);
         Mockito.verify(patientNoteRepository, Mockito.times(0)).save(any());
+        Mockito.verify(patientNoteRepository, Mockito.times(0)).updateFields(any(), any(), any());
 
     }
 
@@ -227,7 +572,7 @@ public class PatientNoteControllerAPITests {
         //Create mock note with valid data
         PatientNote note = new PatientNote();
         note.setPatientNoteId("NOTEID");
-        note.setPatId("1");
+        note.setPatId(1);
         note.setNote("NOTE");
 
         ObjectMapper mapper = new ObjectMapper();
@@ -251,4 +596,315 @@ public class PatientNoteControllerAPITests {
 
     }
 
+    @Test
+    public void patientNoteControllerAPIDoesNotUpdateStaleVersion() throws Exception {
+
+        //Note exists, but no longer has version 3
+        when(patientNoteRepository.existsById("NOTEID")).thenReturn(true);
+
+        MvcResult mvcResult = mockMvc.perform(put("/patient/note/api/update")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"patientNoteId\": \"NOTEID\", \"patId\": 1, \"note\": \"NOTE\", \"version\": 3}")
+                .accept(MediaType.ALL)).andReturn();
+
+        //Verify the write was conditional on the version read, and we get conflict response (409)
+        assertTrue(mvcResult.getResponse().getStatus() == 409);
+        Mockito.verify(patientNoteRepository, Mockito.times(1)).updateFields(Mockito.eq("NOTEID"), Mockito.eq(3L), any());
+        Mockito.verify(patientTermProfileRepository, Mockito.times(0)).recordNote(Mockito.anyInt(), any(), any(), any());
+    }
+
+    @Test
+    public void patientNoteControllerAPIPatchesOnlyChangedFields() throws Exception {
+
+        //Stored note before the patch
+        PatientNote previous = new PatientNote();
+        previous.setPatientNoteId("NOTEID");
+        previous.setPatId(1);
+        previous.setNote("Old");
+        previous.setVersion(2L);
+        when(patientNoteRepository.updateFields(Mockito.eq("NOTEID"), Mockito.eq(2L), any())).thenReturn(previous);
+
+        MvcResult mvcResult = mockMvc.perform(MockMvcRequestBuilders.patch("/patient/note/api/update/NOTEID")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"note\": \"Smoker\", \"version\": 2}")
+                .accept(MediaType.ALL)).andReturn();
+
+        //Verify only the note text and its trigger terms are set, and the response is the note after the patch
+        assertTrue(mvcResult.getResponse().getStatus() == 200);
+        JsonNode updated = new ObjectMapper().readTree(mvcResult.getResponse().getContentAsString());
+        assertEquals(1, updated.get("patId").asInt());
+        assertEquals("Smoker", updated.get("note").asText());
+        assertEquals(3, updated.get("version").asInt());
+        Mockito.verify(patientNoteRepository, Mockito.times(1)).updateFields(Mockito.eq("NOTEID"), Mockito.eq(2L),
+                Mockito.argThat(fields -> fields.containsKey("note") && fields.containsKey("triggerTerms") && !fields.containsKey("patId")));
+    }
+
+    @Test
+    public void patientNoteControllerAPIDoesNotPatchWithoutChanges() throws Exception {
+
+        MvcResult mvcResult = mockMvc.perform(MockMvcRequestBuilders.patch("/patient/note/api/update/NOTEID")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"note\": \"\"}")
+                .accept(MediaType.ALL)).andReturn();
+
+        //Verify empty note text is rejected, and we get bad request response (400)
+        assertTrue(mvcResult.getResponse().getStatus() == 400);
+        Mockito.verify(patientNoteRepository, Mockito.times(0)).updateFields(any(), any(), any());
+    }
+
+    @Test
+    public void patientNoteControllerAPISearchesNotesByPhraseAndTerm() throws Exception {
+
+        //Create mock search hit
+        PatientNote patientNote = new PatientNote();
+        patientNote.setPatientNoteId("TESTID");
+        patientNote.setPatId(1);
+        patientNote.setNote("Hemoglobin A1C above recommended level");
+        patientNote.setScore(1.5f);
+
+        when(patientNoteRepository.findAllBy(any(TextCriteria.class), any(Pageable.class)))
+                .thenReturn(new PageImpl<>(Collections.singletonList(patientNote), PageRequest.of(0, 20), 1));
+
+        //Search all notes
+        MvcResult mvcResult = mockMvc.perform(MockMvcRequestBuilders.get("/patient/note/api/search")
+                .param("q", "\"Hemoglobin A1C\" Smoker")
+                .accept(MediaType.APPLICATION_JSON_VALUE)).andReturn();
+
+        //Verify hits are returned with their score, and the query keeps the phrase together
+        assertTrue(mvcResult.getResponse().getStatus() == 200);
+        JsonNode result = new ObjectMapper().readTree(mvcResult.getResponse().getContentAsString());
+        assertEquals(1, result.get("total").asInt());
+        assertEquals("TESTID", result.get("hits").get(0).get("patientNoteId").asText());
+        assertEquals(1.5, result.get("hits").get(0).get("score").asDouble(), 0.001);
+        ArgumentCaptor<TextCriteria> criteria = ArgumentCaptor.forClass(TextCriteria.class);
+        Mockito.verify(patientNoteRepository, Mockito.times(1)).findAllBy(criteria.capture(), any(Pageable.class));
+        String search = criteria.getValue().getCriteriaObject().get("$text", org.bson.Document.class).getString("$search");
+        assertTrue(search.contains("\"Hemoglobin A1C\""));
+        assertTrue(search.contains("Smoker"));
+    }
+
+    @Test
+    public void patientNoteControllerAPISearchesOnePatientsNotes() throws Exception {
+
+        when(patientNoteRepository.findByPatId(any(Integer.class), any(TextCriteria.class), any(Pageable.class)))
+                .thenReturn(new PageImpl<>(new ArrayList<>()));
+
+        MvcResult mvcResult = mockMvc.perform(MockMvcRequestBuilders.get("/patient/note/api/search")
+                .param("q", "Microalbumin").param("patId", "3").param("page", "1").param("size", "500")
+                .accept(MediaType.APPLICATION_JSON_VALUE)).andReturn();
+
+        //Verify search is limited to patient, and page size is capped
+        assertTrue(mvcResult.getResponse().getStatus() == 200);
+        ArgumentCaptor<Pageable> pageable = ArgumentCaptor.forClass(Pageable.class);
+        Mockito.verify(patientNoteRepository, Mockito.times(1)).findByPatId(Mockito.eq(3), any(TextCriteria.class), pageable.capture());
+        assertEquals(1, pageable.getValue().getPageNumber());
+        assertEquals(100, pageable.getValue().getPageSize());
+    }
+
+    @Test
+    public void patientNoteControllerAPIRejectsEmptySearch() throws Exception {
+
+        MvcResult mvcResult = mockMvc.perform(MockMvcRequestBuilders.get("/patient/note/api/search")
+                .param("q", "  \"\" ")
+                .accept(MediaType.APPLICATION_JSON_VALUE)).andReturn();
+
+        //Verify we get Bad Request response (400) without querying DB
+        assertTrue(mvcResult.getResponse().getStatus() == 400);
+        Mockito.verify(patientNoteRepository, Mockito.times(0)).findAllBy(any(TextCriteria.class), any(Pageable.class));
+    }
+
+    @Test
+    public void patientNoteControllerAPIRetroTotalsStoredTriggerTerms() throws Exception {
+
+        //Create mock notes with counts stored on write
+        PatientNote first = new PatientNote();
+        first.setPatientNoteId("FIRST");
+        first.setTriggerTerms(Collections.singletonMap("Smoker", 2));
+        PatientNote second = new PatientNote();
+        second.setPatientNoteId("SECOND");
+        second.setTriggerTerms(Collections.singletonMap("Smoker", 1));
+        String version = triggerTermMatcher.getVersion();
+        first.setTriggerTermsVersion(version);
+        second.setTriggerTermsVersion(version);
+
+        when(patientNoteRepository.findTriggerTermsByPatId(1)).thenReturn(List.of(first, second));
+
+        MvcResult mvcResult = mockMvc.perform(MockMvcRequestBuilders.get("/patient/note/api/retro/triggers/1")
+                .accept(MediaType.APPLICATION_JSON_VALUE)).andReturn();
+
+        //Verify totals come from stored counts, without loading any note text
+        assertTrue(mvcResult.getResponse().getStatus() == 200);
+        JsonNode counts = new ObjectMapper().readTree(mvcResult.getResponse().getContentAsString());
+        assertEquals(2, counts.get("notes").asInt());
+        assertEquals(1, counts.get("distinctTerms").asInt());
+        assertEquals(3, counts.get("terms").get("Smoker").asInt());
+        assertEquals(0, counts.get("terms").get("Microalbumin").asInt());
+        Mockito.verify(patientNoteRepository, Mockito.times(0)).findAllById(any());
+        Mockito.verify(patientTermProfileRepository, Mockito.times(1)).startProfile(1, version);
+        Mockito.verify(patientTermProfileRepository, Mockito.times(1)).addNoteIfAbsent(1, "FIRST", Collections.singletonMap("Smoker", 2), version);
+        Mockito.verify(patientTermProfileRepository, Mockito.times(1)).addNoteIfAbsent(1, "SECOND", Collections.singletonMap("Smoker", 1), version);
+        Mockito.verify(patientTermProfileRepository, Mockito.times(0)).save(any(PatientTermProfile.class));
+    }
+
+    @Test
+    public void patientNoteControllerAPIRetroRecountsNotesWithoutStoredTriggerTerms() throws Exception {
+
+        //Note stored before counting was added
+        PatientNote stale = new PatientNote();
+        stale.setPatientNoteId("STALE");
+        PatientNote full = new PatientNote();
+        full.setPatientNoteId("STALE");
+        full.setPatId(1);
+        full.setNote("HÉMOGLOBIN  a1c high. Smokers: patient smoker, REACTION to antibodies");
+
+        when(patientNoteRepository.findTriggerTermsByPatId(1)).thenReturn(List.of(stale));
+        when(patientNoteRepository.findAllById(List.of("STALE"))).thenReturn(List.of(full));
+
+        MvcResult mvcResult = mockMvc.perform(MockMvcRequestBuilders.get("/patient/note/api/retro/triggers/1")
+                .accept(MediaType.APPLICATION_JSON_VALUE)).andReturn();
+
+        //Verify terms are matched ignoring case, accents and spacing, and the counts are stored
+        assertTrue(mvcResult.getResponse().getStatus() == 200);
+        JsonNode terms = new ObjectMapper().readTree(mvcResult.getResponse().getContentAsString()).get("terms");
+        assertEquals(1, terms.get("Hemoglobin A1C").asInt());
+        assertEquals(2, terms.get("Smoker").asInt());
+        assertEquals(1, terms.get("Reaction").asInt());
+        assertEquals(1, terms.get("Antibodies").asInt());
+        Mockito.verify(patientNoteRepository, Mockito.times(1)).updateTriggerTerms(full);
+        assertEquals(triggerTermMatcher.getVersion(), full.getTriggerTermsVersion());
+    }
+
+    @Test
+    public void patientNoteControllerAPIRetroReadsTriggerTermsFromProfile() throws Exception {
+
+        //Create mock profile maintained on write
+        PatientTermProfile profile = new PatientTermProfile();
+        profile.setPatId(1);
+        profile.setNoteCount(40);
+        profile.setTerms(Collections.singletonMap("Cholesterol", 12));
+        profile.setVersion(triggerTermMatcher.getVersion());
+
+        when(patientTermProfileRepository.findTotalsByPatId(1)).thenReturn(java.util.Optional.of(profile));
+
+        MvcResult mvcResult = mockMvc.perform(MockMvcRequestBuilders.get("/patient/note/api/retro/triggers/1")
+                .accept(MediaType.APPLICATION_JSON_VALUE)).andReturn();
+
+        //Verify totals come from the profile alone, without reading any notes
+        assertTrue(mvcResult.getResponse().getStatus() == 200);
+        JsonNode counts = new ObjectMapper().readTree(mvcResult.getResponse().getContentAsString());
+        assertEquals(40, counts.get("notes").asInt());
+        assertEquals(12, counts.get("terms").get("Cholesterol").asInt());
+        Mockito.verify(patientNoteRepository, Mockito.times(0)).findTriggerTermsByPatId(1);
+    }
+
+    @Test
+    public void patientNoteControllerAPIUpdateMovesTermProfileContribution() throws Exception {
+
+        //Existing note belongs to patient 1
+        PatientNote existing = new PatientNote();
+        existing.setPatientNoteId("NOTEID");
+        existing.setPatId(1);
+        existing.setNote("Smoker");
+
+        when(patientNoteRepository.updateFields(Mockito.eq("NOTEID"), Mockito.isNull(), any())).thenReturn(existing);
+
+        //Update moves it to patient 2
+        MvcResult mvcResult = mockMvc.perform(put("/patient/note/api/update")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("{\"patientNoteId\": \"NOTEID\", \"patId\": 2, \"note\": \"Smoker\"}")
+                .accept(MediaType.ALL)).andReturn();
+
+        //Verify contribution is removed from the old patient's profile and recorded on the new one
+        assertTrue(mvcResult.getResponse().getStatus() == 200);
+        String version = triggerTermMatcher.getVersion();
+        Mockito.verify(patientTermProfileRepository, Mockito.times(1)).removeNote(1, "NOTEID", version);
+        Mockito.verify(patientTermProfileRepository, Mockito.times(1)).recordNote(Mockito.eq(2), Mockito.eq("NOTEID"), any(), Mockito.eq(version));
+    }
+
+    @Test
+    public void patientNoteControllerRetroGetsManyPatientsNotesGroupedByPatient() throws Exception {
+
+        //Create mock notes as returned by the $in query, sorted by patient
+        PatientNote first = new PatientNote();
+        first.setPatientNoteId("FIRST");
+        first.setPatId(1);
+        first.setNote("First");
+        PatientNote second = new PatientNote();
+        second.setPatientNoteId("SECOND");
+        second.setPatId(1);
+        second.setNote("Second");
+        PatientNote third = new PatientNote();
+        third.setPatientNoteId("THIRD");
+        third.setPatId(2);
+        third.setNote("Third");
+        when(patientNoteRepository.streamAllByPatIdIn(any())).thenReturn(Stream.of(first, second, third));
+
+        MvcResult mvcResult = mockMvc.perform(post("/patient/note/api/retro/getbypatients")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content("[2, 1, 3, 1]")
+                .accept(MediaType.ALL)).andReturn();
+
+        //Verify one line per patient, patients without notes last, from a single query
+        assertTrue(mvcResult.getResponse().getStatus() == 200);
+        String[] lines = mvcResult.getResponse().getContentAsString().split("\n");
+        assertEquals(3, lines.length);
+        ObjectMapper mapper = new ObjectMapper();
+        assertEquals(2, mapper.readTree(lines[0]).get("notes").size());
+        assertEquals(2, mapper.readTree(lines[1]).get("patId").asInt());
+        assertEquals(3, mapper.readTree(lines[2]).get("patId").asInt());
+        assertEquals(0, mapper.readTree(lines[2]).get("notes").size());
+        Mockito.verify(patientNoteRepository, Mockito.times(1)).streamAllByPatIdIn(new java.util.TreeSet<>(List.of(1, 2, 3)));
+        Mockito.verify(patientNoteRepository, Mockito.times(0)).findAllByPatId(any(Integer.class));
+    }
+
+    @Test
+    public void patientNoteControllerRetroRejectsTooManyPatients() throws Exception {
+
+        List<Integer> patIds = new ArrayList<>();
+        for (int i = 0; i < 101; i++) {
+            patIds.add(i);
+        }
+
+        MvcResult mvcResult = mockMvc.perform(post("/patient/note/api/retro/getbypatients")
+                .contentType(MediaType.APPLICATION_JSON)
+                .content(new ObjectMapper().writeValueAsString(patIds))
+                .accept(MediaType.ALL)).andReturn();
+
+        //Verify we get Bad Request response (400) without querying DB
+        assertTrue(mvcResult.getResponse().getStatus() == 400);
+        Mockito.verify(patientNoteRepository, Mockito.times(0)).streamAllByPatIdIn(any());
+    }
+
+    @Test
+    public void patientNoteControllerAPIResumesChangeFeedFromLastEventId() throws Exception {
+
+        when(noteChangeFeed.subscribe(1, "TOKEN")).thenReturn(new SseEmitter());
+
+        //Reconnecting EventSource sends the id of the last event it received
+        MvcResult mvcResult = mockMvc.perform(MockMvcRequestBuilders.get("/patient/note/api/changes")
+                .param("patId", "1")
+                .header("Last-Event-ID", "TOKEN")
+                .accept(MediaType.TEXT_EVENT_STREAM)).andReturn();
+
+        //Verify feed is opened as an event stream from that point
+        assertTrue(mvcResult.getRequest().isAsyncStarted());
+        Mockito.verify(noteChangeFeed, Mockito.times(1)).subscribe(1, "TOKEN");
+    }
+
+    @Test
+    public void patientNoteControllerAPIExposesPrometheusMetrics() throws Exception {
+
+        when(patientNoteRepository.findById("TESTID")).thenReturn(java.util.Optional.empty());
+        mockMvc.perform(MockMvcRequestBuilders.get("/patient/note/api/get/TESTID")).andReturn();
+
+        MvcResult mvcResult = mockMvc.perform(MockMvcRequestBuilders.get("/actuator/prometheus")).andReturn();
+
+        //Verify request timings are exposed per path and outcome, with histogram buckets for percentiles
+        assertTrue(mvcResult.getResponse().getStatus() == 200);
+        String metrics = mvcResult.getResponse().getContentAsString();
+        assertTrue(metrics.contains("http_server_requests_seconds_bucket"));
+        assertTrue(metrics.contains("uri=\"/patient/note/api/get/{id}\""));
+        assertTrue(metrics.contains("outcome=\"CLIENT_ERROR\""));
+    }
+
 }
@@ -1,7 +1,13 @@
 package com.abernathy.patienthistory.api;
 
 import com.abernathy.patienthistory.domain.PatientNote;
+import com.abernathy.patienthistory.domain.PatientNoteSummary;
+import com.abernathy.patienthistory.remote.PatientRemote;
 import com.abernathy.patienthistory.repository.PatientNoteRepository;
+import com.abernathy.patienthistory.service.PatientNoteCache;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.mockito.Mockito;
@@ -19,10 +25,13 @@ import org.springframework.test.web.servlet.request.MockMvcRequestBuilders;
 import org.springframework.web.context.WebApplicationContext;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.Mockito.when;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
 
@@ -40,9 +49,57 @@ public class PatientNoteControllerUITests {
     @Autowired
     private WebApplicationContext webApplicationContext;
 
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private PatientNoteCache patientNoteCache;
+
     @MockBean
     private static PatientNoteRepository patientNoteRepository;
 
+    @MockBean
+    private PatientRemote patientRemote;
+
+    @BeforeEach
+    public void setup() {
+        //Cache outlives each test's repository mock
+        patientNoteCache.invalidateAll();
+        Map<Integer, String> index = new HashMap<>();
+        index.put(1, "Test Patient");
+        when(patientRemote.getPatientIndex()).thenReturn(index);
+    }
+
+    @Test
+    public void patientNoteControllerGetListPageUsesKeysetPaging() throws Exception {
+
+        //Create one more mock note than fits on a page
+        List<PatientNoteSummary> notes = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            notes.add(new PatientNoteSummary("NOTEID" + i, 1, "Preview " + i, i == 0));
+        }
+        when(patientNoteRepository.findSummaries(Mockito.isNull(), Mockito.eq(3), anyInt())).thenReturn(notes);
+
+        MvcResult mvcResult = mockMvc.perform(MockMvcRequestBuilders.get("/patient/note/list?size=2").accept(MediaType.ALL)).andReturn();
+
+        //Verify first page is requested by key as summaries, never loading the whole collection, and points at the next page
+        assertTrue(mvcResult.getResponse().getStatus() == 200);
+        assertTrue(mvcResult.getResponse().getContentAsString().contains("after=NOTEID1"));
+        assertTrue(mvcResult.getResponse().getContentAsString().contains("Preview 0..."));
+        Mockito.verify(patientNoteRepository, Mockito.times(0)).findAll();
+    }
+
+    @Test
+    public void patientNoteControllerGetListPageAfterCursor() throws Exception {
+
+        MvcResult mvcResult = mockMvc.perform(MockMvcRequestBuilders.get("/patient/note/list?after=NOTEID1").accept(MediaType.ALL)).andReturn();
+
+        //Verify following page is requested from the provided cursor
+        assertTrue(mvcResult.getResponse().getStatus() == 200);
+        Mockito.verify(patientNoteRepository, Mockito.times(1))
+                .findSummaries(Mockito.eq("NOTEID1"), anyInt(), anyInt());
+    }
+
     @Test
     public void patientNoteControllerGetAddNoteForm() throws Exception {
 
@@ -51,6 +108,18 @@ public class PatientNoteControllerUITests {
         assertTrue(mvcResult.getResponse().getStatus() == 200);
     }
 
+    @Test
+    public void patientNoteControllerAddNoteFormCallsPatientServiceOnce() throws Exception {
+
+        MvcResult mvcResult = mockMvc.perform(MockMvcRequestBuilders.get("/patient/note/add").accept(MediaType.ALL)).andReturn();
+
+        //Verify page renders with a single lookup of the patient index, and the per request metric agrees
+        assertTrue(mvcResult.getResponse().getStatus() == 200);
+        Mockito.verify(patientRemote, Mockito.times(1)).getPatientIndex();
+        DistributionSummary remoteCalls = meterRegistry.get("patient.remote.calls.per.request").summary();
+        assertTrue(remoteCalls.max() <= 1);
+    }
+
     @Test
     public void patientNoteControllerPostValidateAddsEntry() throws Exception {
 
@@ -63,6 +132,7 @@ public class PatientNoteControllerUITests {
         //Verify entry is added to DB and we are redirected (302)
         assertTrue(mvcResult.getResponse().getStatus() == 302);
         Mockito.verify(patientNoteRepository, Mockito.times(1)).save(any(PatientNote.class));
+        Mockito.verify(patientNoteRepository, Mockito.times(0)).findAll();
     }
 
     @Test
@@ -76,6 +146,7 @@ public class PatientNoteControllerUITests {
         //Verify no entry is added to DB and we remain on add form (200)
         assertTrue(mvcResult.getResponse().getStatus() == 200);
         Mockito.verify(patientNoteRepository, Mockito.times(0)).save(any(PatientNote.class));
+        Mockito.verify(patientRemote, Mockito.times(1)).getPatientIndex();
     }
 
     @Test
@@ -90,10 +161,33 @@ public class PatientNoteControllerUITests {
     @Test
     public void patientNoteControllerGetViewAllPatientNotePage() throws Exception {
 
-        when(patientNoteRepository.findAllByPatId(1)).thenReturn(new ArrayList<>());
+        when(patientNoteRepository.findSummariesByPatId(Mockito.eq(1), anyInt()))
+                .thenReturn(List.of(new PatientNoteSummary("NOTEID", 1, "Patient reports", true)));
+        MvcResult mvcResult = mockMvc.perform(MockMvcRequestBuilders.get("/patient/note/viewall/1").accept(MediaType.APPLICATION_JSON_VALUE)).andReturn();
+
+        //Verify note previews are shown, linking to the full note, without loading note bodies
+        assertTrue(mvcResult.getResponse().getStatus() == 200);
+        assertTrue(mvcResult.getResponse().getContentAsString().contains("Patient reports..."));
+        assertTrue(mvcResult.getResponse().getContentAsString().contains("/patient/note/view/NOTEID"));
+        Mockito.verify(patientNoteRepository, Mockito.times(0)).findAllByPatId(1);
+    }
+
+    @Test
+    public void patientNoteControllerGetViewAllPatientNotePageFromCache() throws Exception {
+
+        PatientNote patientNote = new PatientNote();
+        patientNote.setPatientNoteId("NOTEID");
+        patientNote.setPatId(1);
+        patientNote.setNote("Short note");
+        when(patientNoteRepository.findAllByPatId(1)).thenReturn(List.of(patientNote));
+        patientNoteCache.findAllByPatId(1);
+
         MvcResult mvcResult = mockMvc.perform(MockMvcRequestBuilders.get("/patient/note/viewall/1").accept(MediaType.APPLICATION_JSON_VALUE)).andReturn();
 
+        //Verify cached notes are summarised rather than queried again
         assertTrue(mvcResult.getResponse().getStatus() == 200);
+        assertTrue(mvcResult.getResponse().getContentAsString().contains("Short note"));
+        Mockito.verify(patientNoteRepository, Mockito.times(0)).findSummariesByPatId(anyInt(), anyInt());
     }
 
     @Test
@@ -108,17 +202,40 @@ public class PatientNoteControllerUITests {
     @Test
     public void patientNoteControllerPostUpdatesEntry() throws Exception {
 
-        when(patientNoteRepository.findById("NOTEID")).thenReturn(java.util.Optional.of(new PatientNote()));
+        PatientNote previous = new PatientNote();
+        previous.setPatientNoteId("NOTEID");
+        previous.setPatId(1);
+        when(patientNoteRepository.updateFields(Mockito.eq("NOTEID"), Mockito.eq(4L), any())).thenReturn(previous);
         MvcResult mvcResult = mockMvc.perform(
                 post("/patient/note/update/NOTEID")
                         .param("patientNoteId", "NOTEID")
                         .param("patId", "1")
                         .param("note", "testnote")
+                        .param("version", "4")
                         .accept(MediaType.ALL)).andReturn();
 
-        //Verify entry is updated in DB and we are redirected (302)
+        //Verify entry is updated in DB against the version the form was opened with and we are redirected (302)
         assertTrue(mvcResult.getResponse().getStatus() == 302);
-        Mockito.verify(patientNoteRepository, Mockito.times(1)).save(any(PatientNote.class));
+        Mockito.verify(patientNoteRepository, Mockito.times(1)).updateFields(Mockito.eq("NOTEID"), Mockito.eq(4L), any());
+        Mockito.verify(patientNoteRepository, Mockito.times(0)).findAll();
+    }
+
+    @Test
+    public void patientNoteControllerPostDoesNotUpdateChangedEntry() throws Exception {
+
+        //Note exists, but was changed after the form was opened at version 4
+        when(patientNoteRepository.existsById("NOTEID")).thenReturn(true);
+        MvcResult mvcResult = mockMvc.perform(
+                post("/patient/note/update/NOTEID")
+                        .param("patientNoteId", "NOTEID")
+                        .param("patId", "1")
+                        .param("note", "testnote")
+                        .param("version", "4")
+                        .accept(MediaType.ALL)).andReturn();
+
+        //Verify we remain on form (200) with an error explaining why
+        assertTrue(mvcResult.getResponse().getStatus() == 200);
+        assertTrue(mvcResult.getResponse().getContentAsString().contains("reload to see the current note"));
     }
 
     @Test
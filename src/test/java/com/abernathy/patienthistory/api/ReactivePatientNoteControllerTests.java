@@ -0,0 +1,476 @@
+package com.abernathy.patienthistory.api;
+
+import com.abernathy.patienthistory.domain.PatientNote;
+import com.abernathy.patienthistory.domain.PatientNoteSummary;
+import com.abernathy.patienthistory.remote.ReactivePatientRemote;
+import com.abernathy.patienthistory.repository.PatientNoteRepository;
+import com.abernathy.patienthistory.repository.PatientTermProfileRepository;
+import com.abernathy.patienthistory.repository.ReactivePatientNoteRepository;
+import com.abernathy.patienthistory.service.PatientNoteCache;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.databind.CBORMapper;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.mongodb.core.query.TextCriteria;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.reactive.server.EntityExchangeResult;
+import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.BodyInserters;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(properties = "spring.main.web-application-type=reactive")
+@ActiveProfiles("reactive")
+@AutoConfigureWebTestClient
+@TestPropertySource(
+        locations = "classpath:application-test.properties")
+public class ReactivePatientNoteControllerTests {
+
+    @Autowired
+    private WebTestClient webTestClient;
+
+    @Autowired
+    private PatientNoteCache patientNoteCache;
+
+    @MockBean
+    private ReactivePatientNoteRepository reactivePatientNoteRepository;
+
+    @MockBean
+    private PatientNoteRepository patientNoteRepository;
+
+    @MockBean
+    private PatientTermProfileRepository patientTermProfileRepository;
+
+    @MockBean
+    private ReactivePatientRemote patientRemote;
+
+    @BeforeEach
+    public void setup() {
+        //Cache outlives each test's repository mock
+        patientNoteCache.invalidateAll();
+        Map<Integer, String> index = new HashMap<>();
+        index.put(1, "Test Patient");
+        when(patientRemote.getPatientIndex()).thenReturn(Mono.just(index));
+        when(reactivePatientNoteRepository.save(any(PatientNote.class)))
+                .thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+    }
+
+    private PatientNote note(String id, int patId, String text) {
+        PatientNote patientNote = new PatientNote();
+        patientNote.setPatientNoteId(id);
+        patientNote.setPatId(patId);
+        patientNote.setNote(text);
+        patientNote.setLastModified(Instant.parse("2024-01-01T10:00:00Z"));
+        return patientNote;
+    }
+
+    @Test
+    public void reactiveControllerGetsEntryAndReturnsNotModifiedWhenUnchanged() throws Exception {
+
+        when(reactivePatientNoteRepository.findById("TESTID")).thenReturn(Mono.just(note("TESTID", 1, "TEST NOTE")));
+
+        EntityExchangeResult<byte[]> result = webTestClient.get().uri("/patient/note/api/get/TESTID")
+                .accept(MediaType.APPLICATION_JSON).exchange().expectBody().returnResult();
+        String etag = result.getResponseHeaders().getETag();
+        assertTrue(result.getStatus().value() == 200);
+        assertEquals("TEST NOTE", new ObjectMapper().readTree(result.getResponseBody()).get("note").asText());
+
+        //Repeat request with If-None-Match gets 304
+        result = webTestClient.get().uri("/patient/note/api/get/TESTID")
+                .header(HttpHeaders.IF_NONE_MATCH, etag)
+                .accept(MediaType.APPLICATION_JSON).exchange().expectBody().returnResult();
+        assertTrue(result.getStatus().value() == 304);
+    }
+
+    @Test
+    public void reactiveControllerDoesNotGetInvalidEntry() {
+
+        when(reactivePatientNoteRepository.findById("1")).thenReturn(Mono.empty());
+
+        EntityExchangeResult<byte[]> result = webTestClient.get().uri("/patient/note/api/get/1")
+                .accept(MediaType.APPLICATION_JSON).exchange().expectBody().returnResult();
+
+        assertTrue(result.getStatus().value() == 404);
+    }
+
+    @Test
+    public void reactiveControllerGetsAllNotesForPatientAndAnswersConditionalFromVersions() {
+
+        PatientNote first = note("NOTE1", 1, "First");
+        PatientNote second = note("NOTE2", 1, "Second");
+        when(reactivePatientNoteRepository.findAllByPatId(1)).thenReturn(Flux.just(first, second));
+        when(reactivePatientNoteRepository.findVersionsByPatId(1)).thenReturn(Flux.just(second, first));
+
+        EntityExchangeResult<byte[]> result = webTestClient.get().uri("/patient/note/api/getbypatient/1")
+                .accept(MediaType.APPLICATION_JSON).exchange().expectBody().returnResult();
+        String etag = result.getResponseHeaders().getETag();
+        assertTrue(result.getStatus().value() == 200);
+
+        //Conditional request is answered without loading note bodies
+        patientNoteCache.invalidateAll();
+        result = webTestClient.get().uri("/patient/note/api/getbypatient/1")
+                .header(HttpHeaders.IF_NONE_MATCH, etag)
+                .accept(MediaType.APPLICATION_JSON).exchange().expectBody().returnResult();
+        assertTrue(result.getStatus().value() == 304);
+        Mockito.verify(reactivePatientNoteRepository, Mockito.times(1)).findAllByPatId(1);
+    }
+
+    @Test
+    public void reactiveCacheDoesNotKeepLoadInvalidatedBeforeItCompletes() {
+
+        CompletableFuture<List<PatientNote>> load = new CompletableFuture<>();
+        CompletableFuture<List<PatientNote>> first = patientNoteCache.findAllByPatIdAsync(1, () -> load);
+        CompletableFuture<List<PatientNote>> second = patientNoteCache.findAllByPatIdAsync(1, () -> {
+            throw new IllegalStateException("Second load started");
+        });
+
+        //A write to the patient's notes lands while the load is in flight
+        patientNoteCache.invalidate(1);
+        load.complete(Collections.singletonList(note("NOTE1", 1, "Before write")));
+
+        //Verify both callers shared the one load, and its result is not served to later requests
+        assertTrue(first.join().size() == 1);
+        assertTrue(second.join() == first.join());
+        assertNull(patientNoteCache.getIfPresent(1));
+    }
+
+    @Test
+    public void reactiveControllerInformsWhenPatientHasNoNotes() {
+
+        when(reactivePatientNoteRepository.findAllByPatId(7)).thenReturn(Flux.empty());
+
+        EntityExchangeResult<byte[]> result = webTestClient.get().uri("/patient/note/api/getbypatient/7")
+                .accept(MediaType.APPLICATION_JSON).exchange().expectBody().returnResult();
+
+        assertTrue(result.getStatus().value() == 404);
+    }
+
+    @Test
+    public void reactiveControllerAddsEntry() {
+
+        EntityExchangeResult<byte[]> result = webTestClient.post().uri("/patient/note/api/add")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"patId\": 1, \"note\": \"Test Note\"}")
+                .exchange().expectBody().returnResult();
+
+        //Verify entry is added to DB, and we get created response (201)
+        assertTrue(result.getStatus().value() == 201);
+        Mockito.verify(reactivePatientNoteRepository, Mockito.times(1)).save(any(PatientNote.class));
+    }
+
+    @Test
+    public void reactiveControllerAddIgnoresIdAndVersion() {
+
+        EntityExchangeResult<byte[]> result = webTestClient.post().uri("/patient/note/api/add")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"patientNoteId\": \"EXISTINGID\", \"version\": 3, \"patId\": 1, \"note\": \"Test Note\"}")
+                .exchange().expectBody().returnResult();
+
+        //Verify the note is inserted as a new note rather than replacing an existing one
+        assertTrue(result.getStatus().value() == 201);
+        Mockito.verify(reactivePatientNoteRepository, Mockito.times(1))
+                .save(Mockito.<PatientNote>argThat(note -> note.getPatientNoteId() == null && note.getVersion() == null));
+    }
+
+    @Test
+    public void reactiveControllerWillNotAddInvalidEntry() {
+
+        EntityExchangeResult<byte[]> result = webTestClient.post().uri("/patient/note/api/add")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"patId\": 1}")
+                .exchange().expectBody().returnResult();
+
+        //Verify entry is not added to DB, and we get failed response (400)
+        assertTrue(result.getStatus().value() == 400);
+        Mockito.verify(reactivePatientNoteRepository, Mockito.times(0)).save(any(PatientNote.class));
+    }
+
+    @Test
+    public void reactiveControllerUpdatesEntry() {
+
+        PatientNote existing = note("TESTID", 1, "Old");
+        existing.setCreatedAt(Instant.parse("2023-01-01T10:00:00Z"));
+        when(reactivePatientNoteRepository.updateFields(Mockito.eq("TESTID"), Mockito.isNull(), any())).thenReturn(Mono.just(existing));
+
+        EntityExchangeResult<byte[]> result = webTestClient.put().uri("/patient/note/api/update")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"patientNoteId\": \"TESTID\", \"patId\": 1, \"note\": \"New\"}")
+                .exchange().expectBody().returnResult();
+
+        //Verify note is updated in a single write, keeping its original creation time
+        assertTrue(result.getStatus().value() == 200);
+        assertTrue(new String(result.getResponseBody()).contains("2023-01-01T10:00:00Z"));
+        Mockito.verify(reactivePatientNoteRepository, Mockito.times(1))
+                .updateFields(Mockito.eq("TESTID"), Mockito.isNull(), Mockito.argThat(fields -> !fields.containsKey("createdAt")));
+        Mockito.verify(reactivePatientNoteRepository, Mockito.times(0)).save(any(PatientNote.class));
+        //Verify patient's term profile is updated
+        Mockito.verify(patientTermProfileRepository, Mockito.times(1)).recordNote(Mockito.eq(1), Mockito.eq("TESTID"), any(), any());
+    }
+
+    @Test
+    public void reactiveControllerDoesNotUpdateWithInvalidID() {
+
+        when(reactivePatientNoteRepository.updateFields(Mockito.eq("MISSING"), any(), any())).thenReturn(Mono.empty());
+        when(reactivePatientNoteRepository.existsById("MISSING")).thenReturn(Mono.just(false));
+
+        EntityExchangeResult<byte[]> result = webTestClient.put().uri("/patient/note/api/update")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"patientNoteId\": \"MISSING\", \"patId\": 1, \"note\": \"New\"}")
+                .exchange().expectBody().returnResult();
+
+        assertTrue(result.getStatus().value() == 404);
+        Mockito.verify(reactivePatientNoteRepository, Mockito.times(0)).save(any(PatientNote.class));
+    }
+
+    @Test
+    public void reactiveControllerPatchesStaleVersionWithConflict() {
+
+        when(reactivePatientNoteRepository.updateFields(Mockito.eq("TESTID"), Mockito.eq(1L), any())).thenReturn(Mono.empty());
+        when(reactivePatientNoteRepository.existsById("TESTID")).thenReturn(Mono.just(true));
+
+        EntityExchangeResult<byte[]> result = webTestClient.patch().uri("/patient/note/api/update/TESTID")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("{\"patId\": 2, \"version\": 1}")
+                .exchange().expectBody().returnResult();
+
+        //Verify only patId is set, and a changed note gets conflict response (409)
+        assertTrue(result.getStatus().value() == 409);
+        Mockito.verify(reactivePatientNoteRepository, Mockito.times(1)).updateFields(Mockito.eq("TESTID"), Mockito.eq(1L),
+                Mockito.argThat(fields -> fields.containsKey("patId") && !fields.containsKey("note")));
+    }
+
+    @Test
+    public void reactiveControllerBulkAddsNdjson() throws Exception {
+
+        when(patientNoteRepository.insertUnordered(any())).thenReturn(Collections.emptyMap());
+
+        String requestBody = "{\"patId\": 1, \"note\": \"First\"}\n" +
+                "{\"patId\": 1}\n" +
+                "{\"patId\": 2, \"note\": \"Second\"}\n";
+
+        EntityExchangeResult<byte[]> result = webTestClient.post().uri("/patient/note/api/bulk")
+                .contentType(MediaType.parseMediaType("application/x-ndjson"))
+                .bodyValue(requestBody)
+                .exchange().expectBody().returnResult();
+
+        //Verify report matches the servlet endpoint
+        assertTrue(result.getStatus().value() == 200);
+        JsonNode report = new ObjectMapper().readTree(result.getResponseBody());
+        assertEquals(3, report.get("received").asInt());
+        assertEquals(2, report.get("created").asInt());
+        assertEquals(1, report.get("invalid").asInt());
+    }
+
+    @Test
+    public void reactiveControllerBulkReadsJsonArrayAsItArrives() throws Exception {
+
+        when(patientNoteRepository.insertUnordered(any())).thenReturn(Collections.emptyMap());
+
+        // Array split into 7 byte buffers, so notes and strings are cut across buffers, then malformed at the end
+        byte[] requestBody = ("[{\"patId\": 1, \"note\": \"First état\"}, {\"patId\": \"x\"}, "
+                + "{\"patId\": 2, \"note\": \"Second\", \"extra\": [1, {\"a\": 2}]}, {\"patId\": 3,,")
+                .getBytes(StandardCharsets.UTF_8);
+        DefaultDataBufferFactory bufferFactory = new DefaultDataBufferFactory();
+        Flux<DataBuffer> buffers = Flux.range(0, (requestBody.length + 6) / 7)
+                .map(i -> bufferFactory.wrap(Arrays.copyOfRange(requestBody, i * 7, Math.min(requestBody.length, i * 7 + 7))));
+
+        EntityExchangeResult<byte[]> result = webTestClient.post().uri("/patient/note/api/bulk")
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(buffers, DataBuffer.class)
+                .exchange().expectBody().returnResult();
+
+        //Verify each note is read across buffer boundaries, and reading stops at the malformed note
+        assertTrue(result.getStatus().value() == 200);
+        JsonNode report = new ObjectMapper().readTree(result.getResponseBody());
+        assertEquals(4, report.get("received").asInt());
+        assertEquals(2, report.get("created").asInt());
+        assertEquals(2, report.get("invalid").asInt());
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<List<PatientNote>> written = ArgumentCaptor.forClass(List.class);
+        Mockito.verify(patientNoteRepository, Mockito.times(1)).insertUnordered(written.capture());
+        assertEquals("First état", written.getValue().get(0).getNote());
+        assertEquals("Second", written.getValue().get(1).getNote());
+    }
+
+    @Test
+    public void reactiveControllerExportsNotesAsNdjson() {
+
+        when(reactivePatientNoteRepository.streamAllByOrderByPatientNoteIdAsc())
+                .thenReturn(Flux.just(note("NOTE1", 1, "First"), note("NOTE2", 2, "Second")));
+
+        EntityExchangeResult<byte[]> result = webTestClient.get().uri("/patient/note/api/export")
+                .accept(MediaType.parseMediaType("application/x-ndjson"))
+                .exchange().expectBody().returnResult();
+
+        String[] lines = new String(result.getResponseBody(), StandardCharsets.UTF_8).trim().split("\n");
+        assertTrue(result.getStatus().value() == 200);
+        assertEquals(2, lines.length);
+    }
+
+    @Test
+    public void reactiveControllerRetroGetsNotesAsJsonByDefaultAndCborOnRequest() throws Exception {
+
+        when(reactivePatientNoteRepository.findAllByPatId(1)).thenReturn(Flux.just(note("NOTE1", 1, "First")));
+
+        EntityExchangeResult<byte[]> result = webTestClient.get().uri("/patient/note/api/retro/getbypatient/1")
+                .accept(MediaType.ALL).exchange().expectBody().returnResult();
+        assertTrue(result.getStatus().value() == 200);
+        assertTrue(result.getResponseHeaders().getContentType().isCompatibleWith(MediaType.APPLICATION_JSON));
+
+        result = webTestClient.get().uri("/patient/note/api/retro/getbypatient/1")
+                .accept(MediaType.APPLICATION_CBOR).exchange().expectBody().returnResult();
+        assertTrue(result.getStatus().value() == 200);
+        JsonNode notes = new CBORMapper().readTree(result.getResponseBody());
+        assertEquals("First", notes.get(0).get("note").asText());
+    }
+
+    @Test
+    public void reactiveControllerGetListPageUsesKeysetPaging() {
+
+        when(reactivePatientNoteRepository.findSummaries(Mockito.isNull(), Mockito.eq(3), anyInt()))
+                .thenReturn(Flux.just(new PatientNoteSummary("NOTEID0", 1, "A", false),
+                        new PatientNoteSummary("NOTEID1", 1, "B", false), new PatientNoteSummary("NOTEID2", 1, "C", false)));
+
+        EntityExchangeResult<byte[]> result = webTestClient.get().uri("/patient/note/list?size=2")
+                .exchange().expectBody().returnResult();
+
+        //Verify page renders with a link to the following page
+        String page = new String(result.getResponseBody(), StandardCharsets.UTF_8);
+        assertTrue(result.getStatus().value() == 200);
+        assertTrue(page.contains("after=NOTEID1"));
+    }
+
+    @Test
+    public void reactiveControllerViewAllShowsNotePreviews() {
+
+        when(reactivePatientNoteRepository.findSummariesByPatId(Mockito.eq(1), anyInt()))
+                .thenReturn(Flux.just(new PatientNoteSummary("NOTEID", 1, "Patient reports", true)));
+
+        EntityExchangeResult<byte[]> result = webTestClient.get().uri("/patient/note/viewall/1")
+                .exchange().expectBody().returnResult();
+
+        //Verify note previews are shown without loading note bodies
+        String page = new String(result.getResponseBody(), StandardCharsets.UTF_8);
+        assertTrue(result.getStatus().value() == 200);
+        assertTrue(page.contains("Patient reports..."));
+        Mockito.verify(reactivePatientNoteRepository, Mockito.times(0)).findAllByPatId(1);
+    }
+
+    @Test
+    public void reactiveControllerAddFormUsesNonBlockingPatientIndex() {
+
+        EntityExchangeResult<byte[]> result = webTestClient.get().uri("/patient/note/add")
+                .exchange().expectBody().returnResult();
+
+        String page = new String(result.getResponseBody(), StandardCharsets.UTF_8);
+        assertTrue(result.getStatus().value() == 200);
+        assertTrue(page.contains("Test Patient"));
+        Mockito.verify(patientRemote, Mockito.times(1)).getPatientIndex();
+    }
+
+    @Test
+    public void reactiveControllerValidatesAndAddsEntryFromForm() {
+
+        EntityExchangeResult<byte[]> result = webTestClient.post().uri("/patient/note/validate")
+                .body(BodyInserters.fromFormData("patId", "1").with("note", "Form note"))
+                .exchange().expectBody().returnResult();
+
+        //Verify entry is saved and we are redirected to list page
+        assertTrue(result.getStatus().is3xxRedirection());
+        assertEquals("/patient/note/list", result.getResponseHeaders().getLocation().toString());
+        Mockito.verify(reactivePatientNoteRepository, Mockito.times(1)).save(any(PatientNote.class));
+    }
+
+    @Test
+    public void reactiveControllerReturnsToFormForInvalidEntry() {
+
+        EntityExchangeResult<byte[]> result = webTestClient.post().uri("/patient/note/validate")
+                .body(BodyInserters.fromFormData("patId", "1"))
+                .exchange().expectBody().returnResult();
+
+        assertTrue(result.getStatus().value() == 200);
+        Mockito.verify(reactivePatientNoteRepository, Mockito.times(0)).save(any(PatientNote.class));
+    }
+
+    @Test
+    public void reactiveControllerSearchesNotes() throws Exception {
+
+        when(patientNoteRepository.findAllBy(any(TextCriteria.class), any(Pageable.class)))
+                .thenReturn(new PageImpl<>(Collections.singletonList(note("NOTEID", 1, "Smoker"))));
+
+        EntityExchangeResult<byte[]> result = webTestClient.get().uri("/patient/note/api/search?q=Smoker")
+                .exchange().expectBody().returnResult();
+
+        assertTrue(result.getStatus().value() == 200);
+        JsonNode body = new ObjectMapper().readTree(result.getResponseBody());
+        assertEquals("NOTEID", body.get("hits").get(0).get("patientNoteId").asText());
+    }
+
+    @Test
+    public void reactiveControllerRetroCountsTriggerTerms() throws Exception {
+
+        PatientNote stale = note("NOTEID", 1, "Dizziness and dizziness");
+        when(patientNoteRepository.findTriggerTermsByPatId(1)).thenReturn(List.of(stale));
+        when(patientNoteRepository.findAllById(List.of("NOTEID"))).thenReturn(List.of(stale));
+
+        EntityExchangeResult<byte[]> result = webTestClient.get().uri("/patient/note/api/retro/triggers/1")
+                .accept(MediaType.APPLICATION_CBOR).exchange().expectBody().returnResult();
+
+        assertTrue(result.getStatus().value() == 200);
+        JsonNode counts = new CBORMapper().readTree(result.getResponseBody());
+        assertEquals(2, counts.get("terms").get("Dizziness").asInt());
+    }
+
+    @Test
+    public void reactiveControllerRetroGetsManyPatientsNotesGroupedByPatient() throws Exception {
+
+        when(reactivePatientNoteRepository.findAllByPatIdIn(any()))
+                .thenReturn(Flux.just(note("A", 1, "A"), note("B", 1, "B"), note("C", 2, "C")));
+
+        EntityExchangeResult<byte[]> result = webTestClient.post().uri("/patient/note/api/retro/getbypatients")
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue("[1, 2, 3]")
+                .exchange().expectBody().returnResult();
+
+        assertTrue(result.getStatus().value() == 200);
+        String[] lines = new String(result.getResponseBody(), StandardCharsets.UTF_8).split("\n");
+        assertEquals(3, lines.length);
+        ObjectMapper mapper = new ObjectMapper();
+        assertEquals(2, mapper.readTree(lines[0]).get("notes").size());
+        assertEquals(0, mapper.readTree(lines[2]).get("notes").size());
+    }
+
+}
@@ -0,0 +1,87 @@
+package com.abernathy.patienthistory.benchmark;
+
+import com.abernathy.patienthistory.repository.PatientNoteRepository;
+import com.abernathy.patienthistory.service.PatientNoteService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+/**
+ * Integration benchmark comparing bulk note ingestion with the single note API
+ *
+ * Requires the test Mongo instance from application-test.properties
+ * Number of notes can be set with -Dbenchmark.notes=5000
+ */
+@ExtendWith(SpringExtension.class)
+@SpringBootTest
+@AutoConfigureMockMvc
+@TestPropertySource(
+        locations = "classpath:application-test.properties")
+public class BulkIngestThroughputIT {
+
+    // Patient IDs used to tag benchmark notes so they can be removed afterwards
+    private static final int SINGLE_PAT_ID = 525252;
+
+    private static final int BULK_PAT_ID = 535353;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private PatientNoteRepository patientNoteRepository;
+
+    @AfterEach
+    public void cleanup() {
+        patientNoteRepository.deleteAll(patientNoteRepository.findAllByPatId(SINGLE_PAT_ID));
+        patientNoteRepository.deleteAll(patientNoteRepository.findAllByPatId(BULK_PAT_ID));
+    }
+
+    @Test
+    public void bulkIngestOutperformsSingleNoteApi() throws Exception {
+
+        int count = Integer.getInteger("benchmark.notes", 5000);
+
+        long start = System.nanoTime();
+        for (int i = 0; i < count; i++) {
+            mockMvc.perform(post("/patient/note/api/add")
+                    .contentType(MediaType.APPLICATION_JSON)
+                    .content(noteJson(SINGLE_PAT_ID, i))
+                    .accept(MediaType.ALL)).andReturn();
+        }
+        double singleSeconds = (System.nanoTime() - start) / 1e9;
+
+        StringBuilder ndjson = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            ndjson.append(noteJson(BULK_PAT_ID, i)).append('\n');
+        }
+        start = System.nanoTime();
+        mockMvc.perform(post("/patient/note/api/bulk")
+                .contentType(PatientNoteService.NDJSON)
+                .content(ndjson.toString())
+                .accept(MediaType.ALL)).andReturn();
+        double bulkSeconds = (System.nanoTime() - start) / 1e9;
+
+        System.out.printf("single note api: %d notes in %.2f s (%.0f notes/s)%n", count, singleSeconds, count / singleSeconds);
+        System.out.printf("bulk api:        %d notes in %.2f s (%.0f notes/s)%n", count, bulkSeconds, count / bulkSeconds);
+
+        //Verify every note was written and bulk ingestion is faster
+        assertEquals(count, patientNoteRepository.findAllByPatId(BULK_PAT_ID).size());
+        assertTrue(bulkSeconds < singleSeconds);
+    }
+
+    private String noteJson(int patId, int i) {
+        return "{\"patId\": " + patId + ", \"note\": \"Historical clinic note " + i + "\"}";
+    }
+
+}
@@ -0,0 +1,201 @@
+package com.abernathy.patienthistory.benchmark;
+
+import com.abernathy.patienthistory.domain.PatientNote;
+import com.abernathy.patienthistory.repository.PatientNoteRepository;
+import org.junit.jupiter.api.Test;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Self-contained end to end load test
+ * Runs the application against an in-process Mongo and a stub patient service, see LoadTestEnvironment,
+ * so no external services are needed
+ * Replays a weighted mix of UI and API calls and reports throughput, p50/p95/p99 latency per call
+ * and the allocation rate of the JVM while under load
+ * The in-process Mongo does not use secondary indexes, so results are for comparing runs rather than production figures
+ *
+ * Run with mvn test -Ploadtest
+ * Load can be set with -Dloadtest.concurrency=64 -Dloadtest.requests=20000 -Dloadtest.patients=100
+ * -Dloadtest.notes-per-patient=10 -Dloadtest.patient-delay-ms=0
+ * and the mix with -Dloadtest.mix=api-get=20,ui-list=10 using the call names in CALLS
+ */
+public class EndToEndLoadIT {
+
+    private static final String DEFAULT_MIX = "api-get=20,api-patient=20,api-retro=15,api-triggers=10,api-add=5,"
+            + "ui-list=10,ui-view=10,ui-patient=5,ui-add=5";
+
+    private static final String[] TERMS = {"Hemoglobin A1C", "Microalbumin", "Smoker", "Abnormal", "Cholesterol", "Dizziness"};
+
+    private static final int WARMUP_REQUESTS = 2000;
+
+    private final int concurrency = Integer.getInteger("loadtest.concurrency", 64);
+
+    private final int requests = Integer.getInteger("loadtest.requests", 20000);
+
+    private final int patients = Integer.getInteger("loadtest.patients", 100);
+
+    private final int notesPerPatient = Integer.getInteger("loadtest.notes-per-patient", 10);
+
+    private final long patientDelayMs = Long.getLong("loadtest.patient-delay-ms", 0);
+
+    private final String mix = System.getProperty("loadtest.mix", DEFAULT_MIX);
+
+    private String baseUrl;
+
+    private List<String> noteIds;
+
+    @Test
+    public void mixedLoadIsServedWithoutErrors() throws Exception {
+        ExecutorService clientExecutor = Executors.newFixedThreadPool(4);
+        try (LoadTestEnvironment environment = new LoadTestEnvironment(patients, patientDelayMs)) {
+            baseUrl = environment.getBaseUrl();
+            noteIds = seed(environment.getContext().getBean(PatientNoteRepository.class));
+
+            List<String> schedule = schedule(parseMix(mix));
+            IntFunction<HttpRequest> request = n -> call(schedule.get(n % schedule.size()), n);
+            HttpClient client = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .executor(clientExecutor)
+                    .build();
+
+            HttpLoad.send(client, concurrency, WARMUP_REQUESTS, request);
+
+            com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+            long allocatedBefore = threadBean.getTotalThreadAllocatedBytes();
+            long[] gcBefore = gcCountAndTime();
+            long start = System.nanoTime();
+            long[] nanos = HttpLoad.send(client, concurrency, requests, request);
+            double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+            long allocated = threadBean.getTotalThreadAllocatedBytes() - allocatedBefore;
+            long[] gcAfter = gcCountAndTime();
+
+            System.out.printf("end to end load: %d requests, concurrency %d, %.0f req/s%n", requests, concurrency, requests / seconds);
+            System.out.printf("%-14s %8s %10s %10s %10s%n", "call", "requests", "p50 ms", "p95 ms", "p99 ms");
+            Map<String, List<Long>> byCall = new LinkedHashMap<>();
+            for (int n = 0; n < requests; n++) {
+                byCall.computeIfAbsent(schedule.get(n % schedule.size()), call -> new ArrayList<>()).add(nanos[n]);
+            }
+            byCall.forEach((call, latencies) -> report(call, latencies.stream().mapToLong(Long::longValue).toArray()));
+            report("all", nanos);
+            // Includes the load client running in the same JVM
+            System.out.printf("allocation %.1f MB/s, %.1f KB/request, %d GCs taking %d ms%n",
+                    allocated / seconds / (1024 * 1024), allocated / (double) requests / 1024,
+                    gcAfter[0] - gcBefore[0], gcAfter[1] - gcBefore[1]);
+
+            assertTrue(requests / seconds > 0);
+        } finally {
+            clientExecutor.shutdownNow();
+        }
+    }
+
+    private List<String> seed(PatientNoteRepository repository) {
+        List<PatientNote> notes = new ArrayList<>();
+        for (int patId = 1; patId <= patients; patId++) {
+            for (int i = 0; i < notesPerPatient; i++) {
+                notes.add(note(patId, i));
+            }
+        }
+        List<String> ids = new ArrayList<>();
+        for (PatientNote saved : repository.saveAll(notes)) {
+            ids.add(saved.getPatientNoteId());
+        }
+        return ids;
+    }
+
+    private HttpRequest call(String call, int n) {
+        String noteId = noteIds.get(n % noteIds.size());
+        int patId = n % patients + 1;
+        switch (call) {
+            case "api-get":
+                return get("/patient/note/api/get/" + noteId);
+            case "api-patient":
+                return get("/patient/note/api/getbypatient/" + patId);
+            case "api-retro":
+                return get("/patient/note/api/retro/getbypatient/" + patId);
+            case "api-triggers":
+                return get("/patient/note/api/retro/triggers/" + patId);
+            case "api-add":
+                String body = "{\"patId\":" + patId + ",\"note\":\"" + note(patId, n).getNote() + "\"}";
+                return HttpRequest.newBuilder(URI.create(baseUrl + "/patient/note/api/add"))
+                        .header("Content-Type", "application/json")
+                        .POST(HttpRequest.BodyPublishers.ofString(body))
+                        .build();
+            case "ui-list":
+                return get("/patient/note/list");
+            case "ui-view":
+                return get("/patient/note/view/" + noteId);
+            case "ui-patient":
+                return get("/patient/note/viewall/" + patId);
+            case "ui-add":
+                return get("/patient/note/add");
+            default:
+                throw new IllegalArgumentException("Unknown load test call: " + call);
+        }
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path)).build();
+    }
+
+    private static PatientNote note(int patId, int i) {
+        PatientNote note = new PatientNote();
+        note.setPatId(patId);
+        note.setNote("Load test note " + i + " for patient " + patId + ", reports " + TERMS[i % TERMS.length]
+                + " and " + TERMS[(patId + i) % TERMS.length]);
+        return note;
+    }
+
+    private static Map<String, Integer> parseMix(String mix) {
+        Map<String, Integer> weights = new LinkedHashMap<>();
+        for (String entry : mix.split(",")) {
+            String[] call = entry.trim().split("=");
+            weights.put(call[0], call.length > 1 ? Integer.parseInt(call[1]) : 1);
+        }
+        return weights;
+    }
+
+    // Interleaves calls by weight, so every stretch of requests carries the whole mix
+    private static List<String> schedule(Map<String, Integer> weights) {
+        List<String> schedule = new ArrayList<>();
+        Map<String, Integer> remaining = new LinkedHashMap<>(weights);
+        while (remaining.values().stream().anyMatch(weight -> weight > 0)) {
+            remaining.replaceAll((call, weight) -> {
+                if (weight > 0) {
+                    schedule.add(call);
+                }
+                return weight - 1;
+            });
+        }
+        return schedule;
+    }
+
+    private static void report(String call, long[] nanos) {
+        Arrays.sort(nanos);
+        System.out.printf("%-14s %8d %10.3f %10.3f %10.3f%n", call, nanos.length,
+                HttpLoad.percentileMs(nanos, 0.5), HttpLoad.percentileMs(nanos, 0.95), HttpLoad.percentileMs(nanos, 0.99));
+    }
+
+    private static long[] gcCountAndTime() {
+        long[] totals = new long[2];
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            totals[0] += Math.max(0, gc.getCollectionCount());
+            totals[1] += Math.max(0, gc.getCollectionTime());
+        }
+        return totals;
+    }
+
+}
@@ -0,0 +1,97 @@
+package com.abernathy.patienthistory.benchmark;
+
+import com.abernathy.patienthistory.repository.PatientNoteRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntFunction;
+
+/**
+ * Integration load test comparing execution modes on GET /patient/note/api/getbypatient/{id}
+ * Runs platform threads (Tomcat pool), virtual threads and the reactive profile, stepping up concurrency,
+ * and reports the highest concurrency each mode sustains before p99 latency exceeds the degrade factor
+ * times its p99 at the lowest level. The note cache is disabled so every request reaches Mongo
+ *
+ * Requires the test Mongo instance from application-test.properties
+ * Levels can be set with -Dloadtest.levels=16,64,256,512,1024 -Dloadtest.requests-per-level=5000 -Dloadtest.degrade-factor=4
+ */
+public class ExecutionModeLoadIT {
+
+    // Patient IDs used to tag load test notes so they can be removed afterwards
+    private static final int LOADTEST_FIRST_PAT_ID = 434400;
+
+    private static final int LOADTEST_PATIENTS = 20;
+
+    private static final int NOTES_PER_PATIENT = 10;
+
+    private static final int WARMUP_REQUESTS = 2000;
+
+    private final String[] levels = System.getProperty("loadtest.levels", "16,64,256,512,1024").split(",");
+
+    private final int requestsPerLevel = Integer.getInteger("loadtest.requests-per-level", 5000);
+
+    private final double degradeFactor = Double.parseDouble(System.getProperty("loadtest.degrade-factor", "4"));
+
+    @Test
+    public void compareExecutionModes() throws Exception {
+        int platform = run("platform", null, "--patient.execution.virtual-threads=false");
+        int virtual = run("virtual", null, "--patient.execution.virtual-threads=true");
+        int reactive = run("reactive", "reactive");
+        System.out.printf("sustained concurrency platform %d, virtual %d, reactive %d%n", platform, virtual, reactive);
+    }
+
+    private int run(String mode, String profile, String... args) throws Exception {
+        ExecutorService clientExecutor = Executors.newFixedThreadPool(4);
+        String[] arguments = new String[args.length + 1];
+        System.arraycopy(args, 0, arguments, 0, args.length);
+        arguments[args.length] = "--patient.note.cache.max-size=0";
+        try (ConfigurableApplicationContext context = HttpLoad.start(profile, arguments)) {
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            PatientNoteRepository repository = context.getBean(PatientNoteRepository.class);
+            for (int p = 0; p < LOADTEST_PATIENTS; p++) {
+                HttpLoad.seed(repository, LOADTEST_FIRST_PAT_ID + p, NOTES_PER_PATIENT);
+            }
+            IntFunction<URI> uri = n -> URI.create("http://localhost:" + port
+                    + "/patient/note/api/getbypatient/" + (LOADTEST_FIRST_PAT_ID + n % LOADTEST_PATIENTS));
+            try {
+                HttpClient client = HttpClient.newBuilder()
+                        .version(HttpClient.Version.HTTP_1_1)
+                        .executor(clientExecutor)
+                        .build();
+
+                HttpLoad.load(client, Integer.parseInt(levels[0].trim()), WARMUP_REQUESTS, uri);
+                double baselineP99 = -1;
+                int sustained = 0;
+                for (String level : levels) {
+                    int concurrency = Integer.parseInt(level.trim());
+                    long start = System.nanoTime();
+                    long[] nanos = HttpLoad.load(client, concurrency, requestsPerLevel, uri);
+                    double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+                    double p99 = HttpLoad.percentileMs(nanos, 0.99);
+                    if (baselineP99 < 0) {
+                        baselineP99 = p99;
+                    }
+                    System.out.printf("%-8s concurrency %5d: %.0f req/s, p50 %.3f ms, p99 %.3f ms%n",
+                            mode, concurrency, requestsPerLevel / seconds, HttpLoad.percentileMs(nanos, 0.5), p99);
+                    if (p99 > baselineP99 * degradeFactor) {
+                        break;
+                    }
+                    sustained = concurrency;
+                }
+                return sustained;
+            } finally {
+                for (int p = 0; p < LOADTEST_PATIENTS; p++) {
+                    repository.deleteAll(repository.findAllByPatId(LOADTEST_FIRST_PAT_ID + p));
+                }
+            }
+        } finally {
+            clientExecutor.shutdownNow();
+        }
+    }
+
+}
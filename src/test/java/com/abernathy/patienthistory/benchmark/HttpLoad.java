@@ -0,0 +1,136 @@
+package com.abernathy.patienthistory.benchmark;
+
+import com.abernathy.patienthistory.PatienthistoryApplication;
+import com.abernathy.patienthistory.domain.PatientNote;
+import com.abernathy.patienthistory.repository.PatientNoteRepository;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Shared helpers for the load integration tests: starting the application, seeding notes and firing concurrent requests
+ */
+class HttpLoad {
+
+    private HttpLoad() {
+    }
+
+    /**
+     * Method to start the application on a random port against the test Mongo instance
+     * Settings are passed as arguments so they override application.properties
+     *
+     * @param profile profile to activate, or null for the default servlet stack
+     * @param args additional --name=value settings
+     * @return ConfigurableApplicationContext
+     */
+    static ConfigurableApplicationContext start(String profile, String... args) {
+        SpringApplicationBuilder builder = new SpringApplicationBuilder(PatienthistoryApplication.class);
+        if (profile != null) {
+            builder.profiles(profile);
+        }
+        List<String> arguments = new ArrayList<>(Arrays.asList("--server.port=0",
+                "--spring.config.additional-location=classpath:application-test.properties",
+                "--patient.note.migration.enabled=false"));
+        arguments.addAll(Arrays.asList(args));
+        return builder.run(arguments.toArray(new String[0]));
+    }
+
+    /**
+     * Method to save load test notes for a patient
+     *
+     * @param repository PatientNoteRepository
+     * @param patId patient ID to tag the notes with
+     * @param count number of notes
+     * @return ids of the saved notes
+     */
+    static List<String> seed(PatientNoteRepository repository, int patId, int count) {
+        List<PatientNote> notes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            PatientNote patientNote = new PatientNote();
+            patientNote.setPatId(patId);
+            patientNote.setNote("Load test note " + i);
+            notes.add(patientNote);
+        }
+        List<String> ids = new ArrayList<>();
+        for (PatientNote saved : repository.saveAll(notes)) {
+            ids.add(saved.getPatientNoteId());
+        }
+        return ids;
+    }
+
+    /**
+     * Method to send count GET requests with at most concurrency in flight, asserting every one succeeds
+     *
+     * @param client HttpClient
+     * @param concurrency maximum requests in flight
+     * @param count number of requests
+     * @param uri request URI for the n-th request
+     * @return per request latency in nanoseconds, sorted
+     */
+    static long[] load(HttpClient client, int concurrency, int count, IntFunction<URI> uri) throws InterruptedException {
+        long[] nanos = send(client, concurrency, count, n -> HttpRequest.newBuilder(uri.apply(n)).build());
+        Arrays.sort(nanos);
+        return nanos;
+    }
+
+    /**
+     * Method to send count requests with at most concurrency in flight, asserting every one returns a 2xx status
+     *
+     * @param client HttpClient
+     * @param concurrency maximum requests in flight
+     * @param count number of requests
+     * @param request the n-th request
+     * @return latency in nanoseconds of the n-th request, in request order
+     */
+    static long[] send(HttpClient client, int concurrency, int count, IntFunction<HttpRequest> request) throws InterruptedException {
+        long[] nanos = new long[count];
+        Semaphore inFlight = new Semaphore(concurrency);
+        CountDownLatch done = new CountDownLatch(count);
+        AtomicInteger failures = new AtomicInteger();
+
+        for (int i = 0; i < count; i++) {
+            inFlight.acquire();
+            int n = i;
+            HttpRequest httpRequest = request.apply(n);
+            long start = System.nanoTime();
+            client.sendAsync(httpRequest, HttpResponse.BodyHandlers.discarding()).whenComplete((response, error) -> {
+                nanos[n] = System.nanoTime() - start;
+                if (error != null || response.statusCode() / 100 != 2) {
+                    failures.incrementAndGet();
+                }
+                inFlight.release();
+                done.countDown();
+            });
+        }
+        done.await();
+
+        assertEquals(0, failures.get(), "requests failed under load");
+        return nanos;
+    }
+
+    /**
+     * Method to read a percentile in milliseconds from sorted latencies
+     *
+     * @param sortedNanos latencies from load
+     * @param percentile between 0 and 1
+     * @return latency in ms
+     */
+    static double percentileMs(long[] sortedNanos, double percentile) {
+        int index = Math.min(sortedNanos.length - 1, (int) (sortedNanos.length * percentile));
+        return sortedNanos[index] / 1_000_000.0;
+    }
+
+}
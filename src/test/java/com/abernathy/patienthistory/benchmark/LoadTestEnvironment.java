@@ -0,0 +1,129 @@
+package com.abernathy.patienthistory.benchmark;
+
+import com.abernathy.patienthistory.PatienthistoryApplication;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import com.sun.net.httpserver.HttpServer;
+import de.bwaldvogel.mongo.MongoServer;
+import de.bwaldvogel.mongo.backend.memory.MemoryBackend;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Self-contained environment for the end to end load test
+ * Starts an in-process Mongo, a stub patient service answering /patient/api/retro/get/index,
+ * and the application on a random port with the loadtest profile, wired to both
+ */
+class LoadTestEnvironment implements AutoCloseable {
+
+    private final MongoServer mongoServer;
+
+    private final MongoClient mongoClient;
+
+    private final HttpServer patientService;
+
+    private final ExecutorService patientServiceExecutor;
+
+    private final AtomicLong patientDelayMs;
+
+    private final ConfigurableApplicationContext context;
+
+    /**
+     * Method to start the environment
+     *
+     * @param patients number of patients in the stub patient index, with IDs 1 to patients
+     * @param patientDelayMs delay added to every patient service response, to mimic a remote service
+     * @param args additional --name=value settings for the application
+     */
+    LoadTestEnvironment(int patients, long patientDelayMs, String... args) throws IOException {
+        mongoServer = new MongoServer(new MemoryBackend());
+        InetSocketAddress mongoAddress = mongoServer.bind();
+        // Supplied as a bean so Spring Boot does not apply the credentials from application.properties
+        mongoClient = MongoClients.create("mongodb://localhost:" + mongoAddress.getPort());
+
+        patientServiceExecutor = Executors.newFixedThreadPool(4);
+        this.patientDelayMs = new AtomicLong(patientDelayMs);
+        patientService = startPatientService(patients);
+
+        String[] arguments = new String[args.length + 2];
+        arguments[0] = "--server.port=0";
+        arguments[1] = "--docker.patient.port=" + patientService.getAddress().getPort();
+        System.arraycopy(args, 0, arguments, 2, args.length);
+        context = new SpringApplicationBuilder(PatienthistoryApplication.class)
+                .profiles("loadtest")
+                .initializers(applicationContext -> applicationContext.getBeanFactory().registerSingleton("mongoClient", mongoClient))
+                .run(arguments);
+    }
+
+    /**
+     * Method to change the delay added to patient service responses while the test runs
+     *
+     * @param delayMs delay in milliseconds
+     */
+    void setPatientDelayMs(long delayMs) {
+        patientDelayMs.set(delayMs);
+    }
+
+    ConfigurableApplicationContext getContext() {
+        return context;
+    }
+
+    /**
+     * Method to get the base URL of the running application
+     *
+     * @return base URL, without trailing slash
+     */
+    String getBaseUrl() {
+        return "http://localhost:" + ((WebServerApplicationContext) context).getWebServer().getPort();
+    }
+
+    @Override
+    public void close() {
+        context.close();
+        patientService.stop(0);
+        patientServiceExecutor.shutdownNow();
+        mongoClient.close();
+        mongoServer.shutdownNow();
+    }
+
+    private HttpServer startPatientService(int patients) throws IOException {
+        StringBuilder index = new StringBuilder("{");
+        for (int patId = 1; patId <= patients; patId++) {
+            index.append(patId == 1 ? "" : ",").append('"').append(patId).append("\":\"Patient ").append(patId).append('"');
+        }
+        byte[] body = index.append('}').toString().getBytes(StandardCharsets.UTF_8);
+
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/patient/api/retro/get/index", exchange -> {
+            try {
+                long delayMs = patientDelayMs.get();
+                if (delayMs > 0) {
+                    Thread.sleep(delayMs);
+                }
+                exchange.getResponseHeaders().set("Content-Type", "application/json");
+                exchange.sendResponseHeaders(200, body.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(body);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                exchange.sendResponseHeaders(503, -1);
+            } finally {
+                exchange.close();
+            }
+        });
+        server.setExecutor(patientServiceExecutor);
+        server.start();
+        return server;
+    }
+
+}
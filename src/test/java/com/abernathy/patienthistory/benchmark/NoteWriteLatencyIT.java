@@ -0,0 +1,105 @@
+package com.abernathy.patienthistory.benchmark;
+
+import com.abernathy.patienthistory.domain.PatientNote;
+import com.abernathy.patienthistory.repository.PatientNoteRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+import org.springframework.test.web.servlet.MockMvc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+
+/**
+ * Integration benchmark for the UI write path
+ * Measures latency of /patient/note/validate as the notes collection grows
+ *
+ * Requires the test Mongo instance from application-test.properties
+ * Collection sizes can be set with -Dbenchmark.sizes=100,1000,10000
+ */
+@ExtendWith(SpringExtension.class)
+@SpringBootTest
+@AutoConfigureMockMvc
+@TestPropertySource(
+        locations = "classpath:application-test.properties")
+public class NoteWriteLatencyIT {
+
+    // Patient ID used to tag benchmark notes so they can be removed afterwards
+    private static final int BENCHMARK_PAT_ID = 424242;
+
+    private static final int WARMUP_WRITES = 20;
+
+    private static final int MEASURED_WRITES = 200;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @Autowired
+    private PatientNoteRepository patientNoteRepository;
+
+    @AfterEach
+    public void cleanup() {
+        patientNoteRepository.deleteAll(patientNoteRepository.findAllByPatId(BENCHMARK_PAT_ID));
+    }
+
+    @Test
+    public void writeLatencyDoesNotGrowWithCollectionSize() throws Exception {
+
+        int[] sizes = Arrays.stream(System.getProperty("benchmark.sizes", "100,1000,10000").split(","))
+                .mapToInt(Integer::parseInt).toArray();
+
+        double[] medians = new double[sizes.length];
+        int seeded = 0;
+        for (int i = 0; i < sizes.length; i++) {
+            seed(sizes[i] - seeded);
+            seeded = sizes[i];
+
+            for (int w = 0; w < WARMUP_WRITES; w++) {
+                write();
+            }
+            long[] nanos = new long[MEASURED_WRITES];
+            for (int w = 0; w < MEASURED_WRITES; w++) {
+                long start = System.nanoTime();
+                write();
+                nanos[w] = System.nanoTime() - start;
+            }
+            Arrays.sort(nanos);
+            medians[i] = nanos[nanos.length / 2] / 1_000_000.0;
+            System.out.printf("collection size %7d: p50 %.3f ms, p95 %.3f ms%n", sizes[i],
+                    medians[i], nanos[(int) (nanos.length * 0.95)] / 1_000_000.0);
+        }
+
+        //Verify write latency at largest collection size stays close to latency at smallest
+        assertTrue(medians[sizes.length - 1] <= medians[0] * 3 + 2,
+                "write latency grew with collection size: " + Arrays.toString(medians));
+    }
+
+    private void seed(int count) {
+        List<PatientNote> notes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            PatientNote patientNote = new PatientNote();
+            patientNote.setPatId(BENCHMARK_PAT_ID);
+            patientNote.setNote("Seeded benchmark note " + i);
+            notes.add(patientNote);
+        }
+        patientNoteRepository.saveAll(notes);
+    }
+
+    private void write() throws Exception {
+        mockMvc.perform(post("/patient/note/validate")
+                .param("patId", String.valueOf(BENCHMARK_PAT_ID))
+                .param("note", "Benchmark note")
+                .accept(MediaType.ALL)).andReturn();
+    }
+
+}
@@ -0,0 +1,102 @@
+package com.abernathy.patienthistory.benchmark;
+
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import org.junit.jupiter.api.Test;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Integration test showing the note service keeps its throughput while the patient service degrades
+ * Runs the self-contained LoadTestEnvironment, measures throughput of add note form and API calls with a healthy
+ * patient service stub, then slows the stub beyond the client timeouts and measures again
+ * While the patient service is slow, add note forms are served the last patient index loaded and the circuit breaker opens
+ *
+ * Run with mvn test -Ploadtest -Dtest=PatientServiceDegradationIT
+ * Load can be set with -Dloadtest.concurrency=16 -Dloadtest.requests=4000 -Dloadtest.slow-patient-delay-ms=3000
+ */
+public class PatientServiceDegradationIT {
+
+    private static final int PATIENTS = 100;
+
+    private static final int WARMUP_REQUESTS = 1000;
+
+    private final int concurrency = Integer.getInteger("loadtest.concurrency", 16);
+
+    private final int requests = Integer.getInteger("loadtest.requests", 4000);
+
+    private final long slowPatientDelayMs = Long.getLong("loadtest.slow-patient-delay-ms", 3000);
+
+    private String baseUrl;
+
+    @Test
+    public void throughputStaysFlatWhilePatientServiceDegrades() throws Exception {
+        ExecutorService clientExecutor = Executors.newFixedThreadPool(4);
+        // Short TTL and timeouts so the index is reloaded, and the circuit opens, within the test run
+        try (LoadTestEnvironment environment = new LoadTestEnvironment(PATIENTS, 0,
+                "--patient.remote.index.ttl-ms=100",
+                "--patient.remote.index.refresh-ms=100",
+                "--patient.remote.read-timeout-ms=500",
+                "--patient.remote.call-timeout-ms=1000",
+                "--patient.remote.circuit-breaker.slow-call-ms=300",
+                "--patient.remote.circuit-breaker.open-ms=60000")) {
+            baseUrl = environment.getBaseUrl();
+            HttpClient client = HttpClient.newBuilder()
+                    .version(HttpClient.Version.HTTP_1_1)
+                    .executor(clientExecutor)
+                    .build();
+            IntFunction<HttpRequest> request = n -> n % 4 == 3 ? addNote(n) : get("/patient/note/add");
+
+            HttpLoad.send(client, concurrency, WARMUP_REQUESTS, request);
+            double healthy = throughput(client, request);
+
+            environment.setPatientDelayMs(slowPatientDelayMs);
+            double degraded = throughput(client, request);
+
+            CircuitBreaker circuitBreaker = environment.getContext().getBean(CircuitBreaker.class);
+            // The scheduled refresh keeps failing in the background, should the load finish before the circuit opens
+            for (int i = 0; i < 100 && circuitBreaker.getState() != CircuitBreaker.State.OPEN; i++) {
+                Thread.sleep(100);
+            }
+            HttpResponse<String> form = client.send(get("/patient/note/add"), HttpResponse.BodyHandlers.ofString());
+
+            System.out.printf("patient service healthy: %.0f req/s, slowed by %d ms: %.0f req/s, circuit %s%n",
+                    healthy, slowPatientDelayMs, degraded, circuitBreaker.getState());
+
+            //Verify throughput holds, the circuit is open and the add form still lists patients from the last index
+            assertTrue(degraded >= healthy * 0.5, "throughput fell from " + healthy + " to " + degraded + " req/s");
+            assertEquals(CircuitBreaker.State.OPEN, circuitBreaker.getState());
+            assertEquals(200, form.statusCode());
+            assertTrue(form.body().contains("Patient " + PATIENTS));
+        } finally {
+            clientExecutor.shutdownNow();
+        }
+    }
+
+    private double throughput(HttpClient client, IntFunction<HttpRequest> request) throws InterruptedException {
+        long start = System.nanoTime();
+        HttpLoad.send(client, concurrency, requests, request);
+        return requests / ((System.nanoTime() - start) / 1_000_000_000.0);
+    }
+
+    private HttpRequest addNote(int n) {
+        String body = "{\"patId\":" + (n % PATIENTS + 1) + ",\"note\":\"Degradation test note " + n + "\"}";
+        return HttpRequest.newBuilder(URI.create(baseUrl + "/patient/note/api/add"))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path)).build();
+    }
+
+}
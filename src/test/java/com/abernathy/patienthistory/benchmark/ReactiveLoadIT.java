@@ -0,0 +1,94 @@
+package com.abernathy.patienthistory.benchmark;
+
+import com.abernathy.patienthistory.repository.PatientNoteRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.IntFunction;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Integration load test comparing the servlet and reactive profiles at high concurrency
+ * Starts the application once per profile on a random port and fires concurrent GET /patient/note/api/get/{id}
+ * Reports throughput, p50 and p99 latency, and the number of threads the application started to serve the load
+ *
+ * Requires the test Mongo instance from application-test.properties
+ * Load can be set with -Dloadtest.concurrency=256 -Dloadtest.requests=20000
+ */
+public class ReactiveLoadIT {
+
+    // Patient ID used to tag load test notes so they can be removed afterwards
+    private static final int LOADTEST_PAT_ID = 434343;
+
+    private static final int SEEDED_NOTES = 100;
+
+    private static final int WARMUP_REQUESTS = 2000;
+
+    private final int concurrency = Integer.getInteger("loadtest.concurrency", 256);
+
+    private final int requests = Integer.getInteger("loadtest.requests", 20000);
+
+    @Test
+    public void reactiveProfileServesHighConcurrencyWithFewerThreads() throws Exception {
+
+        LoadResult servlet = run("servlet");
+        LoadResult reactive = run("reactive");
+        System.out.printf("p99 servlet %.3f ms, reactive %.3f ms%n", servlet.p99Ms, reactive.p99Ms);
+
+        //Reactive profile should serve the same load without a thread per in-flight request
+        assertTrue(reactive.threads < servlet.threads,
+                "reactive profile used " + reactive.threads + " threads, servlet " + servlet.threads);
+    }
+
+    private LoadResult run(String profile) throws Exception {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        int threadsBefore = threadBean.getThreadCount();
+        threadBean.resetPeakThreadCount();
+
+        ExecutorService clientExecutor = Executors.newFixedThreadPool(4);
+        try (ConfigurableApplicationContext context = HttpLoad.start(profile.equals("reactive") ? profile : null)) {
+            int port = ((WebServerApplicationContext) context).getWebServer().getPort();
+            PatientNoteRepository repository = context.getBean(PatientNoteRepository.class);
+            List<String> ids = HttpLoad.seed(repository, LOADTEST_PAT_ID, SEEDED_NOTES);
+            IntFunction<URI> uri = n -> URI.create("http://localhost:" + port + "/patient/note/api/get/" + ids.get(n % ids.size()));
+            try {
+                HttpClient client = HttpClient.newBuilder()
+                        .version(HttpClient.Version.HTTP_1_1)
+                        .executor(clientExecutor)
+                        .build();
+
+                HttpLoad.load(client, concurrency, WARMUP_REQUESTS, uri);
+                long start = System.nanoTime();
+                long[] nanos = HttpLoad.load(client, concurrency, requests, uri);
+                double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+
+                LoadResult result = new LoadResult();
+                result.threads = threadBean.getPeakThreadCount() - threadsBefore;
+                result.p99Ms = HttpLoad.percentileMs(nanos, 0.99);
+                System.out.printf("%-8s concurrency %d: %.0f req/s, p50 %.3f ms, p99 %.3f ms, threads started %d%n",
+                        profile, concurrency, requests / seconds,
+                        HttpLoad.percentileMs(nanos, 0.5), result.p99Ms, result.threads);
+                return result;
+            } finally {
+                repository.deleteAll(repository.findAllByPatId(LOADTEST_PAT_ID));
+            }
+        } finally {
+            clientExecutor.shutdownNow();
+        }
+    }
+
+    private static class LoadResult {
+        int threads;
+        double p99Ms;
+    }
+
+}
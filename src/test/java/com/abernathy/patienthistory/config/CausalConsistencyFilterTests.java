@@ -0,0 +1,187 @@
+package com.abernathy.patienthistory.config;
+
+import com.mongodb.ClientSessionOptions;
+import com.mongodb.MongoClientException;
+import com.mongodb.client.ClientSession;
+import com.mongodb.client.MongoClient;
+import org.bson.BsonTimestamp;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.mock.web.MockFilterChain;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+
+public class CausalConsistencyFilterTests {
+
+    private static final BsonTimestamp WRITE_TIME = new BsonTimestamp(1700000000, 3);
+
+    private CausalConsistencyFilter filter;
+
+    private CausalSessions causalSessions;
+
+    private MongoClient mongoClient;
+
+    private ClientSession session;
+
+    // Session bound while the request was handled
+    private ClientSession boundSession;
+
+    @BeforeEach
+    public void setup() {
+        mongoClient = Mockito.mock(MongoClient.class);
+        session = Mockito.mock(ClientSession.class);
+        Mockito.when(mongoClient.startSession(any(ClientSessionOptions.class))).thenReturn(session);
+        Mockito.when(session.getOperationTime()).thenReturn(WRITE_TIME);
+        causalSessions = new CausalSessions();
+
+        filter = new CausalConsistencyFilter();
+        ReflectionTestUtils.setField(filter, "mongoClient", mongoClient);
+        ReflectionTestUtils.setField(filter, "causalSessions", causalSessions);
+        ReflectionTestUtils.setField(filter, "readPreference", "secondaryPreferred");
+        ReflectionTestUtils.setField(filter, "maxAgeSeconds", 300);
+    }
+
+    @Test
+    public void causalConsistencyFilterSetsOperationTimeAfterWrite() throws Exception {
+
+        MockHttpServletRequest request = new MockHttpServletRequest("POST", "/patient/note/validate");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, chain((req, res) -> res.sendRedirect("/patient/note/list")));
+
+        //Verify the request ran in a causally consistent session, closed afterwards, and the redirect carries the write time
+        ArgumentCaptor<ClientSessionOptions> options = ArgumentCaptor.forClass(ClientSessionOptions.class);
+        Mockito.verify(mongoClient, Mockito.times(1)).startSession(options.capture());
+        assertTrue(options.getValue().isCausallyConsistent());
+        Mockito.verify(session, Mockito.times(1)).close();
+        assertTrue(boundSession == session);
+        assertNull(causalSessions.current());
+        Cookie cookie = response.getCookie(CausalConsistencyFilter.OPERATION_TIME_COOKIE);
+        assertEquals(Long.toString(WRITE_TIME.getValue()), cookie.getValue());
+        assertTrue(response.getRedirectedUrl().equals("/patient/note/list"));
+    }
+
+    @Test
+    public void causalConsistencyFilterSetsOperationTimeOnEmptyResponse() throws Exception {
+
+        MockHttpServletRequest request = new MockHttpServletRequest("PUT", "/patient/note/api/update");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, chain((req, res) -> res.setStatus(204)));
+
+        //Verify the cookie is added once the handler returns, when nothing was written to the response
+        assertEquals(Long.toString(WRITE_TIME.getValue()),
+                response.getCookie(CausalConsistencyFilter.OPERATION_TIME_COOKIE).getValue());
+    }
+
+    @Test
+    public void causalConsistencyFilterReadsFromClientOperationTime() throws Exception {
+
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/patient/note/list");
+        request.setCookies(new Cookie(CausalConsistencyFilter.OPERATION_TIME_COOKIE, Long.toString(WRITE_TIME.getValue())));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(request, response, chain((req, res) -> res.getWriter().write("list")));
+
+        //Verify the session starts from the client's last write, and reads do not set the cookie again
+        Mockito.verify(session, Mockito.times(1)).advanceOperationTime(WRITE_TIME);
+        assertNull(response.getCookie(CausalConsistencyFilter.OPERATION_TIME_COOKIE));
+    }
+
+    @Test
+    public void causalConsistencyFilterIgnoresMalformedOperationTime() throws Exception {
+
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/patient/note/list");
+        request.setCookies(new Cookie(CausalConsistencyFilter.OPERATION_TIME_COOKIE, "not-a-time"));
+        filter.doFilter(request, new MockHttpServletResponse(), chain((req, res) -> res.getWriter().write("list")));
+
+        //Verify the request is still served in a session, from no particular time
+        Mockito.verify(session, Mockito.times(0)).advanceOperationTime(any());
+        assertTrue(boundSession == session);
+    }
+
+    @Test
+    public void causalConsistencyFilterClampsFutureOperationTime() throws Exception {
+
+        BsonTimestamp future = new BsonTimestamp((int) (System.currentTimeMillis() / 1000) + 86400, 1);
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/patient/note/list");
+        request.setCookies(new Cookie(CausalConsistencyFilter.OPERATION_TIME_COOKIE, Long.toString(future.getValue())));
+        filter.doFilter(request, new MockHttpServletResponse(), chain((req, res) -> res.getWriter().write("list")));
+
+        //Verify a time after now is not passed on, so reads do not wait for it
+        ArgumentCaptor<BsonTimestamp> advanced = ArgumentCaptor.forClass(BsonTimestamp.class);
+        Mockito.verify(session, Mockito.times(1)).advanceOperationTime(advanced.capture());
+        assertTrue(advanced.getValue().compareTo(future) < 0);
+        assertTrue(advanced.getValue().getTime() <= System.currentTimeMillis() / 1000);
+    }
+
+    @Test
+    public void causalConsistencyFilterSkippedOutsideNoteRoutes() throws Exception {
+
+        filter.doFilter(new MockHttpServletRequest("GET", "/css/bootstrap.min.css"), new MockHttpServletResponse(),
+                chain((req, res) -> res.getWriter().write("css")));
+        filter.doFilter(new MockHttpServletRequest("GET", "/actuator/prometheus"), new MockHttpServletResponse(),
+                chain((req, res) -> res.getWriter().write("metrics")));
+        filter.doFilter(new MockHttpServletRequest("GET", "/patient/note/api/changes"), new MockHttpServletResponse(),
+                chain((req, res) -> res.getWriter().write("events")));
+
+        //Verify static assets, actuator and the change feed are served without a session
+        Mockito.verify(mongoClient, Mockito.times(0)).startSession(any(ClientSessionOptions.class));
+        assertNull(boundSession);
+    }
+
+    @Test
+    public void causalConsistencyFilterSkippedForPrimaryReads() throws Exception {
+
+        ReflectionTestUtils.setField(filter, "readPreference", "primary");
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(new MockHttpServletRequest("POST", "/patient/note/api/add"), response,
+                chain((req, res) -> res.setStatus(201)));
+
+        //Verify no session is started while reads go to the primary
+        Mockito.verify(mongoClient, Mockito.times(0)).startSession(any(ClientSessionOptions.class));
+        assertNull(boundSession);
+        assertNull(response.getCookie(CausalConsistencyFilter.OPERATION_TIME_COOKIE));
+    }
+
+    @Test
+    public void causalConsistencyFilterServesRequestWhenSessionsUnsupported() throws Exception {
+
+        Mockito.when(mongoClient.startSession(any(ClientSessionOptions.class)))
+                .thenThrow(new MongoClientException("Sessions are not supported by the MongoDB cluster"));
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        filter.doFilter(new MockHttpServletRequest("POST", "/patient/note/api/add"), response,
+                chain((req, res) -> res.setStatus(201)));
+
+        //Verify the request is still served, without a session or cookie
+        assertTrue(response.getStatus() == 201);
+        assertNull(boundSession);
+        assertNull(response.getCookie(CausalConsistencyFilter.OPERATION_TIME_COOKIE));
+    }
+
+    private MockFilterChain chain(Handler handler) {
+        return new MockFilterChain(new HttpServlet() {
+            @Override
+            protected void service(HttpServletRequest req, HttpServletResponse res) throws IOException {
+                boundSession = causalSessions.current();
+                handler.handle(req, res);
+            }
+        });
+    }
+
+    private interface Handler {
+        void handle(HttpServletRequest req, HttpServletResponse res) throws IOException;
+    }
+
+}
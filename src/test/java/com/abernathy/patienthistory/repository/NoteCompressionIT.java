@@ -0,0 +1,135 @@
+package com.abernathy.patienthistory.repository;
+
+import com.abernathy.patienthistory.domain.PatientNote;
+import com.abernathy.patienthistory.domain.PatientNoteSummary;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Integration tests for compressed note storage and compressed API responses
+ * Requires the test Mongo instance from application-test.properties
+ */
+@ExtendWith(SpringExtension.class)
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@TestPropertySource(
+        locations = "classpath:application-test.properties",
+        properties = {"patient.note.compression.enabled=true", "patient.note.compression.threshold-bytes=1024",
+                "server.compression.enabled=true", "server.compression.mime-types=application/json",
+                "server.compression.min-response-size=2KB"})
+public class NoteCompressionIT {
+
+    // Patient ID used to tag test notes so they can be removed afterwards
+    private static final int TEST_PAT_ID = 464646;
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private PatientNoteRepository patientNoteRepository;
+
+    private final String longNote = "Patient reports dizziness since last visit, Hemoglobin A1C above range. ".repeat(40);
+
+    @AfterEach
+    public void cleanup() {
+        mongoTemplate.remove(new Query(Criteria.where("patId").is(TEST_PAT_ID)), PatientNote.class);
+    }
+
+    @Test
+    public void longNotesAreStoredCompressedAndReadBack() {
+
+        PatientNote saved = patientNoteRepository.save(note(longNote));
+        patientNoteRepository.insertUnordered(List.of(note(longNote)));
+        patientNoteRepository.save(note("Short note"));
+
+        //Verify long notes are stored gzipped without the note field, and short notes are stored as they are
+        List<Document> stored = mongoTemplate.find(new Query(Criteria.where("patId").is(TEST_PAT_ID)), Document.class,
+                mongoTemplate.getCollectionName(PatientNote.class));
+        assertEquals(2, stored.stream().filter(document -> document.containsKey("noteGz") && !document.containsKey("note")).count());
+        assertEquals(1, stored.stream().filter(document -> "Short note".equals(document.get("note"))).count());
+
+        //Verify every read path restores the text
+        assertEquals(longNote, patientNoteRepository.findById(saved.getPatientNoteId()).get().getNote());
+        assertEquals(3, patientNoteRepository.findAllByPatId(TEST_PAT_ID).stream()
+                .filter(note -> note.getNote().equals(longNote) || note.getNote().equals("Short note")).count());
+        List<PatientNoteSummary> summaries = patientNoteRepository.findSummariesByPatId(TEST_PAT_ID, 80);
+        assertTrue(longNote.startsWith(summaries.get(0).getPreview()));
+        assertTrue(summaries.get(0).isTruncated());
+    }
+
+    @Test
+    public void updatesSwitchBetweenStoredForms() {
+
+        PatientNote saved = patientNoteRepository.save(note("Short note"));
+
+        PatientNote previous = patientNoteRepository.updateFields(saved.getPatientNoteId(), saved.getVersion(), Map.of("note", longNote));
+        PatientNote updated = patientNoteRepository.findById(saved.getPatientNoteId()).get();
+        patientNoteRepository.updateFields(saved.getPatientNoteId(), updated.getVersion(), Map.of("note", "Short again"));
+        Document stored = mongoTemplate.findById(saved.getPatientNoteId(), Document.class, mongoTemplate.getCollectionName(PatientNote.class));
+
+        //Verify long text set by update is compressed, and replacing it with short text removes the compressed form
+        assertEquals("Short note", previous.getNote());
+        assertEquals(longNote, updated.getNote());
+        assertEquals("Short again", stored.get("note"));
+        assertFalse(stored.containsKey("noteGz"));
+        assertFalse(stored.containsKey("notePreview"));
+    }
+
+    @Test
+    public void apiResponsesAreGzippedWhenAccepted() throws Exception {
+
+        List<PatientNote> notes = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            notes.add(note(longNote));
+        }
+        patientNoteRepository.saveAll(notes);
+        HttpClient client = HttpClient.newHttpClient();
+        URI uri = URI.create("http://localhost:" + port + "/patient/note/api/getbypatient/" + TEST_PAT_ID);
+
+        HttpResponse<byte[]> plain = client.send(HttpRequest.newBuilder(uri).build(), HttpResponse.BodyHandlers.ofByteArray());
+        HttpResponse<byte[]> gzipped = client.send(HttpRequest.newBuilder(uri).header("Accept-Encoding", "gzip").build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+
+        //Verify gzip is only used when accepted, and the gzipped body is the same JSON
+        assertTrue(plain.statusCode() == 200);
+        assertFalse(plain.headers().firstValue("Content-Encoding").isPresent());
+        assertEquals("gzip", gzipped.headers().firstValue("Content-Encoding").orElse(null));
+        assertTrue(gzipped.body().length * 10 < plain.body().length);
+        byte[] unzipped = new GZIPInputStream(new ByteArrayInputStream(gzipped.body())).readAllBytes();
+        assertEquals(new String(plain.body()), new String(unzipped));
+    }
+
+    private static PatientNote note(String text) {
+        PatientNote patientNote = new PatientNote();
+        patientNote.setPatId(TEST_PAT_ID);
+        patientNote.setNote(text);
+        return patientNote;
+    }
+
+}
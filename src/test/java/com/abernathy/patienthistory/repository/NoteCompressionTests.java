@@ -0,0 +1,82 @@
+package com.abernathy.patienthistory.repository;
+
+import com.abernathy.patienthistory.domain.PatientNote;
+import org.bson.Document;
+import org.bson.types.Binary;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class NoteCompressionTests {
+
+    private NoteCompression noteCompression;
+
+    private String longNote;
+
+    @BeforeEach
+    public void setup() {
+        noteCompression = new NoteCompression();
+        ReflectionTestUtils.setField(noteCompression, "enabled", true);
+        ReflectionTestUtils.setField(noteCompression, "thresholdBytes", 1024);
+        longNote = "Patient reports état normal, Hemoglobin A1C above range. ".repeat(40);
+    }
+
+    @Test
+    public void noteCompressionStoresLongNotesGzipped() {
+
+        Document document = new Document("note", longNote);
+        noteCompression.compress(document);
+
+        //Verify long text is replaced by gzipped bytes and a preview
+        assertFalse(document.containsKey("note"));
+        assertTrue(((Binary) document.get("noteGz")).getData().length < longNote.length() / 4);
+        assertEquals(NoteCompression.PREVIEW_CHARS, ((String) document.get("notePreview")).length());
+        assertTrue(longNote.startsWith((String) document.get("notePreview")));
+    }
+
+    @Test
+    public void noteCompressionLeavesShortNotes() {
+
+        Document document = new Document("note", "Short note");
+        noteCompression.compress(document);
+
+        //Verify text under the threshold is stored as it is
+        assertEquals("Short note", document.get("note"));
+        assertFalse(document.containsKey("noteGz"));
+    }
+
+    @Test
+    public void noteCompressionRestoresNotesOnRead() {
+
+        Document document = new Document("note", longNote);
+        noteCompression.compress(document);
+        // Compression being turned off since does not stop stored notes being read
+        ReflectionTestUtils.setField(noteCompression, "enabled", false);
+        PatientNote note = noteCompression.decompress(new PatientNote(), document);
+
+        //Verify the original text is restored
+        assertEquals(longNote, note.getNote());
+    }
+
+    @Test
+    public void noteCompressionUpdatesReplaceTheOtherForm() {
+
+        Update compressed = noteCompression.setNote(new Update(), longNote);
+        Update plain = noteCompression.setNote(new Update(), "Short note");
+
+        //Verify an update writes one form of the note and removes the other
+        Document set = (Document) compressed.getUpdateObject().get("$set");
+        assertEquals(longNote, NoteCompression.gunzip(((Binary) set.get("noteGz")).getData()));
+        assertTrue(((Document) compressed.getUpdateObject().get("$unset")).containsKey("note"));
+        assertEquals("Short note", ((Document) plain.getUpdateObject().get("$set")).get("note"));
+        assertTrue(((Document) plain.getUpdateObject().get("$unset")).containsKey("noteGz"));
+        assertNull(((Document) plain.getUpdateObject().get("$set")).get("noteGz"));
+    }
+
+}
@@ -0,0 +1,166 @@
+package com.abernathy.patienthistory.repository;
+
+import com.abernathy.patienthistory.domain.PatientNote;
+import com.abernathy.patienthistory.domain.PatientNoteSummary;
+import org.bson.Document;
+import org.bson.RawBsonDocument;
+import org.bson.codecs.DocumentCodec;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Integration tests for the note summaries behind the list and view all pages
+ * Reports bytes read from Mongo and heap allocated per page, loading whole notes as before and summaries as now
+ *
+ * Requires the test Mongo instance from application-test.properties
+ */
+@ExtendWith(SpringExtension.class)
+@SpringBootTest
+@TestPropertySource(
+        locations = "classpath:application-test.properties")
+public class NoteSummaryProjectionIT {
+
+    // Patient ID used to tag test notes so they can be removed afterwards
+    private static final int TEST_PAT_ID = 454545;
+
+    private static final int NOTES = 50;
+
+    private static final int PREVIEW_LENGTH = 80;
+
+    private static final int ROUNDS = 20;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private PatientNoteRepository patientNoteRepository;
+
+    @AfterEach
+    public void cleanup() {
+        mongoTemplate.remove(new Query(Criteria.where("patId").is(TEST_PAT_ID)), PatientNote.class);
+    }
+
+    @Test
+    public void summariesHoldPreviewOnly() {
+
+        PatientNote longNote = note("Patient reports vertige, état " + "dizziness ".repeat(20));
+        PatientNote shortNote = note("Short note");
+        patientNoteRepository.saveAll(List.of(longNote, shortNote));
+
+        List<PatientNoteSummary> summaries = patientNoteRepository.findSummariesByPatId(TEST_PAT_ID, PREVIEW_LENGTH);
+
+        //Verify previews are cut at the preview length in characters, and only long notes are marked truncated
+        assertEquals(2, summaries.size());
+        assertEquals(longNote.getPatientNoteId(), summaries.get(0).getPatientNoteId());
+        assertEquals(TEST_PAT_ID, summaries.get(0).getPatId());
+        assertEquals(PREVIEW_LENGTH, summaries.get(0).getPreview().codePointCount(0, summaries.get(0).getPreview().length()));
+        assertTrue(longNote.getNote().startsWith(summaries.get(0).getPreview()));
+        assertTrue(summaries.get(0).isTruncated());
+        assertEquals("Short note", summaries.get(1).getPreview());
+        assertFalse(summaries.get(1).isTruncated());
+        assertEquals(PatientNoteSummary.of(longNote, PREVIEW_LENGTH).getPreview(), summaries.get(0).getPreview());
+    }
+
+    @Test
+    public void summariesPageInNoteIdOrder() {
+
+        List<PatientNote> notes = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            notes.add(note("Paging test note " + i));
+        }
+        patientNoteRepository.saveAll(notes);
+        String first = notes.get(0).getPatientNoteId();
+
+        List<PatientNoteSummary> page = patientNoteRepository.findSummaries(first, 2, PREVIEW_LENGTH);
+
+        //Verify the page starts after the cursor and is limited
+        assertEquals(2, page.size());
+        assertEquals(notes.get(1).getPatientNoteId(), page.get(0).getPatientNoteId());
+        assertEquals(notes.get(2).getPatientNoteId(), page.get(1).getPatientNoteId());
+    }
+
+    @Test
+    public void summariesMoveFewerBytesAndAllocateLess() {
+
+        List<PatientNote> notes = new ArrayList<>();
+        for (int i = 0; i < NOTES; i++) {
+            notes.add(note("Projection test note " + i + ", patient reports " + "hemoglobin A1C above range, ".repeat(70)));
+        }
+        patientNoteRepository.saveAll(notes);
+        String collection = mongoTemplate.getCollectionName(PatientNote.class);
+
+        long fullBytes = bsonBytes(mongoTemplate.find(byPatient(), Document.class, collection));
+        long summaryBytes = bsonBytes(mongoTemplate.aggregate(NoteSummaries.byPatId(TEST_PAT_ID, PREVIEW_LENGTH),
+                collection, Document.class).getMappedResults());
+
+        long fullAllocated = allocatedPerCall(() -> patientNoteRepository.findAllByPatId(TEST_PAT_ID));
+        long summaryAllocated = allocatedPerCall(() -> patientNoteRepository.findSummariesByPatId(TEST_PAT_ID, PREVIEW_LENGTH));
+        long fullPageAllocated = allocatedPerCall(() -> mongoTemplate.find(
+                new Query().with(Sort.by("patientNoteId")).limit(NOTES), PatientNote.class));
+        long summaryPageAllocated = allocatedPerCall(() -> patientNoteRepository.findSummaries(null, NOTES, PREVIEW_LENGTH));
+
+        System.out.printf("view all, %d notes: %d bytes from Mongo with note bodies, %d as summaries%n", NOTES, fullBytes, summaryBytes);
+        System.out.printf("view all, %d notes: %d bytes allocated with note bodies, %d as summaries%n", NOTES, fullAllocated, summaryAllocated);
+        System.out.printf("list page, %d notes: %d bytes allocated with note bodies, %d as summaries%n", NOTES, fullPageAllocated, summaryPageAllocated);
+
+        //Verify summaries move and allocate a fraction of what whole notes do
+        assertTrue(summaryBytes * 4 < fullBytes);
+        assertTrue(summaryAllocated < fullAllocated);
+        assertTrue(summaryPageAllocated < fullPageAllocated);
+    }
+
+    private Query byPatient() {
+        return new Query(Criteria.where("patId").is(TEST_PAT_ID)).with(Sort.by("createdAt"));
+    }
+
+    private static long bsonBytes(List<Document> documents) {
+        long bytes = 0;
+        for (Document document : documents) {
+            bytes += new RawBsonDocument(document, new DocumentCodec()).getByteBuffer().remaining();
+        }
+        return bytes;
+    }
+
+    // Median heap allocated by the calling thread, which also decodes the Mongo reply
+    private static long allocatedPerCall(Supplier<?> call) {
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().threadId();
+        long[] allocated = new long[ROUNDS];
+        for (int i = 0; i < ROUNDS * 2; i++) {
+            long before = threadBean.getThreadAllocatedBytes(threadId);
+            call.get();
+            if (i >= ROUNDS) {
+                allocated[i - ROUNDS] = threadBean.getThreadAllocatedBytes(threadId) - before;
+            }
+        }
+        Arrays.sort(allocated);
+        return allocated[ROUNDS / 2];
+    }
+
+    private static PatientNote note(String text) {
+        PatientNote patientNote = new PatientNote();
+        patientNote.setPatId(TEST_PAT_ID);
+        patientNote.setNote(text);
+        return patientNote;
+    }
+
+}
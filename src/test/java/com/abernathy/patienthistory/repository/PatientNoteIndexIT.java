@@ -0,0 +1,225 @@
+package com.abernathy.patienthistory.repository;
+
+import com.abernathy.patienthistory.domain.PatientNote;
+import com.abernathy.patienthistory.migration.PatientNoteMigration;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.DefaultApplicationArguments;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.TextCriteria;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Integration tests for PatientNote indexing
+ * Requires the test Mongo instance from application-test.properties
+ */
+@ExtendWith(SpringExtension.class)
+@SpringBootTest
+@TestPropertySource(
+        locations = "classpath:application-test.properties")
+public class PatientNoteIndexIT {
+
+    // Patient ID used to tag test notes so they can be removed afterwards
+    private static final int TEST_PAT_ID = 434343;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private PatientNoteRepository patientNoteRepository;
+
+    @Autowired
+    private PatientNoteMigration patientNoteMigration;
+
+    @AfterEach
+    public void cleanup() {
+        mongoTemplate.remove(new Query(Criteria.where("patId").in(TEST_PAT_ID, String.valueOf(TEST_PAT_ID))), PatientNote.class);
+    }
+
+    @Test
+    public void findAllByPatIdUsesIndex() {
+
+        List<PatientNote> notes = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            PatientNote patientNote = new PatientNote();
+            patientNote.setPatId(TEST_PAT_ID + (i % 5));
+            patientNote.setNote("Index test note " + i);
+            notes.add(patientNote);
+        }
+        patientNoteRepository.saveAll(notes);
+
+        //Explain the same query and sort used by findAllByPatId
+        Document explain = mongoTemplate.getDb().runCommand(new Document("explain",
+                new Document("find", mongoTemplate.getCollectionName(PatientNote.class))
+                        .append("filter", new Document("patId", TEST_PAT_ID))
+                        .append("sort", new Document("createdAt", 1)))
+                .append("verbosity", "queryPlanner"));
+
+        //Verify winning plan reads the index and never scans the collection
+        List<String> stages = new ArrayList<>();
+        collectStages(((Document) explain.get("queryPlanner")).get("winningPlan", Document.class), stages);
+        assertTrue(stages.contains("IXSCAN"), "winning plan stages: " + stages);
+        assertFalse(stages.contains("COLLSCAN"), "winning plan stages: " + stages);
+        assertFalse(stages.contains("SORT"), "winning plan stages: " + stages);
+
+        mongoTemplate.remove(new Query(Criteria.where("patId").gte(TEST_PAT_ID).lt(TEST_PAT_ID + 5)), PatientNote.class);
+    }
+
+    @Test
+    public void migrationConvertsStringPatId() throws Exception {
+
+        //Insert a note the way it was stored before patId became numeric
+        Document legacy = new Document("patId", String.valueOf(TEST_PAT_ID)).append("note", "Legacy note");
+        mongoTemplate.getCollection(mongoTemplate.getCollectionName(PatientNote.class)).insertOne(legacy);
+
+        patientNoteMigration.run(new DefaultApplicationArguments());
+
+        //Verify note is found by numeric patId and has a creation time
+        List<PatientNote> notes = patientNoteRepository.findAllByPatId(TEST_PAT_ID);
+        assertEquals(1, notes.size());
+        assertNotNull(notes.get(0).getCreatedAt());
+        assertEquals(0L, notes.get(0).getVersion());
+    }
+
+    @Test
+    public void updateFieldsIsConditionalOnVersion() {
+
+        PatientNote saved = new PatientNote();
+        saved.setPatId(TEST_PAT_ID);
+        saved.setNote("Versioned note");
+        saved = patientNoteRepository.save(saved);
+        assertEquals(0L, saved.getVersion());
+
+        //First writer holding version 0 succeeds, second writer holding version 0 is refused
+        PatientNote previous = patientNoteRepository.updateFields(saved.getId(), 0L, Map.of("note", "First writer"));
+        assertEquals("Versioned note", previous.getNote());
+        assertNull(patientNoteRepository.updateFields(saved.getId(), 0L, Map.of("note", "Second writer")));
+
+        //Stored note has the first writer's text and its version moved on
+        PatientNote stored = patientNoteRepository.findById(saved.getId()).get();
+        assertEquals("First writer", stored.getNote());
+        assertEquals(1L, stored.getVersion());
+    }
+
+    @Test
+    public void textSearchMatchesPhrasesAndRanksHits() {
+
+        String[] texts = {
+                "Hemoglobin A1C above recommended level, patient is a smoker",
+                "Hemoglobin checked, A1C not measured",
+                "Smoker, advised to quit",
+                "Microalbumin normal"};
+        List<PatientNote> notes = new ArrayList<>();
+        for (String text : texts) {
+            PatientNote patientNote = new PatientNote();
+            patientNote.setPatId(TEST_PAT_ID);
+            patientNote.setNote(text);
+            notes.add(patientNote);
+        }
+        patientNoteRepository.saveAll(notes);
+        Pageable byScore = PageRequest.of(0, 10, Sort.by("score"));
+
+        //Phrase only matches the words in order
+        Page<PatientNote> hits = patientNoteRepository.findByPatId(TEST_PAT_ID,
+                TextCriteria.forDefaultLanguage().matchingPhrase("Hemoglobin A1C"), byScore);
+        assertEquals(1, hits.getTotalElements());
+        assertEquals(texts[0], hits.getContent().get(0).getNote());
+
+        //Terms match case insensitively, the note matching more terms ranks first
+        hits = patientNoteRepository.findByPatId(TEST_PAT_ID,
+                TextCriteria.forDefaultLanguage().matching("SMOKER").matching("hemoglobin"), byScore);
+        assertEquals(3, hits.getTotalElements());
+        assertEquals(texts[0], hits.getContent().get(0).getNote());
+        assertNotNull(hits.getContent().get(0).getScore());
+    }
+
+    @Test
+    public void triggerTermsAreStoredOnEveryWrite() {
+
+        //Saved through the repository
+        PatientNote saved = new PatientNote();
+        saved.setPatId(TEST_PAT_ID);
+        saved.setNote("Smoker, cholesterol high");
+        saved = patientNoteRepository.save(saved);
+
+        //Inserted in bulk
+        PatientNote bulk = new PatientNote();
+        bulk.setPatId(TEST_PAT_ID);
+        bulk.setNote("Microalbumin abnormal");
+        patientNoteRepository.insertUnordered(List.of(bulk));
+
+        List<PatientNote> counted = patientNoteRepository.findTriggerTermsByPatId(TEST_PAT_ID);
+        assertEquals(2, counted.size());
+        for (PatientNote note : counted) {
+            assertNotNull(note.getTriggerTermsVersion());
+            assertNull(note.getNote());
+            assertEquals(2, note.getTriggerTerms().size());
+        }
+
+        //Updating the text replaces the counts
+        saved.setNote("Dizziness");
+        patientNoteRepository.save(saved);
+        assertEquals(1, patientNoteRepository.findById(saved.getPatientNoteId()).get().getTriggerTerms().get("Dizziness"));
+    }
+
+    @Test
+    public void streamAllByPatIdInReturnsNotesGroupedByPatient() {
+
+        List<PatientNote> notes = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            PatientNote patientNote = new PatientNote();
+            patientNote.setPatId(TEST_PAT_ID + (i % 3));
+            patientNote.setNote("Batch test note " + i);
+            notes.add(patientNote);
+        }
+        patientNoteRepository.saveAll(notes);
+
+        //Only requested patients are returned, each patient's notes together
+        List<Integer> patIds = new ArrayList<>();
+        try (Stream<PatientNote> stream = patientNoteRepository.streamAllByPatIdIn(List.of(TEST_PAT_ID + 2, TEST_PAT_ID))) {
+            stream.forEach(note -> patIds.add(note.getPatId()));
+        }
+        assertEquals(20, patIds.size());
+        assertEquals(10, patIds.lastIndexOf(TEST_PAT_ID) - patIds.indexOf(TEST_PAT_ID) + 1);
+        assertFalse(patIds.contains(TEST_PAT_ID + 1));
+
+        mongoTemplate.remove(new Query(Criteria.where("patId").gte(TEST_PAT_ID).lt(TEST_PAT_ID + 3)), PatientNote.class);
+    }
+
+    private void collectStages(Document plan, List<String> stages) {
+        if (plan == null) {
+            return;
+        }
+        stages.add(plan.getString("stage"));
+        collectStages(plan.get("inputStage", Document.class), stages);
+        Object inputStages = plan.get("inputStages");
+        if (inputStages instanceof List) {
+            for (Object stage : (List<?>) inputStages) {
+                collectStages((Document) stage, stages);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,183 @@
+package com.abernathy.patienthistory.repository;
+
+import com.abernathy.patienthistory.domain.PatientTermProfile;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit.jupiter.SpringExtension;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Integration tests for incremental PatientTermProfile updates
+ * Requires the test Mongo instance from application-test.properties
+ */
+@ExtendWith(SpringExtension.class)
+@SpringBootTest
+@TestPropertySource(
+        locations = "classpath:application-test.properties")
+public class PatientTermProfileIT {
+
+    // Patient IDs used for test profiles so they can be removed afterwards
+    private static final int TEST_PAT_ID = 434343;
+    private static final int OTHER_PAT_ID = 434344;
+
+    private static final String VERSION = "test";
+
+    @Autowired
+    private PatientTermProfileRepository patientTermProfileRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @AfterEach
+    public void cleanup() {
+        patientTermProfileRepository.deleteById(TEST_PAT_ID);
+        patientTermProfileRepository.deleteById(OTHER_PAT_ID);
+    }
+
+    @Test
+    public void recordNoteReplacesPreviousContribution() {
+
+        emptyProfile(TEST_PAT_ID);
+
+        //Two new notes
+        assertTrue(patientTermProfileRepository.recordNote(TEST_PAT_ID, "NOTE1", counts("Smoker", 2, "Relapse", 1), VERSION));
+        assertTrue(patientTermProfileRepository.recordNote(TEST_PAT_ID, "NOTE2", counts("Smoker", 1), VERSION));
+
+        //First note updated, Relapse removed and Dizziness added
+        assertTrue(patientTermProfileRepository.recordNote(TEST_PAT_ID, "NOTE1", counts("Smoker", 1, "Dizziness", 1), VERSION));
+
+        PatientTermProfile profile = patientTermProfileRepository.findTotalsByPatId(TEST_PAT_ID).get();
+        assertEquals(2, profile.getNoteCount());
+        assertEquals(2, profile.getTerms().get("Smoker"));
+        assertEquals(0, profile.getTerms().get("Relapse"));
+        assertEquals(1, profile.getTerms().get("Dizziness"));
+        assertNull(profile.getNotes());
+    }
+
+    @Test
+    public void removeNoteSubtractsContribution() {
+
+        emptyProfile(TEST_PAT_ID);
+        emptyProfile(OTHER_PAT_ID);
+        patientTermProfileRepository.recordNote(TEST_PAT_ID, "NOTE1", counts("Smoker", 2), VERSION);
+
+        //Note moves to other patient
+        assertTrue(patientTermProfileRepository.removeNote(TEST_PAT_ID, "NOTE1", VERSION));
+        patientTermProfileRepository.recordNote(OTHER_PAT_ID, "NOTE1", counts("Smoker", 2), VERSION);
+
+        PatientTermProfile profile = patientTermProfileRepository.findById(TEST_PAT_ID).get();
+        assertEquals(0, profile.getNoteCount());
+        assertEquals(0, profile.getTerms().get("Smoker"));
+        assertFalse(profile.getNotes().containsKey("NOTE1"));
+        assertEquals(2, patientTermProfileRepository.findById(OTHER_PAT_ID).get().getTerms().get("Smoker"));
+    }
+
+    @Test
+    public void concurrentRecordNoteCallsAllAddUp() throws Exception {
+
+        emptyProfile(TEST_PAT_ID);
+        int writes = 40;
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<Boolean>> recorded = new ArrayList<>();
+        for (int i = 0; i < writes; i++) {
+            String noteId = "NOTE" + (i % 10);
+            int smoker = i;
+            recorded.add(executor.submit(() -> patientTermProfileRepository.recordNote(TEST_PAT_ID, noteId, counts("Smoker", smoker), VERSION)));
+        }
+        for (Future<Boolean> result : recorded) {
+            assertTrue(result.get());
+        }
+        executor.shutdown();
+
+        //Verify totals match the contributions stored, whichever write of each note landed last
+        PatientTermProfile profile = patientTermProfileRepository.findById(TEST_PAT_ID).get();
+        int stored = profile.getNotes().values().stream().mapToInt(note -> note.get("Smoker")).sum();
+        assertEquals(10, profile.getNoteCount());
+        assertEquals(stored, profile.getTerms().get("Smoker"));
+    }
+
+    @Test
+    public void recordNoteSkipsMissingOrOutdatedProfile() {
+
+        //No profile yet, left to be built from the notes
+        assertFalse(patientTermProfileRepository.recordNote(TEST_PAT_ID, "NOTE1", counts("Smoker", 1), VERSION));
+        assertFalse(patientTermProfileRepository.findById(TEST_PAT_ID).isPresent());
+
+        //Profile made with another term list
+        emptyProfile(TEST_PAT_ID);
+        assertFalse(patientTermProfileRepository.recordNote(TEST_PAT_ID, "NOTE1", counts("Smoker", 1), "other"));
+    }
+
+    @Test
+    public void startProfileKeepsNotesRecordedOnCurrentProfile() {
+
+        //New profile, then a note recorded while it is built
+        assertTrue(patientTermProfileRepository.startProfile(TEST_PAT_ID, VERSION));
+        assertTrue(patientTermProfileRepository.recordNote(TEST_PAT_ID, "NOTE1", counts("Smoker", 2), VERSION));
+
+        //Verify a second build neither empties the profile nor adds the note again from older counts
+        assertFalse(patientTermProfileRepository.startProfile(TEST_PAT_ID, VERSION));
+        assertFalse(patientTermProfileRepository.addNoteIfAbsent(TEST_PAT_ID, "NOTE1", counts("Smoker", 1), VERSION));
+        assertTrue(patientTermProfileRepository.addNoteIfAbsent(TEST_PAT_ID, "NOTE2", counts("Smoker", 1), VERSION));
+
+        PatientTermProfile profile = patientTermProfileRepository.findTotalsByPatId(TEST_PAT_ID).get();
+        assertEquals(2, profile.getNoteCount());
+        assertEquals(3, profile.getTerms().get("Smoker"));
+
+        //Verify a new term list empties the profile
+        assertTrue(patientTermProfileRepository.startProfile(TEST_PAT_ID, "other"));
+        profile = patientTermProfileRepository.findById(TEST_PAT_ID).get();
+        assertEquals(0, profile.getNoteCount());
+        assertTrue(profile.getNotes().isEmpty());
+        assertEquals("other", profile.getVersion());
+    }
+
+    @Test
+    public void repositoryCallsAreTimedByMethod() {
+
+        emptyProfile(TEST_PAT_ID);
+        patientTermProfileRepository.findTotalsByPatId(TEST_PAT_ID);
+        patientTermProfileRepository.recordNote(TEST_PAT_ID, "NOTE1", counts("Smoker", 1), VERSION);
+
+        //Verify query and custom methods each get a timer tagged by repository and method
+        assertTrue(meterRegistry.get("spring.data.repository.invocations")
+                .tag("repository", "PatientTermProfileRepository").tag("method", "findTotalsByPatId").timer().count() > 0);
+        assertTrue(meterRegistry.get("spring.data.repository.invocations")
+                .tag("repository", "PatientTermProfileRepository").tag("method", "recordNote").timer().count() > 0);
+    }
+
+    private void emptyProfile(int patId) {
+        PatientTermProfile profile = new PatientTermProfile();
+        profile.setPatId(patId);
+        profile.setTerms(new HashMap<>());
+        profile.setNotes(new HashMap<>());
+        profile.setVersion(VERSION);
+        patientTermProfileRepository.save(profile);
+    }
+
+    private static Map<String, Integer> counts(Object... termsAndCounts) {
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < termsAndCounts.length; i += 2) {
+            counts.put((String) termsAndCounts[i], (Integer) termsAndCounts[i + 1]);
+        }
+        return counts;
+    }
+
+}
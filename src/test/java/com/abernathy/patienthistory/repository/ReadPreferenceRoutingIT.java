@@ -0,0 +1,233 @@
+package com.abernathy.patienthistory.repository;
+
+import com.abernathy.patienthistory.PatienthistoryApplication;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.web.context.WebServerApplicationContext;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.FileSystemUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.CookieManager;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Integration tests for reading notes from secondaries with patient.note.read-preference
+ * Starts a three member replica set from local mongod processes, runs the application reading from secondaries,
+ * and checks clients read their own writes straight after /patient/note/api/add and /patient/note/validate
+ *
+ * Skipped when mongod cannot be run, the binary can be given with -Dmongod.path=/path/to/mongod
+ * and the member ports with -Dreplset.ports=27031,27032,27033
+ */
+public class ReadPreferenceRoutingIT {
+
+    private static final String REPLICA_SET = "rs0";
+
+    // Patient ID used to tag test notes
+    private static final int TEST_PAT_ID = 464646;
+
+    private static final int WRITES = 50;
+
+    private static final String MONGOD = System.getProperty("mongod.path", "mongod");
+
+    private static final int[] PORTS = Arrays.stream(System.getProperty("replset.ports", "27031,27032,27033").split(","))
+            .mapToInt(Integer::parseInt)
+            .toArray();
+
+    private static final List<Process> members = new ArrayList<>();
+
+    private static Path dataDir;
+
+    private static ConfigurableApplicationContext context;
+
+    private static String baseUrl;
+
+    @BeforeAll
+    public static void startReplicaSet() throws Exception {
+        assumeTrue(mongodAvailable(), "mongod not found, set -Dmongod.path to run against a local replica set");
+        dataDir = Files.createTempDirectory("patienthistory-rs");
+        for (int port : PORTS) {
+            File memberDir = dataDir.resolve(Integer.toString(port)).toFile();
+            memberDir.mkdirs();
+            members.add(new ProcessBuilder(MONGOD, "--replSet", REPLICA_SET, "--port", Integer.toString(port),
+                    "--bind_ip", "localhost", "--dbpath", memberDir.getPath(), "--oplogSize", "64",
+                    "--logpath", new File(memberDir, "mongod.log").getPath())
+                    .start());
+        }
+        initiateReplicaSet();
+
+        context = new SpringApplicationBuilder(PatienthistoryApplication.class).run("--server.port=0",
+                "--spring.config.additional-location=classpath:application-test.properties",
+                "--spring.data.mongodb.port=" + PORTS[0],
+                "--spring.data.mongodb.replica-set-name=" + REPLICA_SET,
+                "--patient.note.migration.enabled=false",
+                "--patient.note.read-preference=secondary");
+        baseUrl = "http://localhost:" + ((WebServerApplicationContext) context).getWebServer().getPort();
+    }
+
+    @AfterAll
+    public static void stopReplicaSet() throws Exception {
+        if (context != null) {
+            context.close();
+        }
+        for (Process member : members) {
+            member.destroy();
+            if (!member.waitFor(30, TimeUnit.SECONDS)) {
+                member.destroyForcibly();
+            }
+        }
+        if (dataDir != null) {
+            FileSystemUtils.deleteRecursively(dataDir);
+        }
+    }
+
+    @Test
+    public void apiReadsSeeOwnWritesFromSecondaries() throws Exception {
+        HttpClient client = HttpClient.newBuilder().cookieHandler(new CookieManager()).build();
+        long[] queriesBefore = queryCounts();
+
+        for (int i = 0; i < WRITES; i++) {
+            String note = "Routing test note " + i;
+            HttpResponse<String> added = client.send(HttpRequest.newBuilder(URI.create(baseUrl + "/patient/note/api/add"))
+                    .header("Content-Type", "application/json")
+                    .POST(HttpRequest.BodyPublishers.ofString("{\"patId\":" + TEST_PAT_ID + ",\"note\":\"" + note + "\"}"))
+                    .build(), HttpResponse.BodyHandlers.ofString());
+            HttpResponse<String> read = client.send(get("/patient/note/api/getbypatient/" + TEST_PAT_ID),
+                    HttpResponse.BodyHandlers.ofString());
+
+            //Verify each read straight after an add sees the new note
+            assertEquals(201, added.statusCode());
+            assertTrue(added.headers().firstValue("Set-Cookie").orElse("").startsWith("noteOpTime="));
+            assertEquals(200, read.statusCode());
+            assertTrue(read.body().contains(note), "read after add " + i + " did not see the note");
+        }
+
+        long[] queriesAfter = queryCounts();
+        long primaryQueries = queriesAfter[0] - queriesBefore[0];
+        long secondaryQueries = 0;
+        for (int i = 1; i < PORTS.length; i++) {
+            secondaryQueries += queriesAfter[i] - queriesBefore[i];
+        }
+        System.out.printf("%d add then read rounds: %d queries on the primary, %d on secondaries%n",
+                WRITES, primaryQueries, secondaryQueries);
+
+        //Verify the reads were served by secondaries
+        assertTrue(secondaryQueries >= WRITES);
+        assertTrue(primaryQueries < WRITES);
+    }
+
+    @Test
+    public void formRedirectSeesOwnWriteFromSecondaries() throws Exception {
+        HttpClient client = HttpClient.newBuilder().cookieHandler(new CookieManager()).build();
+        String note = "Routing test form note";
+
+        HttpResponse<String> validated = client.send(HttpRequest.newBuilder(URI.create(baseUrl + "/patient/note/validate"))
+                .header("Content-Type", "application/x-www-form-urlencoded")
+                .POST(HttpRequest.BodyPublishers.ofString("patId=" + TEST_PAT_ID
+                        + "&note=" + URLEncoder.encode(note, StandardCharsets.UTF_8)))
+                .build(), HttpResponse.BodyHandlers.ofString());
+        HttpResponse<String> viewAll = client.send(get("/patient/note/viewall/" + TEST_PAT_ID),
+                HttpResponse.BodyHandlers.ofString());
+
+        //Verify the redirect carries the write time and the next page shows the note
+        assertEquals(302, validated.statusCode());
+        assertTrue(validated.headers().firstValue("Set-Cookie").orElse("").startsWith("noteOpTime="));
+        assertEquals(200, viewAll.statusCode());
+        assertTrue(viewAll.body().contains(note));
+    }
+
+    private HttpRequest get(String path) {
+        return HttpRequest.newBuilder(URI.create(baseUrl + path)).build();
+    }
+
+    // Queries served by each member, primary first
+    private static long[] queryCounts() {
+        long[] counts = new long[PORTS.length];
+        for (int i = 0; i < PORTS.length; i++) {
+            try (MongoClient member = MongoClients.create("mongodb://localhost:" + PORTS[i] + "/?directConnection=true")) {
+                Document status = member.getDatabase("admin").runCommand(new Document("serverStatus", 1));
+                counts[i] = ((Number) status.get("opcounters", Document.class).get("query")).longValue();
+            }
+        }
+        return counts;
+    }
+
+    private static boolean mongodAvailable() {
+        try {
+            Process version = new ProcessBuilder(MONGOD, "--version").redirectErrorStream(true).start();
+            version.getInputStream().readAllBytes();
+            return version.waitFor(30, TimeUnit.SECONDS) && version.exitValue() == 0;
+        } catch (IOException | InterruptedException e) {
+            return false;
+        }
+    }
+
+    // Initiates the set with the first member preferred as primary, adds the test user, then waits for the secondaries
+    private static void initiateReplicaSet() throws InterruptedException {
+        List<Document> memberConfig = new ArrayList<>();
+        for (int i = 0; i < PORTS.length; i++) {
+            memberConfig.add(new Document("_id", i).append("host", "localhost:" + PORTS[i]).append("priority", i == 0 ? 2 : 1));
+        }
+        try (MongoClient first = MongoClients.create("mongodb://localhost:" + PORTS[0] + "/?directConnection=true")) {
+            waitFor(() -> first.getDatabase("admin").runCommand(new Document("ping", 1)));
+            first.getDatabase("admin").runCommand(new Document("replSetInitiate",
+                    new Document("_id", REPLICA_SET).append("members", memberConfig)));
+            waitFor(() -> {
+                if (!first.getDatabase("admin").runCommand(new Document("hello", 1)).getBoolean("isWritablePrimary")) {
+                    throw new IllegalStateException("no primary yet");
+                }
+            });
+            first.getDatabase("admin").runCommand(new Document("createUser", "root")
+                    .append("pwd", "password")
+                    .append("roles", List.of(new Document("role", "root").append("db", "admin"))));
+            waitFor(() -> {
+                List<Document> states = first.getDatabase("admin").runCommand(new Document("replSetGetStatus", 1))
+                        .getList("members", Document.class);
+                String notReady = states.stream()
+                        .map(member -> member.getString("stateStr"))
+                        .filter(state -> !state.equals("PRIMARY") && !state.equals("SECONDARY"))
+                        .collect(Collectors.joining(","));
+                if (!notReady.isEmpty()) {
+                    throw new IllegalStateException("members not ready: " + notReady);
+                }
+            });
+        }
+    }
+
+    private static void waitFor(Runnable check) throws InterruptedException {
+        RuntimeException last = null;
+        for (int i = 0; i < 120; i++) {
+            try {
+                check.run();
+                return;
+            } catch (RuntimeException e) {
+                last = e;
+                Thread.sleep(500);
+            }
+        }
+        throw last;
+    }
+
+}
@@ -0,0 +1,188 @@
+package com.abernathy.patienthistory.retrofit;
+
+import com.abernathy.patienthistory.remote.PatientRemote;
+import com.abernathy.patienthistory.remote.interfaces.PatientRetro;
+import io.github.resilience4j.bulkhead.Bulkhead;
+import io.github.resilience4j.circuitbreaker.CircuitBreaker;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+import retrofit2.Call;
+import retrofit2.Response;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class PatientRemoteTests {
+
+    private PatientRetro patientRetro;
+
+    private PatientRemote patientRemote;
+
+    private Map<Integer, String> index;
+
+    private SimpleMeterRegistry meterRegistry;
+
+    private CircuitBreaker circuitBreaker;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void setup() throws IOException {
+        index = new HashMap<>();
+        index.put(1, "Test Patient");
+
+        Call<Map<Integer, String>> call = mock(Call.class);
+        when(call.execute()).thenReturn(Response.success(index));
+
+        patientRetro = mock(PatientRetro.class);
+        when(patientRetro.getPatientIndex()).thenReturn(call);
+
+        meterRegistry = new SimpleMeterRegistry();
+        patientRemote = new PatientRemote();
+        ReflectionTestUtils.setField(patientRemote, "patientRetro", patientRetro);
+        ReflectionTestUtils.setField(patientRemote, "meterRegistry", meterRegistry);
+        circuitBreaker = CircuitBreaker.ofDefaults("patient");
+        ReflectionTestUtils.setField(patientRemote, "patientCircuitBreaker", circuitBreaker);
+        ReflectionTestUtils.setField(patientRemote, "patientBulkhead", Bulkhead.ofDefaults("patient"));
+    }
+
+    @Test
+    public void patientRemoteServesIndexFromCache() {
+
+        patientRemote.getPatientIndex();
+        Map<Integer, String> cached = patientRemote.getPatientIndex();
+
+        //Verify the patient service is only called once while the index is fresh
+        assertEquals(index, cached);
+        Mockito.verify(patientRetro, Mockito.times(1)).getPatientIndex();
+    }
+
+    @Test
+    public void patientRemoteReloadsIndexAfterTtl() {
+
+        ReflectionTestUtils.setField(patientRemote, "indexTtlMs", 0L);
+        patientRemote.getPatientIndex();
+        patientRemote.getPatientIndex();
+
+        //Verify an expired index is fetched again
+        Mockito.verify(patientRetro, Mockito.times(2)).getPatientIndex();
+    }
+
+    @Test
+    public void patientRemoteRefreshUpdatesCache() {
+
+        patientRemote.refreshPatientIndex();
+        patientRemote.getPatientIndex();
+
+        //Verify a background refresh populates the cache for later callers
+        Mockito.verify(patientRetro, Mockito.times(1)).getPatientIndex();
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void patientRemoteTimesCallsByOutcome() throws IOException {
+
+        patientRemote.refreshPatientIndex();
+        Call<Map<Integer, String>> failing = mock(Call.class);
+        when(failing.execute()).thenThrow(new IOException("connection refused"));
+        when(patientRetro.getPatientIndex()).thenReturn(failing);
+        patientRemote.refreshPatientIndex();
+
+        //Verify successful and failed calls are timed separately
+        assertEquals(1, meterRegistry.get("patient.remote.requests").tag("outcome", "SUCCESS").timer().count());
+        assertEquals(1, meterRegistry.get("patient.remote.requests").tag("outcome", "UNKNOWN").timer().count());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void patientRemoteReturnsEmptyIndexWhenServiceDown() throws IOException {
+
+        Call<Map<Integer, String>> failing = mock(Call.class);
+        when(failing.execute()).thenThrow(new IOException("connection refused"));
+        when(patientRetro.getPatientIndex()).thenReturn(failing);
+
+        //Verify an empty index rather than null is returned when no index has been loaded
+        assertEquals(Collections.emptyMap(), patientRemote.getPatientIndex());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void patientRemoteSharesOneCallBetweenColdCallers() throws Exception {
+
+        Call<Map<Integer, String>> slowFailing = mock(Call.class);
+        when(slowFailing.execute()).thenAnswer(invocation -> {
+            Thread.sleep(500);
+            throw new IOException("timeout");
+        });
+        when(patientRetro.getPatientIndex()).thenReturn(slowFailing);
+
+        int callers = 8;
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        List<Future<Map<Integer, String>>> results = new ArrayList<>();
+        for (int i = 0; i < callers; i++) {
+            results.add(executor.submit(() -> {
+                start.await();
+                return patientRemote.getPatientIndex();
+            }));
+        }
+        start.countDown();
+        for (Future<Map<Integer, String>> result : results) {
+            assertEquals(Collections.emptyMap(), result.get(5, TimeUnit.SECONDS));
+        }
+        executor.shutdown();
+
+        //Verify callers arriving while no index is loaded wait on one call, rather than each making their own
+        Mockito.verify(patientRetro, Mockito.times(1)).getPatientIndex();
+    }
+
+    @Test
+    public void patientRemoteServesStaleIndexWhileCircuitOpen() {
+
+        patientRemote.getPatientIndex();
+        ReflectionTestUtils.setField(patientRemote, "indexTtlMs", 0L);
+        circuitBreaker.transitionToOpenState();
+        Map<Integer, String> stale = patientRemote.getPatientIndex();
+
+        //Verify the last index is served without calling the patient service, and the rejection is timed
+        assertEquals(index, stale);
+        Mockito.verify(patientRetro, Mockito.times(1)).getPatientIndex();
+        assertEquals(1, meterRegistry.get("patient.remote.requests").tag("outcome", "REJECTED").timer().count());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void patientRemoteCountsErrorResponsesAsFailures() throws IOException {
+
+        okhttp3.Response raw = new okhttp3.Response.Builder()
+                .request(new okhttp3.Request.Builder().url("http://localhost/").build())
+                .protocol(okhttp3.Protocol.HTTP_1_1)
+                .code(503)
+                .message("Service Unavailable")
+                .build();
+        Response<Map<Integer, String>> unavailable = Response.error(okhttp3.ResponseBody.create("", null), raw);
+        Call<Map<Integer, String>> failing = mock(Call.class);
+        when(failing.execute()).thenReturn(unavailable);
+        when(patientRetro.getPatientIndex()).thenReturn(failing);
+        patientRemote.refreshPatientIndex();
+
+        //Verify an error response is recorded as a failed call by the circuit breaker
+        assertEquals(1, circuitBreaker.getMetrics().getNumberOfFailedCalls());
+    }
+
+}
@@ -3,6 +3,7 @@ package com.abernathy.patienthistory.retrofit;
 import com.abernathy.patienthistory.remote.PatientRemote;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.TestPropertySource;
@@ -20,10 +21,12 @@ import static org.junit.jupiter.api.Assertions.assertTrue;
         locations = "classpath:application-test.properties")
 public class RetrofitIT {
 
+    @Autowired
+    private PatientRemote patientRemote;
+
     @Test
     public void patientRemoteCanGetPatientIndex() {
 
-        PatientRemote patientRemote = new PatientRemote();
         Map<Integer, String> index = patientRemote.getPatientIndex();
 
         System.out.println("Retrieved patient index: " + index);
@@ -32,4 +35,3 @@ public class RetrofitIT {
     }
 
 }
-
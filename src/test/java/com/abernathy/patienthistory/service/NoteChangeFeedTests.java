@@ -0,0 +1,65 @@
+package com.abernathy.patienthistory.service;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.messaging.MessageListenerContainer;
+import org.springframework.data.mongodb.core.messaging.Subscription;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.server.ResponseStatusException;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+
+public class NoteChangeFeedTests {
+
+    private NoteChangeFeed noteChangeFeed;
+
+    private MessageListenerContainer container;
+
+    @BeforeEach
+    public void setup() {
+        MongoTemplate mongoTemplate = Mockito.mock(MongoTemplate.class);
+        Mockito.when(mongoTemplate.getCollectionName(any())).thenReturn("patientNote");
+        container = Mockito.mock(MessageListenerContainer.class);
+        Mockito.when(container.register(any(), any(), any())).thenReturn(Mockito.mock(Subscription.class));
+
+        noteChangeFeed = new NoteChangeFeed();
+        ReflectionTestUtils.setField(noteChangeFeed, "mongoTemplate", mongoTemplate);
+        ReflectionTestUtils.setField(noteChangeFeed, "container", container);
+        ReflectionTestUtils.setField(noteChangeFeed, "timeoutMs", 300000L);
+        ReflectionTestUtils.setField(noteChangeFeed, "maxSubscribers", 2);
+    }
+
+    @Test
+    public void noteChangeFeedRejectsSubscribersOverLimit() {
+
+        noteChangeFeed.subscribe(1, null);
+        noteChangeFeed.subscribe(null, null);
+
+        //Verify a third feed is refused with 503 without opening a change stream
+        ResponseStatusException e = assertThrows(ResponseStatusException.class, () -> noteChangeFeed.subscribe(1, null));
+        assertTrue(e.getStatus() == HttpStatus.SERVICE_UNAVAILABLE);
+        Mockito.verify(container, Mockito.times(2)).register(any(), any(), any());
+    }
+
+    @Test
+    public void noteChangeFeedSkipsTriggerTermOnlyUpdates() {
+
+        List<Document> pipeline = NoteChangeFeed.changeFilter(1).toPipeline(Aggregation.DEFAULT_CONTEXT);
+
+        //Verify updates only reach subscribers if they change a field other than triggerTerms*
+        assertTrue(pipeline.size() == 2);
+        String termsFilter = pipeline.get(1).toJson();
+        assertTrue(termsFilter.contains("\"$indexOfCP\": [\"$$this.k\", \"triggerTerms\"]"));
+        assertTrue(termsFilter.contains("\"operationType\": {\"$ne\": \"update\"}"));
+    }
+
+}